@@ -33,6 +33,7 @@ import static springfox.documentation.builders.PathSelectors.regex;
         AsyncConfiguration.class,
         CacheConfiguration.class,
         CassandraConfiguration.class,
+        ClusterConfiguration.class,
         SearchConfiguration.class,
         MailConfiguration.class,
         MetricsConfiguration.class})
@@ -85,12 +86,13 @@ public class ApplicationConfiguration {
      * <p/>
      * Available profiles are :
      * - "apple-push" : for enabling Apple Push notifications
+     * - "lucene" : for using a local Lucene search engine instead of Elastic Search
      * - "metrics" : for enabling Yammer Metrics
      * - "tatamibot" : for enabling the Tatami bot
      */
     @PostConstruct
     public void initTatami() throws IOException {
-        log.debug("Looking for Spring profiles... Available profiles are \"metrics\", \"tatamibot\" and \"apple-push\"");
+        log.debug("Looking for Spring profiles... Available profiles are \"metrics\", \"tatamibot\", \"lucene\" and \"apple-push\"");
         if (env.getActiveProfiles().length == 0) {
             log.debug("No Spring profile configured, running with default configuration");
         } else {
@@ -1,12 +1,9 @@
 package fr.ippon.tatami.config;
 
-import fr.ippon.tatami.service.SearchService;
-import fr.ippon.tatami.service.elasticsearch.ElasticsearchSearchService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
 import org.springframework.aop.interceptor.SimpleAsyncUncaughtExceptionHandler;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -23,11 +20,6 @@ public class AsyncConfiguration implements AsyncConfigurer {
 
     private final Logger log = LoggerFactory.getLogger(AsyncConfiguration.class);
 
-    @Bean
-    public SearchService searchService() {
-        return new ElasticsearchSearchService();
-    }
-
     @Override
     public Executor getAsyncExecutor() {
         log.debug("Creating Async Task Executor");
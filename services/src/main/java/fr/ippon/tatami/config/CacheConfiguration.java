@@ -1,6 +1,8 @@
 package fr.ippon.tatami.config;
 
 import com.yammer.metrics.ehcache.InstrumentedEhcache;
+import fr.ippon.tatami.service.cluster.ClusterCacheManager;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Ehcache;
 import org.slf4j.Logger;
@@ -11,9 +13,11 @@ import org.springframework.cache.ehcache.EhCacheCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
 
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.util.Set;
 
 @Configuration
 @EnableCaching
@@ -26,6 +30,9 @@ public class CacheConfiguration {
     @Inject
     private Environment env;
 
+    @Inject
+    private ClusterTransport clusterTransport;
+
     @PreDestroy
     public void destroy() {
         log.info("Closing Ehcache");
@@ -39,10 +46,6 @@ public class CacheConfiguration {
         if (env.acceptsProfiles(Constants.SPRING_PROFILE_METRICS)) {
             log.debug("Ehcache Metrics monitoring enabled");
 
-            Cache statusCache = cacheManager.getCache("status-cache");
-            Ehcache decoratedStatusCache = InstrumentedEhcache.instrument(statusCache);
-            cacheManager.replaceCacheWithDecoratedCache(statusCache, decoratedStatusCache);
-
             Cache userCache = cacheManager.getCache("user-cache");
             Ehcache decoratedUserCache = InstrumentedEhcache.instrument(userCache);
             cacheManager.replaceCacheWithDecoratedCache(userCache, decoratedUserCache);
@@ -69,6 +72,11 @@ public class CacheConfiguration {
         }
         EhCacheCacheManager ehCacheManager = new EhCacheCacheManager();
         ehCacheManager.setCacheManager(cacheManager);
-        return ehCacheManager;
+        ehCacheManager.afterPropertiesSet();
+        Set<String> invalidatedCaches = StringUtils.commaDelimitedListToSet(env.getProperty(
+                "tatami.cluster.invalidatedCaches",
+                "user-cache,group-cache,group-user-cache,followers-cache,friends-cache"));
+        log.debug("Evictions of the caches {} are sent to the cluster", invalidatedCaches);
+        return new ClusterCacheManager(ehCacheManager, clusterTransport, invalidatedCaches);
     }
 }
@@ -1,6 +1,7 @@
 package fr.ippon.tatami.config;
 
 import com.datastax.driver.core.*;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
 import com.datastax.driver.core.policies.LatencyAwarePolicy;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
 import com.datastax.driver.core.policies.ReconnectionPolicy;
@@ -63,6 +64,11 @@ public class CassandraConfiguration {
     public static final String CASSANDRA_READ_TIMEOUT_MILLIS = "cassandra.readTimeoutMillis";
     public static final String CASSANDRA_SSL_ENABLED = "cassandra.sslEnabled";
     public static final String CASSANDRA_CONTACT_POINTS = "cassandra.contactPoints";
+    public static final String CASSANDRA_CORE_CONNECTIONS = "cassandra.pooling.coreConnectionsPerHost";
+    public static final String CASSANDRA_MAX_CONNECTIONS = "cassandra.pooling.maxConnectionsPerHost";
+    public static final String CASSANDRA_NEW_CONNECTION_THRESHOLD = "cassandra.pooling.newConnectionThreshold";
+    public static final String CASSANDRA_SPECULATIVE_EXECUTION_DELAY = "cassandra.speculativeExecution.delayMillis";
+    public static final String CASSANDRA_SPECULATIVE_EXECUTION_MAX = "cassandra.speculativeExecution.maxExecutions";
     private final Logger log = LoggerFactory.getLogger(CassandraConfiguration.class);
 
     @Inject
@@ -454,6 +460,30 @@ public class CassandraConfiguration {
         }
         builder.withSocketOptions(socketOptions);
 
+        // Manage connection pooling, for the hosts of the local datacenter
+        PoolingOptions poolingOptions = new PoolingOptions();
+        if (env.getProperty(CASSANDRA_CORE_CONNECTIONS) != null) {
+            poolingOptions.setCoreConnectionsPerHost(HostDistance.LOCAL,
+                    Integer.parseInt(env.getProperty(CASSANDRA_CORE_CONNECTIONS)));
+        }
+        if (env.getProperty(CASSANDRA_MAX_CONNECTIONS) != null) {
+            poolingOptions.setMaxConnectionsPerHost(HostDistance.LOCAL,
+                    Integer.parseInt(env.getProperty(CASSANDRA_MAX_CONNECTIONS)));
+        }
+        if (env.getProperty(CASSANDRA_NEW_CONNECTION_THRESHOLD) != null) {
+            poolingOptions.setMaxSimultaneousRequestsPerConnectionThreshold(HostDistance.LOCAL,
+                    Integer.parseInt(env.getProperty(CASSANDRA_NEW_CONNECTION_THRESHOLD)));
+        }
+        builder.withPoolingOptions(poolingOptions);
+
+        // Manage speculative executions : only idempotent statements, like the reads, are executed speculatively
+        if (env.getProperty(CASSANDRA_SPECULATIVE_EXECUTION_DELAY) != null) {
+            long delay = Long.parseLong(env.getProperty(CASSANDRA_SPECULATIVE_EXECUTION_DELAY));
+            int maxExecutions = env.getProperty(CASSANDRA_SPECULATIVE_EXECUTION_MAX, Integer.class, 1);
+            builder.withSpeculativeExecutionPolicy(new ConstantSpeculativeExecutionPolicy(delay, maxExecutions));
+            log.info("Speculative executions after {} ms, at most {}", delay, maxExecutions);
+        }
+
         // Manage SSL
         if (Boolean.valueOf(env.getProperty(CASSANDRA_SSL_ENABLED))) {
             builder.withSSL();
@@ -682,10 +712,37 @@ public class CassandraConfiguration {
                 "    filename varchar,\n" +
                 "    content blob,\n" +
                 "    thumbnail blob,\n" +
+                "    has_thumbnail boolean,\n" +
                 "    size bigint,\n" +
+                "    chunk_size int,\n" +
+                "    content_hash varchar,\n" +
+                "    body_id timeuuid,\n" +
                 "    creation_date timestamp,\n" +
                 "    PRIMARY KEY(id,filename)\n" +
                 ");\n");
+        session.execute("CREATE TABLE IF NOT EXISTS "+keyspace+".attachmentChunk (\n" +
+                "    id timeuuid,\n" +
+                "    chunk int,\n" +
+                "    data blob,\n" +
+                "    PRIMARY KEY(id,chunk)\n" +
+                ");\n");
+        session.execute("CREATE TABLE IF NOT EXISTS "+keyspace+".attachmentBody (\n" +
+                "    hash varchar,\n" +
+                "    body_id timeuuid,\n" +
+                "    chunk_size int,\n" +
+                "    PRIMARY KEY(hash)\n" +
+                ");\n");
+        session.execute("CREATE TABLE IF NOT EXISTS "+keyspace+".attachmentBodyReference (\n" +
+                "    body_id timeuuid,\n" +
+                "    attachment_id timeuuid,\n" +
+                "    PRIMARY KEY(body_id,attachment_id)\n" +
+                ");\n");
+        session.execute("CREATE TABLE IF NOT EXISTS "+keyspace+".imageVariant (\n" +
+                "    id timeuuid,\n" +
+                "    variant varchar,\n" +
+                "    content blob,\n" +
+                "    PRIMARY KEY(id,variant)\n" +
+                ");\n");
         session.execute("CREATE TABLE IF NOT EXISTS "+keyspace+".groupCounter (\n" +
                 "    domain varchar,\n" +
                 "    groupId timeuuid,\n" +
@@ -729,6 +786,13 @@ public class CassandraConfiguration {
                 "    adminLogin varchar,\n" +
                 "    PRIMARY KEY(domain)\n" +
                 ");\n");
+        session.execute("CREATE TABLE IF NOT EXISTS "+keyspace+".reindexCheckpoint (\n" +
+                "    segment int,\n" +
+                "    startToken bigint,\n" +
+                "    endToken bigint,\n" +
+                "    lastToken bigint,\n" +
+                "    PRIMARY KEY(segment)\n" +
+                ");\n");
     }
 
     @Bean
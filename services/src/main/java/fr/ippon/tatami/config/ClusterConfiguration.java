@@ -0,0 +1,43 @@
+package fr.ippon.tatami.config;
+
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import fr.ippon.tatami.service.cluster.InMemoryClusterTransport;
+import fr.ippon.tatami.service.cluster.MulticastClusterTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.inject.Inject;
+import java.io.IOException;
+
+/**
+ * Cluster configuration : how the Tatami nodes send messages to each other.
+ */
+@Configuration
+public class ClusterConfiguration {
+
+    private final Logger log = LoggerFactory.getLogger(ClusterConfiguration.class);
+
+    @Inject
+    private Environment env;
+
+    @Bean
+    public ClusterTransport clusterTransport() throws IOException {
+        String transport = env.getProperty("tatami.cluster.transport", Constants.MEMORY_CLUSTER_TRANSPORT);
+        if (Constants.MULTICAST_CLUSTER_TRANSPORT.equalsIgnoreCase(transport)) {
+            log.info("Using the multicast cluster transport");
+            return new MulticastClusterTransport(
+                    env.getProperty("tatami.cluster.multicast.group", "230.0.0.1"),
+                    env.getProperty("tatami.cluster.multicast.port", Integer.class, 45566),
+                    env.getProperty("tatami.cluster.multicast.timeToLive", Integer.class, 1));
+        } else if (Constants.MEMORY_CLUSTER_TRANSPORT.equalsIgnoreCase(transport)) {
+            log.info("Using the in-memory cluster transport, this node does not communicate with other nodes");
+            return new InMemoryClusterTransport();
+        } else {
+            log.error("Cluster transport is not defined, please configure the \"tatami.cluster.transport\" property");
+            throw new IllegalArgumentException("Cluster transport " + transport + " not defined");
+        }
+    }
+}
@@ -73,6 +73,14 @@ public class ColumnFamilyKeys {
 
     public static final String ATTACHMENT_CF = "Attachment";
 
+    public static final String ATTACHMENT_CHUNK_CF = "attachmentChunk";
+
+    public static final String ATTACHMENT_BODY_CF = "attachmentBody";
+
+    public static final String ATTACHMENT_BODY_REFERENCE_CF = "attachmentBodyReference";
+
+    public static final String IMAGE_VARIANT_CF = "imageVariant";
+
     public static final String USER_ATTACHMENT_CF = "UserAttachments";
 
     public static final String STATUS_ATTACHMENT_CF = "StatusAttachments";
@@ -91,4 +99,6 @@ public class ColumnFamilyKeys {
 
     public static final String APPLE_DEVICE_USER_CF = "AppleDeviceUser";
 
+    public static final String REINDEX_CHECKPOINT_CF = "reindexCheckpoint";
+
 }
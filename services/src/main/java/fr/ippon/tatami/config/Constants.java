@@ -10,10 +10,16 @@ public class Constants {
 
     public static final String SPRING_PROFILE_METRICS = "metrics";
 
+    public static final String SPRING_PROFILE_LUCENE = "lucene";
+
     public static final String REMOTE_ENGINE = "remote";
 
     public static final String EMBEDDED_ENGINE = "embedded";
 
+    public static final String MULTICAST_CLUSTER_TRANSPORT = "multicast";
+
+    public static final String MEMORY_CLUSTER_TRANSPORT = "memory";
+
     public static String VERSION = null;
 
     public static String GOOGLE_ANALYTICS_KEY = null;
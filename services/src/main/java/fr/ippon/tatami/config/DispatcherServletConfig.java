@@ -43,6 +43,11 @@ public class DispatcherServletConfig extends WebMvcConfigurerAdapter {
 
     private final Logger log = LoggerFactory.getLogger(DispatcherServletConfig.class);
 
+    /**
+     * Prefix of the upload URLs, whose multipart requests are read by the controller.
+     */
+    private static final String STREAMED_UPLOAD_PATH = "/rest/fileupload";
+
     @Inject
     private Environment env;
 
@@ -98,9 +103,19 @@ public class DispatcherServletConfig extends WebMvcConfigurerAdapter {
         return messageSource;
     }
 
+    /**
+     * The uploads of files and avatars are not parsed here : they are streamed by the controller straight to the
+     * storage, instead of being buffered in memory or on the disk first.
+     */
     @Bean
     public MultipartResolver multipartResolver() {
-        CommonsMultipartResolver multipartResolver = new CommonsMultipartResolver();
+        CommonsMultipartResolver multipartResolver = new CommonsMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                String path = request.getPathInfo();
+                return (path == null || !path.startsWith(STREAMED_UPLOAD_PATH)) && super.isMultipart(request);
+            }
+        };
         Long maxSize = Long.parseLong(env.getProperty("file.max.size"));
         multipartResolver.setMaxUploadSize(maxSize); // 10 Mo max file size by default
         return multipartResolver;
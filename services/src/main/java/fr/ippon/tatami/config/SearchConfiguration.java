@@ -1,18 +1,25 @@
 package fr.ippon.tatami.config;
 
+import fr.ippon.tatami.service.SearchService;
 import fr.ippon.tatami.service.elasticsearch.ElasticsearchEngine;
+import fr.ippon.tatami.service.elasticsearch.ElasticsearchSearchService;
 import fr.ippon.tatami.service.elasticsearch.EmbeddedElasticsearchEngine;
 import fr.ippon.tatami.service.elasticsearch.RemoteElasticsearchEngine;
+import fr.ippon.tatami.service.lucene.LuceneSearchService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
 
 import javax.inject.Inject;
 
 /**
  * Search configuration, with Elastic Search.
+ * <p/>
+ * With the "lucene" Spring profile, Elastic Search is not started, and the search uses Lucene indexes on the local
+ * disk instead : this is useful for single-node installations.
  */
 @Configuration
 public class SearchConfiguration {
@@ -23,6 +30,20 @@ public class SearchConfiguration {
     private Environment env;
 
     @Bean
+    @Profile("!" + Constants.SPRING_PROFILE_LUCENE)
+    public SearchService elasticsearchSearchService() {
+        return new ElasticsearchSearchService();
+    }
+
+    @Bean
+    @Profile(Constants.SPRING_PROFILE_LUCENE)
+    public SearchService luceneSearchService() {
+        log.info("Starting Lucene");
+        return new LuceneSearchService();
+    }
+
+    @Bean
+    @Profile("!" + Constants.SPRING_PROFILE_LUCENE)
     public ElasticsearchEngine elasticsearchEngine() {
         log.info("Starting Elasticsearch");
         String mode = env.getRequiredProperty("elasticsearch.engine.mode");
@@ -38,6 +59,7 @@ public class SearchConfiguration {
     }
 
     @Bean
+    @Profile("!" + Constants.SPRING_PROFILE_LUCENE)
     public String indexNamePrefix() {
         return env.getProperty("elasticsearch.indexNamePrefix");
     }
@@ -37,6 +37,15 @@ public class Attachment implements Serializable {
 
     private long size;
 
+    @JsonIgnore
+    private int chunkSize;
+
+    @JsonIgnore
+    private String contentHash;
+
+    @JsonIgnore
+    private String bodyId;
+
     public String getAttachmentId() {
         return attachmentId;
     }
@@ -103,6 +112,40 @@ public class Attachment implements Serializable {
         this.size = size;
     }
 
+    /**
+     * The size of the chunks the content is stored in, or 0 if the content is stored in a single blob.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * The SHA-256 hash of the content, in hexadecimal, or null for the attachments created before it was computed.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * The id of the body storing the content, which is shared by the attachments with the same content, or null
+     * for the attachments created before the contents were shared.
+     */
+    public String getBodyId() {
+        return bodyId;
+    }
+
+    public void setBodyId(String bodyId) {
+        this.bodyId = bodyId;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
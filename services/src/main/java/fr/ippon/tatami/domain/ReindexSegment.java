@@ -0,0 +1,84 @@
+package fr.ippon.tatami.domain;
+
+import java.io.Serializable;
+
+/**
+ * A range of tokens of the status table, re-indexed by the same worker.
+ * <p/>
+ * The statuses with a token in (startToken, lastToken] are indexed, the segment is done when lastToken reaches
+ * endToken.
+ */
+public class ReindexSegment implements Serializable {
+
+    private int segment;
+
+    private long startToken;
+
+    private long endToken;
+
+    private long lastToken;
+
+    public ReindexSegment() {
+    }
+
+    public ReindexSegment(int segment, long startToken, long endToken, long lastToken) {
+        this.segment = segment;
+        this.startToken = startToken;
+        this.endToken = endToken;
+        this.lastToken = lastToken;
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    public void setSegment(int segment) {
+        this.segment = segment;
+    }
+
+    public long getStartToken() {
+        return startToken;
+    }
+
+    public void setStartToken(long startToken) {
+        this.startToken = startToken;
+    }
+
+    public long getEndToken() {
+        return endToken;
+    }
+
+    public void setEndToken(long endToken) {
+        this.endToken = endToken;
+    }
+
+    public long getLastToken() {
+        return lastToken;
+    }
+
+    public void setLastToken(long lastToken) {
+        this.lastToken = lastToken;
+    }
+
+    public boolean isDone() {
+        return lastToken == endToken;
+    }
+
+    /**
+     * The part of the segment which is indexed, from 0 to 1.
+     */
+    public double getProgress() {
+        double size = (double) endToken - startToken;
+        return size <= 0 ? 1 : ((double) lastToken - startToken) / size;
+    }
+
+    @Override
+    public String toString() {
+        return "ReindexSegment{" +
+                "segment=" + segment +
+                ", startToken=" + startToken +
+                ", endToken=" + endToken +
+                ", lastToken=" + lastToken +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package fr.ippon.tatami.domain;
+
+import java.io.Serializable;
+
+/**
+ * The counters of a user : number of statuses, followers and friends.
+ */
+public class UserCounters implements Serializable {
+
+    private long statusCount;
+
+    private long followersCount;
+
+    private long friendsCount;
+
+    public UserCounters() {
+    }
+
+    public UserCounters(long statusCount, long followersCount, long friendsCount) {
+        this.statusCount = statusCount;
+        this.followersCount = followersCount;
+        this.friendsCount = friendsCount;
+    }
+
+    public long getStatusCount() {
+        return statusCount;
+    }
+
+    public void setStatusCount(long statusCount) {
+        this.statusCount = statusCount;
+    }
+
+    public long getFollowersCount() {
+        return followersCount;
+    }
+
+    public void setFollowersCount(long followersCount) {
+        this.followersCount = followersCount;
+    }
+
+    public long getFriendsCount() {
+        return friendsCount;
+    }
+
+    public void setFriendsCount(long friendsCount) {
+        this.friendsCount = friendsCount;
+    }
+
+    @Override
+    public String toString() {
+        return "UserCounters{" +
+                "statusCount=" + statusCount +
+                ", followersCount=" + followersCount +
+                ", friendsCount=" + friendsCount +
+                '}';
+    }
+}
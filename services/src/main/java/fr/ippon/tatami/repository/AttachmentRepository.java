@@ -2,24 +2,55 @@ package fr.ippon.tatami.repository;
 
 import fr.ippon.tatami.domain.Attachment;
 
-public interface AttachmentRepository {
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
-    void createAttachment(Attachment attach);
+public interface AttachmentRepository {
 
-    void deleteAttachment(Attachment attach);
+    /**
+     * Creates an attachment, storing its content as it is read from the stream : the size and the content hash of
+     * the attachment are computed on the fly. If another attachment has the same content, the new attachment shares
+     * it, and the stored copy is deleted.
+     *
+     * @param maxSize the maximum size of the content
+     * @return false if the content is larger than maxSize : then nothing is stored, and the content is only read
+     * until the limit is exceeded
+     */
+    boolean createAttachment(Attachment attach, InputStream content, long maxSize) throws IOException;
 
     /**
-     * Finds an attachment, including its content (the file data).
+     * Deletes an attachment, and its content if no other attachment shares it.
+     *
+     * @return false if the content is still shared with other attachments
      */
-    Attachment findAttachmentById(String attachmentId);
+    boolean deleteAttachment(Attachment attach);
 
     /**
      * Only fetch the attachment metadata : file name & size, but not its content.
      */
     Attachment findAttachmentMetadataById(String attachmentId);
-    
+
+    /**
+     * Fetch the thumbnail of an attachment, which is empty if the attachment has no thumbnail.
+     */
+    byte[] findThumbnail(String attachmentId);
+
+    /**
+     * Writes a range of the attachment content to a stream, as it is read.
+     *
+     * @param offset the position of the first byte to write
+     * @param length the number of bytes to write
+     */
+    void readContent(Attachment attachment, long offset, long length, OutputStream out) throws IOException;
+
+    /**
+     * Opens a stream on the attachment content, which is read one page of chunks at a time.
+     */
+    InputStream openContent(Attachment attachment);
+
     /**
      * Update the thumbnail of the given attachment
      */
     Attachment updateThumbnail(Attachment attach);
-}
\ No newline at end of file
+}
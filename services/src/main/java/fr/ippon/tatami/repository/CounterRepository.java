@@ -1,5 +1,10 @@
 package fr.ippon.tatami.repository;
 
+import fr.ippon.tatami.domain.UserCounters;
+
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * The Counter Repository.
  *
@@ -25,6 +30,16 @@ public interface CounterRepository {
 
     long getStatusCounter(String login);
 
+    /**
+     * Reads the three counters of a user at once.
+     */
+    UserCounters getCounters(String login);
+
+    /**
+     * Reads the counters of several users concurrently.
+     */
+    Map<String, UserCounters> getCounters(Collection<String> logins);
+
     void createFollowersCounter(String login);
 
     void createFriendsCounter(String login);
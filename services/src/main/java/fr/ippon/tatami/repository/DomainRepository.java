@@ -18,7 +18,13 @@ public interface DomainRepository {
 
     void deleteUserInDomain(String domain, String login);
 
-    List<String> getLoginsInDomain(String domain, int pagination);
+    /**
+     * Returns a page of the logins of a domain, in alphabetical order.
+     *
+     * @param afterLogin the last login of the previous page, or null for the first page
+     * @param size       the maximum number of logins
+     */
+    List<String> getLoginsInDomain(String domain, String afterLogin, int size);
 
     List<String> getLoginsInDomain(String domain);
 
@@ -0,0 +1,16 @@
+package fr.ippon.tatami.repository;
+
+/**
+ * The resized versions of the images, like the previews of the attachments.
+ */
+public interface ImageVariantRepository {
+
+    void saveVariant(String id, String variant, byte[] content);
+
+    /**
+     * @return the content of the variant, or null if it has not been created
+     */
+    byte[] findVariant(String id, String variant);
+
+    void deleteVariants(String id);
+}
@@ -25,8 +25,12 @@ public interface MailDigestRepository {
     void unsubscribeFromDigest(DigestType digestType, String login, String domain, String day);
 
     /**
-     * Retrieves the list of logins in a domain subscribed to a given digest type.
+     * Retrieves a page of the logins in a domain subscribed to a given digest type, in alphabetical order.
+     *
+     * @param afterLogin the last login of the previous page, or null for the first page
+     * @param size       the maximum number of logins
      */
-    List<String> getLoginsRegisteredToDigest(DigestType digestType, String domain, String day, int pagination);
+    List<String> getLoginsRegisteredToDigest(DigestType digestType, String domain, String day, String afterLogin,
+                                             int size);
 
 }
@@ -0,0 +1,17 @@
+package fr.ippon.tatami.repository;
+
+import fr.ippon.tatami.domain.ReindexSegment;
+
+import java.util.Collection;
+
+/**
+ * The Reindex Checkpoint repository : stores the progress of the status re-indexing, so it can be resumed.
+ */
+public interface ReindexCheckpointRepository {
+
+    Collection<ReindexSegment> findSegments();
+
+    void saveSegment(ReindexSegment segment);
+
+    void deleteSegments();
+}
@@ -1,6 +1,7 @@
 package fr.ippon.tatami.repository;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * The StatusDetails Repository.
@@ -13,5 +14,10 @@ public interface SharesRepository {
 
     Collection<String> findLoginsWhoSharedAStatus(String statusId);
 
+    /**
+     * Find who shared several statuses, using concurrent reads.
+     */
+    Map<String, Collection<String>> findLoginsWhoSharedStatuses(Collection<String> statusIds);
+
     boolean hasBeenShared(String statusId);
 }
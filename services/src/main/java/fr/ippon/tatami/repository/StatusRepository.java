@@ -5,6 +5,8 @@ import fr.ippon.tatami.domain.status.*;
 
 import javax.validation.ConstraintViolationException;
 import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * The Status Repository.
@@ -43,4 +45,22 @@ public interface StatusRepository {
      * @return null if status was removed
      */
     AbstractStatus findStatusById(String statusId);
+
+    /**
+     * Retrieve several persisted statuses, using concurrent reads.
+     *
+     * @return the statuses by Id, removed statuses are not in the map
+     */
+    Map<String, AbstractStatus> findStatusesByIds(Collection<String> statusIds);
+
+    /**
+     * Scans the status table by token, to re-index the statuses.
+     * <p/>
+     * Reads at most "limit" rows with a token in (fromToken, toToken], and gives the public standard statuses to the
+     * consumer : shares, mentions, private and removed statuses are skipped. The statuses have all the fields
+     * stored in the search index : their attachments are not read, only whether they have some.
+     *
+     * @return the token of the last row read, or toToken if there are no more rows in the range
+     */
+    long scanStatuses(long fromToken, long toToken, int limit, Consumer<Status> consumer);
 }
@@ -14,4 +14,14 @@ public interface TagCounterRepository {
     void decrementTagCounter(String domain, String tag);
 
     void deleteTagCounter(String domain, String tag);
+
+    /**
+     * Reads the counters of all the tags, of all the domains, page by page.
+     */
+    void findAllTagCounters(TagCounterVisitor visitor);
+
+    interface TagCounterVisitor {
+
+        void visit(String domain, String tag, long count);
+    }
 }
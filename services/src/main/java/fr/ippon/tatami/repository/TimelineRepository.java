@@ -22,6 +22,11 @@ public interface TimelineRepository {
 
     void addStatusToTimeline(String login, String statusId);
 
+    /**
+     * Adds a status to the timelines of several users, using concurrent asynchronous writes.
+     */
+    void addStatusToTimelines(Collection<String> logins, String statusId);
+
     void removeStatusesFromTimeline(String login, Collection<String> statusIdsToDelete);
 
     void shareStatusToTimeline(String sharedByLogin, String timelineLogin, Share share);
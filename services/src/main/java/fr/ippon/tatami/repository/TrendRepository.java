@@ -1,7 +1,8 @@
 package fr.ippon.tatami.repository;
 
-import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * The Trends repository : stores and retrieves tags trends.
@@ -14,5 +15,8 @@ public interface TrendRepository {
 
     List<String> getRecentTags(String domain, int maxNumber);
 
-    Collection<String> getDomainTags(String domain);
+    /**
+     * Returns the most recent tags used in a domain, by their time-based Id, newest first.
+     */
+    Map<UUID, String> getRecentTagsById(String domain, int maxNumber);
 }
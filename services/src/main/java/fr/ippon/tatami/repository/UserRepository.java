@@ -3,6 +3,8 @@ package fr.ippon.tatami.repository;
 import fr.ippon.tatami.domain.User;
 
 import javax.validation.ConstraintViolationException;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * The User Repository.
@@ -22,4 +24,11 @@ public interface UserRepository {
     void reactivateUser( User user );
 
     User findUserByLogin(String login);
+
+    /**
+     * Find several users, using concurrent reads.
+     *
+     * @return the users by login, unknown logins are not in the map
+     */
+    Map<String, User> findUsersByLogins(Collection<String> logins);
 }
@@ -3,6 +3,8 @@ package fr.ippon.tatami.repository;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * The User Trends repository : stores user trends.
@@ -14,4 +16,9 @@ public interface UserTrendRepository {
     List<String> getRecentTags(String login);
 
     Collection<String> getUserRecentTags(String login, Date endDate, int nbRecentTags);
+
+    /**
+     * Returns the most recent tags used by a user, by their time-based Id, newest first.
+     */
+    Map<UUID, String> getRecentTagsById(String login, int maxNumber);
 }
@@ -1,9 +1,6 @@
 package fr.ippon.tatami.repository.cassandra;
 
 import com.datastax.driver.core.*;
-import com.datastax.driver.core.querybuilder.QueryBuilder;
-import com.datastax.driver.core.querybuilder.Select;
-import com.datastax.driver.core.utils.UUIDs;
 import fr.ippon.tatami.domain.status.Share;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,11 +8,11 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
-import static com.datastax.driver.core.querybuilder.QueryBuilder.*;
-
 
 /**
  * This abstract class contains commun functions for Timeline and Userline.
@@ -24,6 +21,8 @@ import static com.datastax.driver.core.querybuilder.QueryBuilder.*;
  * - Key : key
  * - Name : status Id
  * - Value : ""
+ * <p/>
+ * The queries on a line are prepared once, subclasses should call prepareLine() in their init method.
  *
  * @author Julien Dubois
  */
@@ -31,27 +30,40 @@ public abstract class AbstractCassandraLineRepository {
     @Inject
     Session session;
 
+    @Inject
+    PreparedStatementRegistry statements;
+
+    @Inject
+    LineRetentionManager lineRetentionManager;
+
     private final Logger log = LoggerFactory.getLogger(AbstractCassandraLineRepository.class);
 
+    private final Map<String, LineStatements> lineStatements = new ConcurrentHashMap<>();
 
     /**
-     * Add a status to the CF.
+     * Prepares the queries on a line.
+     */
+    protected LineStatements prepareLine(String table) {
+        LineStatements line = lineStatements.get(table);
+        if (line == null) {
+            line = lineStatements.computeIfAbsent(table, t -> new LineStatements(statements, t));
+        }
+        return line;
+    }
+
+    /**
+     * Add a status to the CF, with the time-to-live of its retention policy.
      */
     protected void addStatus(String key, String table, String statusId) {
-        Statement statement = QueryBuilder.insertInto(table)
-                .value("key", key)
-                .value("status", UUID.fromString(statusId));
-        session.execute(statement);
+        addStatus(key, table, statusId, lineRetentionManager.getTtl(table));
     }
 
     /**
-     * Add a status with a time-to-live.
+     * Add a status with a time-to-live, in seconds : 0 means the status does not expire.
      */
     protected void addStatus(String key, String table, String statusId, int ttl) {
-        Statement statement = QueryBuilder.insertInto(table)
-                .value("key", key)
-                .value("status", UUID.fromString(statusId));
-        session.execute(statement);
+        session.execute(prepareLine(table).insert.bind(key, UUID.fromString(statusId), ttl));
+        lineRetentionManager.statusAdded(table, key);
     }
 
     public abstract PreparedStatement getDeleteByIdStmt();
@@ -70,19 +82,17 @@ public abstract class AbstractCassandraLineRepository {
     }
 
     protected List<String> getLineFromTable(String table, String key, int size, String start, String finish) {
-        Select.Where where = QueryBuilder.select()
-                .column("status")
-                .from(table)
-                .where(eq("key", key));
+        LineStatements line = prepareLine(table);
+        BoundStatement statement;
         if(finish != null) {
-            where.and(lt("status", UUID.fromString(finish)));
+            statement = line.selectBefore.bind(key, UUID.fromString(finish));
         } else if(start != null) {
-            where.and(gt("status",UUID.fromString(start)));
+            statement = line.selectAfter.bind(key, UUID.fromString(start));
         }else if (size > 0) {
-            where.limit(size);
+            statement = line.selectNewest.bind(key, size);
+        } else {
+            statement = line.selectAll.bind(key);
         }
-        where.orderBy(desc("status"));
-        Statement statement = where;
         ResultSet results = session.execute(statement);
         return results
                 .all()
@@ -98,14 +108,10 @@ public abstract class AbstractCassandraLineRepository {
 
         if (!findByLoginAndStatusId(columnFamily,login,share.getStatusId()) &&
                 !findByLoginAndStatusId(sharesColumnFamily,login,share.getStatusId())) {
-            Statement statement = QueryBuilder.insertInto(columnFamily)
-                    .value("key", login)
-                    .value("status", share.getStatusId());
-            session.execute(statement);
-            statement = QueryBuilder.insertInto(sharesColumnFamily)
-                    .value("key", login)
-                    .value("status", share.getStatusId());
-            session.execute(statement);
+            session.execute(prepareLine(columnFamily).insert
+                    .bind(login, share.getStatusId(), lineRetentionManager.getTtl(columnFamily)));
+            session.execute(prepareLine(sharesColumnFamily).insert
+                    .bind(login, share.getStatusId(), lineRetentionManager.getTtl(sharesColumnFamily)));
         } else {
             log.debug("Shared status {} is already present in {}", share.getOriginalStatusId(), columnFamily);
 
@@ -113,13 +119,38 @@ public abstract class AbstractCassandraLineRepository {
     }
 
     protected boolean findByLoginAndStatusId(String columnFamily, String key, UUID statusId) {
-        Statement statement = QueryBuilder.select()
-                .column("key")
-                .from(columnFamily)
-                .where(eq("key", key))
-                .and(eq("status",statusId));
-
-        ResultSet results = session.execute(statement);
+        ResultSet results = session.execute(prepareLine(columnFamily).exists.bind(key, statusId));
         return !results.isExhausted();
     }
+
+    /**
+     * The prepared queries on a line.
+     */
+    protected static class LineStatements {
+
+        final PreparedStatement insert;
+
+        final PreparedStatement exists;
+
+        final PreparedStatement selectNewest;
+
+        final PreparedStatement selectAll;
+
+        final PreparedStatement selectBefore;
+
+        final PreparedStatement selectAfter;
+
+        LineStatements(PreparedStatementRegistry statements, String table) {
+            insert = statements.prepare(QueryClass.LINE_WRITE, "INSERT INTO " + table + " (key, status) VALUES (?, ?) USING TTL ?");
+            exists = statements.prepare(QueryClass.LINE_READ, "SELECT key FROM " + table + " WHERE key = ? AND status = ?");
+            selectNewest = statements.prepare(QueryClass.LINE_READ, "SELECT status FROM " + table + " WHERE key = ? " +
+                    "ORDER BY status DESC LIMIT ?");
+            selectAll = statements.prepare(QueryClass.LINE_READ, "SELECT status FROM " + table + " WHERE key = ? " +
+                    "ORDER BY status DESC");
+            selectBefore = statements.prepare(QueryClass.LINE_READ, "SELECT status FROM " + table + " WHERE key = ? AND status < ? " +
+                    "ORDER BY status DESC");
+            selectAfter = statements.prepare(QueryClass.LINE_READ, "SELECT status FROM " + table + " WHERE key = ? AND status > ? " +
+                    "ORDER BY status DESC");
+        }
+    }
 }
@@ -1,32 +1,67 @@
 package fr.ippon.tatami.repository.cassandra;
 
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.core.utils.UUIDs;
-import fr.ippon.tatami.config.ColumnFamilyKeys;
 import fr.ippon.tatami.domain.Attachment;
-import fr.ippon.tatami.domain.Avatar;
 import fr.ippon.tatami.repository.AttachmentRepository;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
 import java.util.UUID;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
+import static fr.ippon.tatami.config.ColumnFamilyKeys.ATTACHMENT_BODY_CF;
+import static fr.ippon.tatami.config.ColumnFamilyKeys.ATTACHMENT_BODY_REFERENCE_CF;
 import static fr.ippon.tatami.config.ColumnFamilyKeys.ATTACHMENT_CF;
+import static fr.ippon.tatami.config.ColumnFamilyKeys.ATTACHMENT_CHUNK_CF;
 
+/**
+ * Cassandra implementation of the Attachment repository.
+ * <p/>
+ * Structure :
+ * - The attachment table holds the metadata and the thumbnail
+ * - The attachmentChunk table holds the content, split in chunks of "tatami.attachment.chunkSize" bytes :
+ * Key = body id, Name = chunk number, Value = data
+ * - The attachmentBody table maps the SHA-256 hash of a content to the body storing it :
+ * Key = hash, Value = body id
+ * - The attachmentBodyReference table holds the attachments sharing a body :
+ * Key = body id, Name = attachment id
+ * <p/>
+ * Identical files are stored once : a body is shared by all the attachments with the same content, and is only
+ * deleted with its last reference.
+ * <p/>
+ * The content is written one chunk at a time as it is uploaded, and read one page of chunks at a time, so it is
+ * never fully loaded in memory. Attachments created
+ * before the chunks have no chunk size, and their content is read from the "content" column.
+ */
 @Repository
 public class CassandraAttachmentRepository implements AttachmentRepository {
 
@@ -34,92 +69,136 @@ public class CassandraAttachmentRepository implements AttachmentRepository {
 
     private final String CONTENT = "content";
     private final String THUMBNAIL = "thumbnail";
+    private final String HAS_THUMBNAIL = "has_thumbnail";
     private final String FILENAME = "filename";
     private final String SIZE = "size";
+    private final String CHUNK_SIZE = "chunk_size";
+    private final String CONTENT_HASH = "content_hash";
+    private final String BODY_ID = "body_id";
     private final String CREATION_DATE = "creation_date";
 
+    /**
+     * Number of chunk writes sent concurrently when an attachment is created.
+     */
+    private static final int MAX_PENDING_WRITES = 4;
+
     @Inject
     private Session session;
 
-    @Override
-    public void createAttachment(Attachment attachment) {
+    @Inject
+    private PreparedStatementRegistry statements;
 
-        ByteBuffer content = null;
-        ByteBuffer thumbnail = null;
+    @Inject
+    private Environment env;
 
-        if (attachment.getContent() != null) {
-            content = ByteBuffer.wrap(attachment.getContent());
-        }
+    private int chunkSize;
+
+    private int chunksPerPage;
+
+    private PreparedStatement insertChunkStmt;
+
+    private PreparedStatement selectChunksStmt;
+
+    private PreparedStatement insertBodyStmt;
+
+    private PreparedStatement selectBodyStmt;
+
+    private PreparedStatement deleteBodyStmt;
+
+    private PreparedStatement insertReferenceStmt;
+
+    private PreparedStatement deleteReferenceStmt;
+
+    private PreparedStatement selectReferenceStmt;
+
+    @PostConstruct
+    public void init() {
+        chunkSize = env.getProperty("tatami.attachment.chunkSize", Integer.class, 256 * 1024);
+        chunksPerPage = Math.max(1, env.getProperty("tatami.attachment.chunksPerPage", Integer.class, 4));
+        insertChunkStmt = statements.prepare(QueryClass.BLOB_WRITE,
+                "INSERT INTO " + ATTACHMENT_CHUNK_CF + " (id, chunk, data) VALUES (?, ?, ?)");
+        selectChunksStmt = statements.prepare(QueryClass.BLOB_READ,
+                "SELECT data FROM " + ATTACHMENT_CHUNK_CF + " WHERE id = ? AND chunk >= ? AND chunk <= ?");
+
+        // The bodies are registered with lightweight transactions, and their references are read and written at
+        // QUORUM : a deletion always sees the references added before it. The consistency levels are set on the
+        // bound statements, as the prepared statements are shared through the registry
+        insertBodyStmt = statements.prepare("INSERT INTO " + ATTACHMENT_BODY_CF +
+                " (hash, body_id, chunk_size) VALUES (?, ?, ?) IF NOT EXISTS");
+        selectBodyStmt = statements.prepare("SELECT body_id, chunk_size FROM " + ATTACHMENT_BODY_CF +
+                " WHERE hash = ?");
+        deleteBodyStmt = statements.prepare("DELETE FROM " + ATTACHMENT_BODY_CF + " WHERE hash = ? IF body_id = ?");
+        insertReferenceStmt = statements.prepare("INSERT INTO " + ATTACHMENT_BODY_REFERENCE_CF +
+                " (body_id, attachment_id) VALUES (?, ?)");
+        deleteReferenceStmt = statements.prepare("DELETE FROM " + ATTACHMENT_BODY_REFERENCE_CF +
+                " WHERE body_id = ? AND attachment_id = ?");
+        selectReferenceStmt = statements.prepare("SELECT attachment_id FROM " + ATTACHMENT_BODY_REFERENCE_CF +
+                " WHERE body_id = ? LIMIT 1");
+    }
+
+    @Override
+    public boolean createAttachment(Attachment attachment, InputStream content, long maxSize) throws IOException {
+        ByteBuffer thumbnail = null;
         if (attachment.getThumbnail() != null) {
             thumbnail = ByteBuffer.wrap(attachment.getThumbnail());
         }
         UUID attachmentId = UUIDs.timeBased();
+        UUID bodyId = UUIDs.timeBased();
         log.debug("Creating attachment : {}", attachment);
+
+        // The chunks are written first : the attachment is only visible once its content is complete
+        if (!writeChunks(bodyId, attachment, content, maxSize)) {
+            return false;
+        }
+        shareBody(attachmentId, bodyId, attachment);
         attachment.setAttachmentId(attachmentId.toString());
+
         Statement statement = QueryBuilder.insertInto(ATTACHMENT_CF)
-                .value("id", UUID.fromString(attachment.getAttachmentId()))
+                .value("id", attachmentId)
                 .value(FILENAME, attachment.getFilename())
-                .value(CONTENT, content)
                 .value(THUMBNAIL, thumbnail)
-                .value(SIZE,attachment.getSize())
-                .value(CREATION_DATE,attachment.getCreationDate());
+                .value(HAS_THUMBNAIL, attachment.getHasThumbnail())
+                .value(SIZE, attachment.getSize())
+                .value(CHUNK_SIZE, attachment.getChunkSize())
+                .value(CONTENT_HASH, attachment.getContentHash())
+                .value(BODY_ID, UUID.fromString(attachment.getBodyId()))
+                .value(CREATION_DATE, attachment.getCreationDate());
         session.execute(statement);
+        return true;
     }
 
     @Override
     @CacheEvict(value = "attachment-cache", key = "#attachment.attachmentId")
-    public void deleteAttachment(Attachment attachment) {
+    public boolean deleteAttachment(Attachment attachment) {
         log.debug("Deleting attachment : {}", attachment);
+        UUID attachmentId = UUID.fromString(attachment.getAttachmentId());
         Statement statement = QueryBuilder.delete().from(ATTACHMENT_CF)
-                .where(eq("id", UUID.fromString(attachment.getAttachmentId())));
+                .where(eq("id", attachmentId));
         session.execute(statement);
-    }
-
-    @Override
-    @Cacheable("attachment-cache")
-    public Attachment findAttachmentById(String attachmentId) {
-        if (attachmentId == null) {
-            return null;
-        }
-
-        log.debug("Finding attachment : {}", attachmentId);
-
-        Attachment attachment = this.findAttachmentMetadataById(attachmentId);
-
-        if (attachment == null) {
-            return null;
+        if (attachment.getBodyId() == null) {
+            // The content is not shared
+            deleteChunks(attachmentId);
+            return true;
         }
-        Statement statement = QueryBuilder.select()
-                .column(CONTENT)
-                .from(ATTACHMENT_CF)
-                .where(eq("id", UUID.fromString(attachmentId)));
-
-        ResultSet results = session.execute(statement);
-        attachment.setContent(results.one().getBytes(CONTENT).array());
-
-        statement = QueryBuilder.select()
-                .column(THUMBNAIL)
-                .from(ATTACHMENT_CF)
-                .where(eq("id", UUID.fromString(attachmentId)));
-
-        results = session.execute(statement);
-        attachment.setThumbnail(results.one().getBytes(THUMBNAIL).array());
-        if (attachment.getThumbnail() != null && attachment.getThumbnail().length > 0) {
-            attachment.setHasThumbnail(true);
-        } else {
-            attachment.setHasThumbnail(false);
-        }
-        return attachment;
+        UUID bodyId = UUID.fromString(attachment.getBodyId());
+        session.execute(quorum(deleteReferenceStmt.bind(bodyId, attachmentId)));
+        return releaseBody(attachment.getContentHash(), bodyId, attachment.getChunkSize());
     }
 
     @Override
+    @Cacheable("attachment-cache")
     public Attachment findAttachmentMetadataById(String attachmentId) {
         if (attachmentId == null) {
             return null;
         }
+        log.debug("Finding attachment : {}", attachmentId);
         Statement statement = QueryBuilder.select()
                 .column(FILENAME)
                 .column(SIZE)
+                .column(CHUNK_SIZE)
+                .column(CONTENT_HASH)
+                .column(BODY_ID)
+                .column(HAS_THUMBNAIL)
                 .column(CREATION_DATE)
                 .from(ATTACHMENT_CF)
                 .where(eq("id", UUID.fromString(attachmentId)));
@@ -131,6 +210,11 @@ public class CassandraAttachmentRepository implements AttachmentRepository {
             attachment.setAttachmentId(attachmentId);
             attachment.setFilename(row.getString(FILENAME));
             attachment.setSize(row.getLong(SIZE));
+            attachment.setChunkSize(row.getInt(CHUNK_SIZE));
+            attachment.setContentHash(row.getString(CONTENT_HASH));
+            UUID bodyId = row.getUUID(BODY_ID);
+            attachment.setBodyId(bodyId == null ? null : bodyId.toString());
+            attachment.setHasThumbnail(row.getBool(HAS_THUMBNAIL));
             attachment.setCreationDate(row.getDate(CREATION_DATE));
             if (attachment.getCreationDate() == null) {
                 attachment.setCreationDate(new Date());
@@ -140,17 +224,320 @@ public class CassandraAttachmentRepository implements AttachmentRepository {
         return null;
     }
 
-	@Override
-	public Attachment updateThumbnail(Attachment attach) {
-		log.debug("Updating thumbnail : {}", attach);
+    @Override
+    public byte[] findThumbnail(String attachmentId) {
+        Statement statement = QueryBuilder.select()
+                .column(THUMBNAIL)
+                .from(ATTACHMENT_CF)
+                .where(eq("id", UUID.fromString(attachmentId)));
+
+        ResultSet results = session.execute(statement);
+        if (results.isExhausted()) {
+            return null;
+        }
+        ByteBuffer thumbnail = results.one().getBytes(THUMBNAIL);
+        return thumbnail == null ? new byte[0] : toArray(thumbnail);
+    }
+
+    @Override
+    public void readContent(Attachment attachment, long offset, long length, OutputStream out) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        if (attachment.getChunkSize() <= 0) {
+            readLegacyContent(attachment, offset, length, out);
+            return;
+        }
+        int size = attachment.getChunkSize();
+        int firstChunk = (int) (offset / size);
+        int lastChunk = (int) ((offset + length - 1) / size);
+        Statement statement = selectChunksStmt.bind(chunksId(attachment), firstChunk, lastChunk)
+                .setFetchSize(chunksPerPage);
+
+        ResultSet results = session.execute(statement);
+        long position = (long) firstChunk * size;
+        long end = offset + length;
+        for (Row row : results) {
+            prefetch(results);
+            ByteBuffer data = row.getBytes("data");
+            int from = (int) Math.max(0, offset - position);
+            int to = (int) Math.min(data.remaining(), end - position);
+            if (to > from) {
+                write(data, from, to - from, out);
+            }
+            position += data.remaining();
+        }
+    }
+
+    @Override
+    public InputStream openContent(Attachment attachment) {
+        if (attachment.getChunkSize() <= 0) {
+            Statement statement = QueryBuilder.select()
+                    .column(CONTENT)
+                    .from(ATTACHMENT_CF)
+                    .where(eq("id", UUID.fromString(attachment.getAttachmentId())));
+
+            ResultSet results = session.execute(statement);
+            ByteBuffer content = results.isExhausted() ? null : results.one().getBytes(CONTENT);
+            return new ByteArrayInputStream(content == null ? new byte[0] : toArray(content));
+        }
+        Statement statement = selectChunksStmt.bind(chunksId(attachment), 0, Integer.MAX_VALUE)
+                .setFetchSize(chunksPerPage);
+
+        return new ChunkInputStream(session.execute(statement));
+    }
+
+    @Override
+    @CacheEvict(value = "attachment-cache", key = "#attach.attachmentId")
+    public Attachment updateThumbnail(Attachment attach) {
+        log.debug("Updating thumbnail : {}", attach);
         ByteBuffer thumbnail = null;
         if (attach.getThumbnail() != null) {
             thumbnail = ByteBuffer.wrap(attach.getThumbnail());
         }
         Statement statement = QueryBuilder.update(ATTACHMENT_CF)
                 .with(set(THUMBNAIL, thumbnail))
-                .where(eq("id", UUID.fromString(attach.getAttachmentId())));
+                .and(set(HAS_THUMBNAIL, attach.getHasThumbnail()))
+                .where(eq("id", UUID.fromString(attach.getAttachmentId())))
+                .and(eq(FILENAME, attach.getFilename()));
         session.execute(statement);
         return attach;
-	}
-}
\ No newline at end of file
+    }
+
+    /**
+     * Fetches the next page of chunks while the current one is consumed.
+     */
+    private void prefetch(ResultSet results) {
+        if (results.getAvailableWithoutFetching() == chunksPerPage / 2 && !results.isFullyFetched()) {
+            results.fetchMoreResults();
+        }
+    }
+
+    /**
+     * Writes the content one chunk at a time, as it is read, and sets the size and the content hash of the
+     * attachment. At most MAX_PENDING_WRITES chunks are in memory at the same time.
+     *
+     * @return false if the content is larger than maxSize : the chunks already written are then deleted
+     */
+    private boolean writeChunks(UUID bodyId, Attachment attachment, InputStream content, long maxSize)
+            throws IOException {
+
+        MessageDigest digest = newContentDigest();
+        Deque<ResultSetFuture> pending = new ArrayDeque<>(MAX_PENDING_WRITES);
+        long size = 0;
+        try {
+            for (int chunk = 0; ; chunk++) {
+                byte[] data = new byte[chunkSize];
+                int length = IOUtils.read(content, data);
+                if (length == 0) {
+                    break;
+                }
+                size += length;
+                if (size > maxSize) {
+                    log.debug("Attachment {} is larger than {} bytes, aborting", attachment.getFilename(), maxSize);
+                    abortChunks(bodyId, pending);
+                    return false;
+                }
+                digest.update(data, 0, length);
+                if (pending.size() == MAX_PENDING_WRITES) {
+                    pending.poll().getUninterruptibly();
+                }
+                pending.add(session.executeAsync(insertChunkStmt.bind(bodyId, chunk,
+                        ByteBuffer.wrap(data, 0, length))));
+                if (length < chunkSize) {
+                    break;
+                }
+            }
+            for (ResultSetFuture future : pending) {
+                future.getUninterruptibly();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The upload was interrupted : the chunks already sent are orphans
+            abortChunks(bodyId, pending);
+            throw e;
+        }
+        attachment.setSize(size);
+        attachment.setChunkSize(chunkSize);
+        attachment.setContentHash(String.format("%064x", new BigInteger(1, digest.digest())));
+        return true;
+    }
+
+    private void abortChunks(UUID bodyId, Deque<ResultSetFuture> pending) {
+        for (ResultSetFuture future : pending) {
+            try {
+                future.getUninterruptibly();
+            } catch (RuntimeException e) {
+                log.debug("Chunk write failed : {}", e.getMessage());
+            }
+        }
+        deleteChunks(bodyId);
+    }
+
+    private void deleteChunks(UUID chunksId) {
+        Statement statement = QueryBuilder.delete().from(ATTACHMENT_CHUNK_CF)
+                .where(eq("id", chunksId));
+        session.execute(statement);
+    }
+
+    /**
+     * Makes an attachment share the body of the attachments with the same content, or registers its chunks as a
+     * new body, and sets the body id and chunk size of the attachment.
+     * <p/>
+     * The reference to a body is written before the body is looked up again : if a concurrent deletion released the
+     * body in the meantime, the attachment is not attached to it, and the lookup starts over.
+     */
+    private void shareBody(UUID attachmentId, UUID newBodyId, Attachment attachment) {
+        String hash = attachment.getContentHash();
+        session.execute(quorum(insertReferenceStmt.bind(newBodyId, attachmentId)));
+        while (true) {
+            Row registered = session.execute(insertBodyStmt.bind(hash, newBodyId, chunkSize)).one();
+            if (registered.getBool("[applied]") || newBodyId.equals(registered.getUUID(BODY_ID))) {
+                attachment.setBodyId(newBodyId.toString());
+                return;
+            }
+            UUID bodyId = registered.getUUID(BODY_ID);
+            int bodyChunkSize = registered.getInt(CHUNK_SIZE);
+            session.execute(quorum(insertReferenceStmt.bind(bodyId, attachmentId)));
+            Row current = session.execute(selectBodyStmt.bind(hash).setConsistencyLevel(ConsistencyLevel.SERIAL)).one();
+            if (current != null && bodyId.equals(current.getUUID(BODY_ID))) {
+                log.debug("Attachment {} shares the body {}", attachmentId, bodyId);
+                session.execute(quorum(deleteReferenceStmt.bind(newBodyId, attachmentId)));
+                deleteChunks(newBodyId);
+                attachment.setBodyId(bodyId.toString());
+                attachment.setChunkSize(bodyChunkSize);
+                return;
+            }
+            session.execute(quorum(deleteReferenceStmt.bind(bodyId, attachmentId)));
+            releaseBody(hash, bodyId, bodyChunkSize);
+        }
+    }
+
+    /**
+     * Deletes a body once it has no reference left.
+     *
+     * @return false if the body is still referenced
+     */
+    private boolean releaseBody(String hash, UUID bodyId, int bodyChunkSize) {
+        if (isReferenced(bodyId)) {
+            return false;
+        }
+        session.execute(deleteBodyStmt.bind(hash, bodyId));
+        if (isReferenced(bodyId)) {
+            // A concurrent upload found the body before it was unregistered : it is registered again, unless
+            // another body was registered for the same content in the meantime
+            session.execute(insertBodyStmt.bind(hash, bodyId, bodyChunkSize));
+            return false;
+        }
+        log.debug("Deleting the body {}", bodyId);
+        deleteChunks(bodyId);
+        return true;
+    }
+
+    private boolean isReferenced(UUID bodyId) {
+        return !session.execute(quorum(selectReferenceStmt.bind(bodyId))).isExhausted();
+    }
+
+    /**
+     * The chunks of an attachment are stored under the id of its body, or under its own id if it was created
+     * before the bodies were shared.
+     */
+    private static UUID chunksId(Attachment attachment) {
+        return UUID.fromString(attachment.getBodyId() != null ? attachment.getBodyId() : attachment.getAttachmentId());
+    }
+
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void readLegacyContent(Attachment attachment, long offset, long length, OutputStream out)
+            throws IOException {
+
+        Statement statement = QueryBuilder.select()
+                .column(CONTENT)
+                .from(ATTACHMENT_CF)
+                .where(eq("id", UUID.fromString(attachment.getAttachmentId())));
+
+        ResultSet results = session.execute(statement);
+        if (results.isExhausted()) {
+            return;
+        }
+        ByteBuffer content = results.one().getBytes(CONTENT);
+        if (content != null && offset < content.remaining()) {
+            write(content, (int) offset, (int) Math.min(length, content.remaining() - offset), out);
+        }
+    }
+
+    private static void write(ByteBuffer data, int from, int length, OutputStream out) throws IOException {
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position() + from, length);
+        } else {
+            byte[] bytes = new byte[length];
+            ByteBuffer slice = data.duplicate();
+            slice.position(slice.position() + from);
+            slice.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the chunks of an attachment, one page at a time.
+     */
+    private final class ChunkInputStream extends InputStream {
+
+        private final ResultSet results;
+
+        private ByteBuffer chunk;
+
+        ChunkInputStream(ResultSet results) {
+            this.results = results;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            return chunk.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int count = Math.min(length, chunk.remaining());
+            chunk.get(bytes, offset, count);
+            return count;
+        }
+
+        private boolean nextChunk() {
+            while (chunk == null || !chunk.hasRemaining()) {
+                Row row = results.one();
+                if (row == null) {
+                    return false;
+                }
+                prefetch(results);
+                chunk = row.getBytes("data");
+            }
+            return true;
+        }
+    }
+
+    private static Statement quorum(Statement statement) {
+        return statement.setConsistencyLevel(ConsistencyLevel.QUORUM);
+    }
+}
@@ -1,19 +1,27 @@
 package fr.ippon.tatami.repository.cassandra;
 
 import com.datastax.driver.core.*;
-import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import fr.ippon.tatami.domain.UserCounters;
 import fr.ippon.tatami.repository.CounterRepository;
-import org.springframework.cache.annotation.CacheEvict;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
-import fr.ippon.tatami.config.ColumnFamilyKeys;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
-
-import java.util.stream.Collectors;
-
-import static com.datastax.driver.core.querybuilder.QueryBuilder.decr;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.incr;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
@@ -23,129 +31,347 @@ import static com.datastax.driver.core.querybuilder.QueryBuilder.incr;
  * - Key = login
  * - Name = counterId
  * - Value = count
+ * <p/>
+ * Increments and decrements are coalesced in memory, and flushed every second with one update per user, so that
+ * a burst of statuses or follows does not issue one counter update per event. Reads add the deltas which are not
+ * flushed yet to the values stored in Cassandra, so a node always reads its own writes.
+ * <p/>
+ * The "user-cache" entry of a user is only evicted once its counters are written to Cassandra, so that another
+ * node cannot cache the counts of a user before its deltas are flushed.
+ * <p/>
+ * Coalescing is disabled when "tatami.counter.coalesce" is false.
  *
  * @author Julien Dubois
  */
 @Repository
 public class CassandraCounterRepository implements CounterRepository {
 
+    private final Logger log = LoggerFactory.getLogger(CassandraCounterRepository.class);
+
     public static final String COUNTER = "counter";
     public static final String LOGIN = "login";
     @Inject
     Session session;
 
+    @Inject
+    private PreparedStatementRegistry statements;
+
+    @Inject
+    private Environment env;
+
+    @Autowired(required = false)
+    private CacheManager cacheManager;
+
     private static final String STATUS_COUNTER = "STATUS_COUNTER";
 
     private static final String FOLLOWERS_COUNTER = "FOLLOWERS_COUNTER";
 
     private static final String FRIENDS_COUNTER = "FRIENDS_COUNTER";
 
+    private static final int STATUS = 0;
+
+    private static final int FOLLOWERS = 1;
+
+    private static final int FRIENDS = 2;
+
+    /**
+     * Number of flushes without any change after which the pending counters of a user are removed.
+     */
+    private static final int MAX_IDLE_FLUSHES = 60;
+
+    private final ConcurrentHashMap<String, PendingCounters> pendingCounters = new ConcurrentHashMap<>();
+
+    private int maxIdleFlushes = MAX_IDLE_FLUSHES;
+
+    private boolean coalesce;
+
+    private PreparedStatement updateStmt;
+
+    private PreparedStatement findStmt;
+
+    private PreparedStatement deleteStmt;
+
+    @PostConstruct
+    public void init() {
+        coalesce = env.getProperty("tatami.counter.coalesce", Boolean.class, true);
+        updateStmt = statements.prepare("UPDATE " + COUNTER + " SET " +
+                STATUS_COUNTER + " = " + STATUS_COUNTER + " + ?, " +
+                FOLLOWERS_COUNTER + " = " + FOLLOWERS_COUNTER + " + ?, " +
+                FRIENDS_COUNTER + " = " + FRIENDS_COUNTER + " + ? " +
+                "WHERE " + LOGIN + " = ?");
+        findStmt = statements.prepare(QueryClass.USER_READ, "SELECT " +
+                STATUS_COUNTER + ", " + FOLLOWERS_COUNTER + ", " + FRIENDS_COUNTER +
+                " FROM " + COUNTER +
+                " WHERE " + LOGIN + " = ?");
+        deleteStmt = statements.prepare("DELETE FROM " + COUNTER + " WHERE " + LOGIN + " = ?");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
 
     @Override
-    @CacheEvict(value = "user-cache", key = "#login")
     public void incrementFollowersCounter(String login) {
-        incrementCounter(FOLLOWERS_COUNTER, login);
+        addToCounter(FOLLOWERS, login, 1);
     }
 
     @Override
-    @CacheEvict(value = {"user-cache", "suggest-users-cache"}, key = "#login")
     public void incrementFriendsCounter(String login) {
-        incrementCounter(FRIENDS_COUNTER, login);
+        addToCounter(FRIENDS, login, 1);
     }
 
     @Override
-    @CacheEvict(value = "user-cache", key = "#login")
     public void incrementStatusCounter(String login) {
-        incrementCounter(STATUS_COUNTER, login);
+        addToCounter(STATUS, login, 1);
     }
 
     @Override
-    @CacheEvict(value = "user-cache", key = "#login")
     public void decrementFollowersCounter(String login) {
-        decrementCounter(FOLLOWERS_COUNTER, login);
+        addToCounter(FOLLOWERS, login, -1);
     }
 
     @Override
-    @CacheEvict(value = "user-cache", key = "#login")
     public void decrementFriendsCounter(String login) {
-        decrementCounter(FRIENDS_COUNTER, login);
+        addToCounter(FRIENDS, login, -1);
     }
 
     @Override
-    @CacheEvict(value = "user-cache", key = "#login")
     public void decrementStatusCounter(String login) {
-        decrementCounter(STATUS_COUNTER, login);
+        addToCounter(STATUS, login, -1);
     }
 
     @Override
     public long getFollowersCounter(String login) {
-        return getCounter(FOLLOWERS_COUNTER, login);
+        return getCounters(login).getFollowersCount();
     }
 
     @Override
     public long getFriendsCounter(String login) {
-        return getCounter(FRIENDS_COUNTER, login);
+        return getCounters(login).getFriendsCount();
     }
 
     @Override
     public long getStatusCounter(String login) {
-        return getCounter(STATUS_COUNTER, login);
+        return getCounters(login).getStatusCount();
+    }
+
+    @Override
+    public UserCounters getCounters(String login) {
+        return toCounters(login, session.execute(findStmt.bind(login)).one());
+    }
+
+    @Override
+    public Map<String, UserCounters> getCounters(Collection<String> logins) {
+        Map<String, ResultSetFuture> futures = new LinkedHashMap<>();
+        for (String login : logins) {
+            if (!futures.containsKey(login)) {
+                futures.put(login, session.executeAsync(findStmt.bind(login)));
+            }
+        }
+        Map<String, UserCounters> counters = new HashMap<>();
+        for (Map.Entry<String, ResultSetFuture> future : futures.entrySet()) {
+            counters.put(future.getKey(), toCounters(future.getKey(), future.getValue().getUninterruptibly().one()));
+        }
+        return counters;
     }
 
     @Override
     public void createFollowersCounter(String login) {
-        createCounter(FOLLOWERS_COUNTER, login);
+        createCounter(login);
     }
 
     @Override
     public void createFriendsCounter(String login) {
-        createCounter(FRIENDS_COUNTER, login);
+        createCounter(login);
     }
 
     @Override
     public void createStatusCounter(String login) {
-        createCounter(STATUS_COUNTER, login);
+        createCounter(login);
     }
 
     @Override
     public void deleteCounters(String login) {
-        Statement statement = QueryBuilder.delete().from(COUNTER)
-                .where(eq(LOGIN, login));
-        session.execute(statement);
+        pendingCounters.remove(login);
+        session.execute(deleteStmt.bind(login));
+    }
+
+    private void createCounter(String login) {
+        session.execute(updateStmt.bind(0L, 0L, 0L, login));
     }
 
-    private void createCounter(String counterName, String login) {
-        Statement statement = QueryBuilder.update(COUNTER)
-                .with(incr(counterName,0))
-                .where(eq(LOGIN,login));
-        session.execute(statement);
+    private void addToCounter(int counter, String login, long delta) {
+        if (coalesce) {
+            // The delta is added while the entry is locked, so that the flush cannot remove it in between
+            pendingCounters.compute(login, (l, pending) -> {
+                if (pending == null) {
+                    pending = new PendingCounters();
+                }
+                pending.add(counter, delta);
+                return pending;
+            });
+        } else {
+            long[] deltas = new long[3];
+            deltas[counter] = delta;
+            session.execute(updateStmt.bind(deltas[STATUS], deltas[FOLLOWERS], deltas[FRIENDS], login));
+            evictUser(login, deltas);
+        }
     }
 
-    private void incrementCounter(String counterName, String login) {
-        Statement statement = QueryBuilder.update(COUNTER)
-                .with(incr(counterName,1))
-                .where(eq(LOGIN,login));
-        session.execute(statement);
+    private UserCounters toCounters(String login, Row row) {
+        long[] counters = new long[3];
+        if (row != null) {
+            counters[STATUS] = row.getLong(STATUS_COUNTER);
+            counters[FOLLOWERS] = row.getLong(FOLLOWERS_COUNTER);
+            counters[FRIENDS] = row.getLong(FRIENDS_COUNTER);
+        }
+        PendingCounters pending = pendingCounters.get(login);
+        if (pending != null) {
+            long[] deltas = pending.unflushed();
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] += deltas[i];
+            }
+        }
+        return new UserCounters(counters[STATUS], counters[FOLLOWERS], counters[FRIENDS]);
     }
 
-    private void decrementCounter(String counterName, String login) {
-        Statement statement = QueryBuilder.update(COUNTER)
-                .with(decr(counterName,1))
-                .where(eq(LOGIN,login));
-        session.execute(statement);
+    /**
+     * Writes the coalesced deltas to Cassandra, with one update per user, and evicts the cached users whose
+     * counters were written.
+     * <p/>
+     * The deltas are only marked as flushed once their update succeeded, and the deltas of an update which could
+     * not be sent are written again by the next flush. As counter updates are not idempotent, the deltas of an
+     * update which timed out are dropped instead : it may have been applied, and sending it again could count them
+     * twice. The pending counters of a user are removed after they have been idle for a while, only if no delta
+     * was added to them meanwhile.
+     */
+    @Scheduled(fixedDelay = 1000)
+    public synchronized void flush() {
+        Map<String, PendingCounters> flushing = new HashMap<>();
+        Map<String, long[]> flushed = new HashMap<>();
+        Map<String, ResultSetFuture> futures = new HashMap<>();
+        for (Map.Entry<String, PendingCounters> entry : pendingCounters.entrySet()) {
+            String login = entry.getKey();
+            PendingCounters pending = entry.getValue();
+            long[] deltas = pending.unflushed();
+            if (isZero(deltas)) {
+                if (++pending.idleFlushes > maxIdleFlushes) {
+                    pendingCounters.computeIfPresent(login,
+                            (l, current) -> current == pending && isZero(current.unflushed()) ? null : current);
+                }
+                continue;
+            }
+            pending.idleFlushes = 0;
+            flushing.put(login, pending);
+            flushed.put(login, deltas);
+            futures.put(login, write(login, deltas));
+        }
+        for (Map.Entry<String, ResultSetFuture> future : futures.entrySet()) {
+            String login = future.getKey();
+            PendingCounters pending = flushing.get(login);
+            long[] deltas = flushed.get(login);
+            try {
+                future.getValue().getUninterruptibly();
+                pending.markFlushed(deltas);
+                evictUser(login, deltas);
+            } catch (RuntimeException e) {
+                if (isTimeout(e)) {
+                    log.error("Counter update of {} timed out, its deltas {} are dropped : {}",
+                            login, Arrays.toString(deltas), e.getMessage());
+                    pending.markFlushed(deltas);
+                    evictUser(login, deltas);
+                } else {
+                    // The deltas stay unflushed, so they are written again by the next flush
+                    log.warn("Could not flush the counters of {}, they will be retried : {}", login, e.getMessage());
+                }
+            }
+        }
+        if (!futures.isEmpty()) {
+            log.debug("Flushed the counters of {} users", futures.size());
+        }
     }
 
-    private long getCounter(String counterName, String login) {
-        Statement statement = QueryBuilder.select()
-                .column(counterName)
-                .from(COUNTER)
-                .where(eq(LOGIN, login));
-        ResultSet results = session.execute(statement);
-        Row row = results.one();
-        if (row != null) {
-            return row.getLong(counterName);
-        } else {
-            return 0;
+    /**
+     * Evicts the cached user, and its suggestions when its friends changed : the evictions are sent to the other
+     * nodes by the cluster cache manager.
+     */
+    private void evictUser(String login, long[] deltas) {
+        if (cacheManager == null) {
+            return;
+        }
+        evict("user-cache", login);
+        if (deltas[FRIENDS] != 0) {
+            evict("suggest-users-cache", login);
+        }
+    }
+
+    private void evict(String cacheName, String login) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            cache.evict(login);
+        }
+    }
+
+    /**
+     * Whether the update may have been applied although it failed.
+     */
+    private static boolean isTimeout(RuntimeException e) {
+        if (e instanceof WriteTimeoutException || e instanceof OperationTimedOutException) {
+            return true;
+        }
+        if (e instanceof NoHostAvailableException) {
+            for (Throwable error : ((NoHostAvailableException) e).getErrors().values()) {
+                if (error instanceof OperationTimedOutException || error instanceof WriteTimeoutException) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private ResultSetFuture write(String login, long[] deltas) {
+        return session.executeAsync(updateStmt.bind(deltas[STATUS], deltas[FOLLOWERS], deltas[FRIENDS], login));
+    }
+
+    private static boolean isZero(long[] deltas) {
+        for (long delta : deltas) {
+            if (delta != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The deltas of the counters of a user.
+     * <p/>
+     * The adders are never reset, as a concurrent increment could be lost : the flushed value is subtracted instead.
+     */
+    private static class PendingCounters {
+
+        private final LongAdder[] added = {new LongAdder(), new LongAdder(), new LongAdder()};
+
+        private final AtomicLongArray flushed = new AtomicLongArray(3);
+
+        private int idleFlushes = 0;
+
+        void add(int counter, long delta) {
+            added[counter].add(delta);
+        }
+
+        long[] unflushed() {
+            long[] deltas = new long[added.length];
+            for (int i = 0; i < added.length; i++) {
+                deltas[i] = added[i].sum() - flushed.get(i);
+            }
+            return deltas;
+        }
+
+        void markFlushed(long[] deltas) {
+            for (int i = 0; i < deltas.length; i++) {
+                flushed.addAndGet(i, deltas[i]);
+            }
         }
     }
 }
@@ -1,13 +1,13 @@
 package fr.ippon.tatami.repository.cassandra;
 
 import fr.ippon.tatami.repository.DiscussionRepository;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.stereotype.Repository;
 
 import javax.inject.Inject;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.UUID;
 
 import static fr.ippon.tatami.config.ColumnFamilyKeys.DISCUSSION_CF;
 
@@ -24,10 +24,12 @@ import static fr.ippon.tatami.config.ColumnFamilyKeys.DISCUSSION_CF;
 @Repository
 public class CassandraDiscussionRepository implements DiscussionRepository {
 
+    @Inject
+    private OffHeapStatusStore statusStore;
 
     @Override
-    @CacheEvict(value = "status-cache", key = "#originalStatusId")
     public void addReplyToDiscussion(String originalStatusId, String replyStatusId) {
+        statusStore.evict(UUID.fromString(originalStatusId));
 //        Mutator<String> mutator = HFactory.createMutator(keyspaceOperator, StringSerializer.get());
 //        mutator.insert(originalStatusId, DISCUSSION_CF,
 //                HFactory.createColumn(
@@ -38,6 +38,9 @@ public class CassandraDomainConfigurationRepository implements DomainConfigurati
     @Inject
     private Session session;
 
+    @Inject
+    private PreparedStatementRegistry statements;
+
     private Mapper<DomainConfiguration> mapper;
 
     private PreparedStatement findOneByDomainStmt;
@@ -48,11 +51,11 @@ public class CassandraDomainConfigurationRepository implements DomainConfigurati
     @PostConstruct
     public void init() {
         mapper = new MappingManager(session).mapper(DomainConfiguration.class);
-        findOneByDomainStmt = session.prepare(
+        findOneByDomainStmt = statements.prepare(
                 "SELECT * " +
                         "FROM domainConfiguration " +
                         "WHERE domain = :domain");
-        deleteByLoginStmt = session.prepare("DELETE FROM user " +
+        deleteByLoginStmt = statements.prepare("DELETE FROM user " +
                 "WHERE login = :login");
     }
 
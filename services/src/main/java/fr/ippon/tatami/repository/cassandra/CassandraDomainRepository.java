@@ -5,8 +5,8 @@ import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
 import com.datastax.driver.core.utils.UUIDs;
-import fr.ippon.tatami.config.Constants;
 import fr.ippon.tatami.domain.Domain;
 import fr.ippon.tatami.repository.DomainRepository;
 import org.springframework.stereotype.Repository;
@@ -59,19 +59,20 @@ public class CassandraDomainRepository implements DomainRepository {
     }
 
     @Override
-    public List<String> getLoginsInDomain(String domain, int pagination) {
-        int maxColumns = pagination + Constants.PAGINATION_SIZE;
-        Statement statement = QueryBuilder.select()
+    public List<String> getLoginsInDomain(String domain, String afterLogin, int size) {
+        Select.Where statement = QueryBuilder.select()
                 .column("login")
                 .from("domain")
-                .where(eq(DOMAIN_ID, domain))
-                .limit(maxColumns+1);
+                .where(eq(DOMAIN_ID, domain));
+        if (afterLogin != null) {
+            // the logins are the clustering key : the page starts right after the last one read
+            statement.and(gt("login", afterLogin));
+        }
 
-        ResultSet results = session.execute(statement);
+        ResultSet results = session.execute(statement.limit(size));
         return results
                 .all()
                 .stream()
-                .skip(pagination)
                 .map(e -> e.getString("login"))
                 .collect(Collectors.toList());
     }
@@ -23,8 +23,6 @@ import static fr.ippon.tatami.config.ColumnFamilyKeys.DOMAINLINE;
 @Repository
 public class CassandraDomainlineRepository extends AbstractCassandraLineRepository implements DomainlineRepository {
 
-    private final static int COLUMN_TTL = 60 * 60 * 24 * 30; // The column is stored for 30 days.
-
     private PreparedStatement findByLoginStmt;
 
     private PreparedStatement deleteByIdStmt;
@@ -32,12 +30,13 @@ public class CassandraDomainlineRepository extends AbstractCassandraLineReposito
 
     @PostConstruct
     public void init() {
-        findByLoginStmt = session.prepare(
+        prepareLine(DOMAINLINE);
+        findByLoginStmt = statements.prepare(
                 "SELECT * " +
                         "FROM " + DOMAINLINE+
                         " WHERE key = :key");
 
-        deleteByIdStmt = session.prepare("DELETE FROM " + DOMAINLINE +
+        deleteByIdStmt = statements.prepare("DELETE FROM " + DOMAINLINE +
                 " WHERE key = :key " +
                 "AND status = :statusId");
 
@@ -46,7 +45,7 @@ public class CassandraDomainlineRepository extends AbstractCassandraLineReposito
 
     @Override
     public void addStatusToDomainline(String domain, String statusId) {
-        addStatus(domain, DOMAINLINE, statusId, COLUMN_TTL);
+        addStatus(domain, DOMAINLINE, statusId);
     }
 
     @Override
@@ -32,12 +32,13 @@ public class CassandraGrouplineRepository extends AbstractCassandraLineRepositor
 
     @PostConstruct
     public void init() {
-        findByLoginStmt = session.prepare(
+        prepareLine(GROUPLINE);
+        findByLoginStmt = statements.prepare(
                 "SELECT * " +
                         "FROM " + GROUPLINE+
                         " WHERE key = :key");
 
-        deleteByIdStmt = session.prepare("DELETE FROM " + GROUPLINE +
+        deleteByIdStmt = statements.prepare("DELETE FROM " + GROUPLINE +
                 " WHERE key = :key " +
                 "AND status = :statusId");
 
@@ -0,0 +1,69 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import fr.ippon.tatami.repository.ImageVariantRepository;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static fr.ippon.tatami.config.ColumnFamilyKeys.IMAGE_VARIANT_CF;
+
+/**
+ * Cassandra implementation of the Image Variant repository.
+ * <p/>
+ * Structure :
+ * - Key = image id
+ * - Name = variant
+ * - Value = content
+ */
+@Repository
+public class CassandraImageVariantRepository implements ImageVariantRepository {
+
+    @Inject
+    private Session session;
+
+    @Inject
+    private PreparedStatementRegistry statements;
+
+    private PreparedStatement insertStmt;
+
+    private PreparedStatement selectStmt;
+
+    private PreparedStatement deleteStmt;
+
+    @PostConstruct
+    public void init() {
+        insertStmt = statements.prepare(QueryClass.BLOB_WRITE,
+                "INSERT INTO " + IMAGE_VARIANT_CF + " (id, variant, content) VALUES (?, ?, ?)");
+        selectStmt = statements.prepare(QueryClass.BLOB_READ,
+                "SELECT content FROM " + IMAGE_VARIANT_CF + " WHERE id = ? AND variant = ?");
+        deleteStmt = statements.prepare("DELETE FROM " + IMAGE_VARIANT_CF + " WHERE id = ?");
+    }
+
+    @Override
+    public void saveVariant(String id, String variant, byte[] content) {
+        session.execute(insertStmt.bind(UUID.fromString(id), variant, ByteBuffer.wrap(content)));
+    }
+
+    @Override
+    public byte[] findVariant(String id, String variant) {
+        Row row = session.execute(selectStmt.bind(UUID.fromString(id), variant)).one();
+        if (row == null || row.getBytes("content") == null) {
+            return null;
+        }
+        ByteBuffer content = row.getBytes("content");
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void deleteVariants(String id) {
+        session.execute(deleteStmt.bind(UUID.fromString(id)));
+    }
+}
@@ -4,8 +4,8 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
 import com.datastax.driver.core.utils.UUIDs;
-import fr.ippon.tatami.config.Constants;
 import fr.ippon.tatami.domain.DigestType;
 import fr.ippon.tatami.repository.MailDigestRepository;
 import org.springframework.stereotype.Repository;
@@ -18,6 +18,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.gt;
 
 
 /**
@@ -60,19 +61,20 @@ public class CassandraMailDigestRepository implements MailDigestRepository {
 
     @Override
     public List<String> getLoginsRegisteredToDigest(DigestType digestType, String domain,
-                                                    String day, int pagination) {
-        int maxColumns = pagination + Constants.PAGINATION_SIZE;
-        Statement statement = QueryBuilder.select()
+                                                    String day, String afterLogin, int size) {
+        Select.Where statement = QueryBuilder.select()
                 .column("login")
                 .from("mailDigest")
-                .where(eq("digestId", buildKey(digestType, domain, day)))
-                .limit(maxColumns+1);
+                .where(eq("digestId", buildKey(digestType, domain, day)));
+        if (afterLogin != null) {
+            // the logins are the clustering key : the page starts right after the last one read
+            statement.and(gt("login", afterLogin));
+        }
 
-        ResultSet results = session.execute(statement);
+        ResultSet results = session.execute(statement.limit(size));
         return results
                 .all()
                 .stream()
-                .skip(pagination)
                 .map(e -> e.getString("login"))
                 .collect(Collectors.toList());
     }
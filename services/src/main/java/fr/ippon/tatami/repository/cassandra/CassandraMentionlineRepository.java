@@ -31,12 +31,13 @@ public class CassandraMentionlineRepository extends AbstractCassandraLineReposit
 
     @PostConstruct
     public void init() {
-        findByLoginStmt = session.prepare(
+        prepareLine(ColumnFamilyKeys.MENTIONLINE);
+        findByLoginStmt = statements.prepare(
                 "SELECT * " +
                         "FROM mentionline " +
                         "WHERE key = :key");
 
-        deleteByIdStmt = session.prepare("DELETE FROM mentionline " +
+        deleteByIdStmt = statements.prepare("DELETE FROM mentionline " +
                 "WHERE key = :key " +
                 "AND status = :statusId");
 
@@ -0,0 +1,67 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import fr.ippon.tatami.domain.ReindexSegment;
+import fr.ippon.tatami.repository.ReindexCheckpointRepository;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static fr.ippon.tatami.config.ColumnFamilyKeys.REINDEX_CHECKPOINT_CF;
+
+/**
+ * Cassandra implementation of the Reindex Checkpoint repository.
+ * <p/>
+ * Structure :
+ * - Key = segment
+ * - Columns = start, end and last indexed tokens
+ */
+@Repository
+public class CassandraReindexCheckpointRepository implements ReindexCheckpointRepository {
+
+    @Inject
+    private Session session;
+
+    @Inject
+    private PreparedStatementRegistry statements;
+
+    private PreparedStatement findAllStmt;
+
+    private PreparedStatement saveStmt;
+
+    private PreparedStatement truncateStmt;
+
+    @PostConstruct
+    public void init() {
+        findAllStmt = statements.prepare("SELECT segment, startToken, endToken, lastToken FROM " + REINDEX_CHECKPOINT_CF);
+        saveStmt = statements.prepare("INSERT INTO " + REINDEX_CHECKPOINT_CF + " (segment, startToken, endToken, lastToken) " +
+                "VALUES (?, ?, ?, ?)");
+        truncateStmt = statements.prepare("TRUNCATE " + REINDEX_CHECKPOINT_CF);
+    }
+
+    @Override
+    public Collection<ReindexSegment> findSegments() {
+        Collection<ReindexSegment> segments = new ArrayList<>();
+        for (Row row : session.execute(findAllStmt.bind())) {
+            segments.add(new ReindexSegment(row.getInt("segment"), row.getLong("startToken"),
+                    row.getLong("endToken"), row.getLong("lastToken")));
+        }
+        return segments;
+    }
+
+    @Override
+    public void saveSegment(ReindexSegment segment) {
+        session.execute(saveStmt.bind(segment.getSegment(), segment.getStartToken(),
+                segment.getEndToken(), segment.getLastToken()));
+    }
+
+    @Override
+    public void deleteSegments() {
+        session.execute(truncateStmt.bind());
+    }
+}
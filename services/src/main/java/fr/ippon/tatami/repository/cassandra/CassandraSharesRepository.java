@@ -1,20 +1,21 @@
 package fr.ippon.tatami.repository.cassandra;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import fr.ippon.tatami.config.ColumnFamilyKeys;
 import fr.ippon.tatami.repository.SharesRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Repository;
 
 import javax.inject.Inject;
-import java.util.Calendar;
-import java.util.Collection;
-import java.util.LinkedHashSet;
-import java.util.UUID;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
@@ -37,6 +38,9 @@ public class CassandraSharesRepository implements SharesRepository {
     @Inject
     private Session session;
 
+    @Autowired(required = false)
+    private CacheManager cacheManager;
+
     @Override
     @CacheEvict(value = "shared-cache", key = "#statusId")
     public void newShareByLogin(String statusId, String sharedByLogin) {
@@ -62,6 +66,39 @@ public class CassandraSharesRepository implements SharesRepository {
                .collect(Collectors.toList());
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Collection<String>> findLoginsWhoSharedStatuses(Collection<String> statusIds) {
+        Map<String, Collection<String>> logins = new HashMap<>();
+        Cache cache = cacheManager == null ? null : cacheManager.getCache("shared-cache");
+        Map<String, ResultSetFuture> futures = new HashMap<>();
+        for (String statusId : statusIds) {
+            Cache.ValueWrapper cachedLogins = cache == null ? null : cache.get(statusId);
+            if (cachedLogins != null) {
+                logins.put(statusId, (Collection<String>) cachedLogins.get());
+            } else if (!futures.containsKey(statusId)) {
+                Statement statement = QueryBuilder.select()
+                        .column("login")
+                        .from(SHARES_CF)
+                        .where(eq("status", UUID.fromString(statusId)))
+                        .limit(100);
+                futures.put(statusId, session.executeAsync(statement));
+            }
+        }
+        for (Map.Entry<String, ResultSetFuture> future : futures.entrySet()) {
+            Collection<String> sharedBy = future.getValue().getUninterruptibly()
+                    .all()
+                    .stream()
+                    .map(e -> e.getString("login"))
+                    .collect(Collectors.toList());
+            if (cache != null) {
+                cache.put(future.getKey(), sharedBy);
+            }
+            logins.put(future.getKey(), sharedBy);
+        }
+        return logins;
+    }
+
     @Override
     public boolean hasBeenShared(String statusId) {
         Statement statement = QueryBuilder.select()
@@ -13,8 +13,7 @@ import fr.ippon.tatami.service.util.DomainUtil;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.Cache;
 import org.springframework.stereotype.Repository;
 import fr.ippon.tatami.domain.status.*;
 
@@ -22,6 +21,7 @@ import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.validation.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Cassandra implementation of the status repository.
@@ -85,21 +85,36 @@ public class CassandraStatusRepository implements StatusRepository {
 
     private PreparedStatement deleteByIdStmt;
 
+    private PreparedStatement scanStmt;
+
 
     @Inject
     Session session;
 
+    @Inject
+    private PreparedStatementRegistry statements;
+
+    @Inject
+    private OffHeapStatusStore statusStore;
+
     private Mapper<Status> mapper;
 
     @PostConstruct
     public void init() {
         mapper = new MappingManager(session).mapper(Status.class);
-        findOneByIdStmt = session.prepare(
+        findOneByIdStmt = statements.prepare(QueryClass.STATUS_READ,
                 "SELECT * " +
                         "FROM status " +
                         "WHERE statusId = :statusId");
-        deleteByIdStmt = session.prepare("DELETE FROM status " +
+        deleteByIdStmt = statements.prepare("DELETE FROM status " +
                 "WHERE statusId = :statusId");
+        scanStmt = statements.prepare(QueryClass.STATUS_READ,
+                "SELECT token(statusId), statusId, type, login, username, domain, statusDate, removed, " +
+                        "groupId, statusPrivate, content, hasAttachments, discussionId, replyTo, replyToUsername, " +
+                        "geoLocalization " +
+                        "FROM status " +
+                        "WHERE token(statusId) > ? AND token(statusId) <= ? " +
+                        "LIMIT ?");
     }
 
 
@@ -158,7 +173,7 @@ public class CassandraStatusRepository implements StatusRepository {
             status.setGeoLocalization(geoLocalization);
         }
         status.setStatusDate(new Date());
-        BatchStatement batch = new BatchStatement();
+        BatchStatement batch = statements.apply(QueryClass.STATUS_WRITE, new BatchStatement());
         batch.add(mapper.saveQuery(status));
         session.execute(batch);
 
@@ -261,8 +276,10 @@ public class CassandraStatusRepository implements StatusRepository {
         return mentionShare;
     }
 
+    /**
+     * Statuses are cached in the off-heap status store.
+     */
     @Override
-    @Cacheable("status-cache")
     public AbstractStatus findStatusById(String statusId) {
         if (statusId == null || statusId.equals("")) {
             return null;
@@ -270,13 +287,93 @@ public class CassandraStatusRepository implements StatusRepository {
         if (log.isTraceEnabled()) {
             log.trace("Finding status : " + statusId);
         }
+        UUID id = UUID.fromString(statusId);
+        Cache.ValueWrapper cachedStatus = statusStore.get(id);
+        if (cachedStatus != null) {
+            return (AbstractStatus) cachedStatus.get();
+        }
+        long generation = statusStore.generation();
         BoundStatement stmt = findOneByIdStmt.bind();
-        stmt.setUUID("statusId", UUID.fromString(statusId));
+        stmt.setUUID("statusId", id);
         ResultSet rs = session.execute(stmt);
-        if (rs.isExhausted()) {
+        AbstractStatus status = buildStatus(rs.one(), statusId);
+        statusStore.put(id, status, generation);
+        return status;
+    }
+
+    /**
+     * Statuses are first looked up in the off-heap status store, and all the missing ones are then read
+     * concurrently.
+     */
+    @Override
+    public Map<String, AbstractStatus> findStatusesByIds(Collection<String> statusIds) {
+        Map<String, AbstractStatus> statuses = new HashMap<>();
+        Map<String, ResultSetFuture> futures = new LinkedHashMap<>();
+        long generation = statusStore.generation();
+        for (String statusId : statusIds) {
+            if (statusId == null || statusId.equals("") || futures.containsKey(statusId)) {
+                continue;
+            }
+            Cache.ValueWrapper cachedStatus = statusStore.get(UUID.fromString(statusId));
+            if (cachedStatus != null) {
+                if (cachedStatus.get() != null) {
+                    statuses.put(statusId, (AbstractStatus) cachedStatus.get());
+                }
+            } else {
+                BoundStatement stmt = findOneByIdStmt.bind();
+                stmt.setUUID("statusId", UUID.fromString(statusId));
+                futures.put(statusId, session.executeAsync(stmt));
+            }
+        }
+        log.trace("Finding {} statuses, {} found in cache", futures.size(), statuses.size());
+        for (Map.Entry<String, ResultSetFuture> future : futures.entrySet()) {
+            String statusId = future.getKey();
+            AbstractStatus status = buildStatus(future.getValue().getUninterruptibly().one(), statusId);
+            statusStore.put(UUID.fromString(statusId), status, generation);
+            if (status != null) {
+                statuses.put(statusId, status);
+            }
+        }
+        return statuses;
+    }
+
+    @Override
+    public long scanStatuses(long fromToken, long toToken, int limit, Consumer<Status> consumer) {
+        ResultSet rs = session.execute(scanStmt.bind(fromToken, toToken, limit));
+        long lastToken = fromToken;
+        int rows = 0;
+        for (Row row : rs) {
+            lastToken = row.getLong(0);
+            rows++;
+            String type = row.getString(TYPE);
+            if ((type != null && !type.equals(StatusType.STATUS.name())) ||
+                    row.getBool(REMOVED) || row.getBool(STATUS_PRIVATE)) {
+                continue;
+            }
+            Status status = new Status();
+            status.setStatusId(row.getUUID("statusId"));
+            status.setType(StatusType.STATUS);
+            status.setLogin(row.getString(LOGIN));
+            status.setUsername(row.getString(USERNAME));
+            status.setDomain(row.getString(DOMAIN));
+            status.setStatusDate(row.getDate(STATUS_DATE));
+            status.setGroupId(row.getString(GROUP_ID));
+            status.setStatusPrivate(false);
+            status.setContent(row.getString(CONTENT));
+            status.setHasAttachments(row.getBool(HAS_ATTACHMENTS));
+            status.setDiscussionId(row.getString(DISCUSSION_ID));
+            status.setReplyTo(row.getString(REPLY_TO));
+            status.setReplyToUsername(row.getString(REPLY_TO_USERNAME));
+            status.setGeoLocalization(row.getString(GEO_LOCALIZATION));
+            consumer.accept(status);
+        }
+        return rows < limit ? toToken : lastToken;
+    }
+
+    private AbstractStatus buildStatus(Row row, String statusId) {
+        if (row == null) {
             return null;
         }
-        Row row = rs.one();
         AbstractStatus status = null;
         String type = row.getString(TYPE);
         if (type == null || type.equals(StatusType.STATUS.name())) {
@@ -371,7 +468,7 @@ public class CassandraStatusRepository implements StatusRepository {
                     attachmentCopy.setAttachmentId(attachmentId);
                     attachmentCopy.setSize(attachment.getSize());
                     attachmentCopy.setFilename(attachment.getFilename());
-                    attachments.add(attachment);
+                    attachments.add(attachmentCopy);
                 }
             }
             status.setAttachments(attachments);
@@ -380,12 +477,12 @@ public class CassandraStatusRepository implements StatusRepository {
     }
 
     @Override
-    @CacheEvict(value = "status-cache", key = "#status.statusId")
     public void removeStatus(AbstractStatus status) {
         log.debug("Removing Status : {}", status);
         BatchStatement batch = new BatchStatement();
         batch.add(deleteByIdStmt.bind().setUUID("statusId", status.getStatusId()));
         session.execute(batch);
+        statusStore.evict(status.getStatusId());
     }
 
     private boolean computeDetailsAvailable(Status status) {
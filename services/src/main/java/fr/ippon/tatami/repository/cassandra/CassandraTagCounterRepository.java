@@ -1,6 +1,7 @@
 package fr.ippon.tatami.repository.cassandra;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
@@ -30,6 +31,8 @@ public class CassandraTagCounterRepository implements TagCounterRepository {
 
     private static final String TAG_COUNTER = "TAG_COUNTER";
 
+    private static final int SCAN_FETCH_SIZE = 1000;
+
     @Inject
     private Session session;
 
@@ -70,6 +73,23 @@ public class CassandraTagCounterRepository implements TagCounterRepository {
         session.execute(statement);
     }
 
+    @Override
+    public void findAllTagCounters(TagCounterVisitor visitor) {
+        Statement statement = QueryBuilder.select()
+                .column("key")
+                .column(TAG_COUNTER)
+                .from(ColumnFamilyKeys.TAG_COUNTER_CF)
+                .setFetchSize(SCAN_FETCH_SIZE);
+        for (Row row : session.execute(statement)) {
+            // Tags cannot contain "-"
+            String key = row.getString("key");
+            int separator = key.indexOf('-');
+            if (separator > 0) {
+                visitor.visit(key.substring(separator + 1), key.substring(0, separator), row.getLong(TAG_COUNTER));
+            }
+        }
+    }
+
     /**
      * Generates the key for this column family.
      */
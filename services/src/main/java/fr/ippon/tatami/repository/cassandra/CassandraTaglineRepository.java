@@ -33,12 +33,13 @@ public class CassandraTaglineRepository extends AbstractCassandraLineRepository
 
     @PostConstruct
     public void init() {
-        findByLoginStmt = session.prepare(
+        prepareLine(TAGLINE);
+        findByLoginStmt = statements.prepare(
                 "SELECT * " +
                         "FROM " + TAGLINE+
                         " WHERE key = :key");
 
-        deleteByIdStmt = session.prepare("DELETE FROM " + TAGLINE +
+        deleteByIdStmt = statements.prepare("DELETE FROM " + TAGLINE +
                 " WHERE key = :key " +
                 "AND status = :statusId");
 
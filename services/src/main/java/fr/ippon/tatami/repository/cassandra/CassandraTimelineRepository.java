@@ -15,6 +15,7 @@ import org.springframework.stereotype.Repository;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
@@ -37,28 +38,42 @@ import static fr.ippon.tatami.config.ColumnFamilyKeys.TIMELINE_SHARES_CF;
 @Repository
 public class CassandraTimelineRepository extends AbstractCassandraLineRepository implements TimelineRepository {
 
+    /**
+     * Maximum number of asynchronous inserts in flight when adding a status to several timelines.
+     */
+    private static final int MAX_PENDING_INSERTS = 128;
+
     @Inject
     Session session;
 
+    @Inject
+    private TimelineBufferCache timelineBufferCache;
+
     private Mapper<Status> mapper;
 
     private PreparedStatement findByLoginStmt;
 
     private PreparedStatement deleteByIdStmt;
 
+    private PreparedStatement insertStmt;
 
     @PostConstruct
     public void init() {
+        prepareLine(TIMELINE_CF);
+        prepareLine(TIMELINE_SHARES_CF);
         mapper = new MappingManager(session).mapper(Status.class);
-        findByLoginStmt = session.prepare(
+        findByLoginStmt = statements.prepare(
                 "SELECT * " +
                         "FROM timeline " +
                         "WHERE key = :key");
 
-        deleteByIdStmt = session.prepare("DELETE FROM timeline " +
+        deleteByIdStmt = statements.prepare("DELETE FROM timeline " +
                 "WHERE key = :key " +
                 "AND status = :statusId");
 
+        insertStmt = statements.prepare(QueryClass.LINE_WRITE, "INSERT INTO timeline (key, status) " +
+                "VALUES (:key, :status) " +
+                "USING TTL :ttl");
     }
 
 
@@ -70,30 +85,63 @@ public class CassandraTimelineRepository extends AbstractCassandraLineRepository
     @Override
     public void addStatusToTimeline(String login, String statusId) {
         addStatus(login,TIMELINE_CF,statusId);
+        timelineBufferCache.addStatus(login, statusId);
+    }
+
+    @Override
+    public void addStatusToTimelines(Collection<String> logins, String statusId) {
+        UUID status = UUID.fromString(statusId);
+        int ttl = lineRetentionManager.getTtl(TIMELINE_CF);
+        List<ResultSetFuture> futures = new ArrayList<>(Math.min(logins.size(), MAX_PENDING_INSERTS));
+        for (String login : logins) {
+            futures.add(session.executeAsync(insertStmt.bind()
+                    .setString("key", login)
+                    .setUUID("status", status)
+                    .setInt("ttl", ttl)));
+            if (futures.size() == MAX_PENDING_INSERTS) {
+                waitFor(futures);
+            }
+        }
+        waitFor(futures);
+        lineRetentionManager.statusAdded(TIMELINE_CF, logins);
+        timelineBufferCache.addStatus(logins, statusId);
+    }
+
+    private void waitFor(List<ResultSetFuture> futures) {
+        futures.forEach(ResultSetFuture::getUninterruptibly);
+        futures.clear();
     }
 
     @Override
     public void removeStatusesFromTimeline(String login, Collection<String> statusIdsToDelete) {
         removeStatuses(login,TIMELINE_CF,statusIdsToDelete);
+        timelineBufferCache.evict(login);
     }
 
     @Override
     public void shareStatusToTimeline(String sharedByLogin, String timelineLogin, Share share) {
         shareStatus(timelineLogin, share, TIMELINE_CF, TIMELINE_SHARES_CF);
+        timelineBufferCache.evict(timelineLogin);
     }
 
     @Override
     public void announceStatusToTimeline(String announcedByLogin, List<String> logins, Announcement announcement) {
-        PreparedStatement insertAnnouncementPreparedStatement = session.prepare(
-                "INSERT INTO timeline (key, status) VALUES (?, ?);");
-
+        int ttl = lineRetentionManager.getTtl(TIMELINE_CF);
         BatchStatement batch = new BatchStatement();
-        logins.forEach(e -> batch.add(insertAnnouncementPreparedStatement.bind(e, UUIDs.timeBased())));
+        logins.forEach(e -> batch.add(insertStmt.bind()
+                .setString("key", e)
+                .setUUID("status", UUIDs.timeBased())
+                .setInt("ttl", ttl)));
         session.executeAsync(batch);
+        timelineBufferCache.evict(logins);
     }
 
     @Override
     public List<String> getTimeline(String login, int size, String start, String finish) {
+        if (start == null && finish == null) {
+            return timelineBufferCache.getTimeline(login, size,
+                    limit -> getLineFromTable(TIMELINE_CF, login, limit, null, null));
+        }
         return getLineFromTable(TIMELINE_CF,login,size,start,finish);
     }
 
@@ -103,6 +151,7 @@ public class CassandraTimelineRepository extends AbstractCassandraLineRepository
                 .from(TIMELINE_CF)
                 .where(eq("key",login));
         session.execute(statement);
+        timelineBufferCache.evict(login);
     }
 
     @Override
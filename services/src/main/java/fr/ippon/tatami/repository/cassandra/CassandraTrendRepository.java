@@ -1,13 +1,12 @@
 package fr.ippon.tatami.repository.cassandra;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.core.utils.UUIDs;
 import fr.ippon.tatami.repository.TrendRepository;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.Assert;
 
@@ -42,7 +41,6 @@ public class CassandraTrendRepository implements TrendRepository {
 
 
     @Override
-    @CacheEvict(value = "domain-tags-cache", key = "#domain")
     public void addTag(String domain, String tag) {
         Statement statement = QueryBuilder.insertInto("trends")
                 .value("domain", domain)
@@ -74,22 +72,20 @@ public class CassandraTrendRepository implements TrendRepository {
                 .collect(Collectors.toList());
     }
 
-    @Cacheable(value = "domain-tags-cache", key = "#domain")
-    public Collection<String> getDomainTags(String domain) {
+    @Override
+    public Map<UUID, String> getRecentTagsById(String domain, int maxNumber) {
         Statement statement = QueryBuilder.select()
+                .column("id")
                 .column("tag")
                 .from("trends")
                 .where(eq("domain", domain))
                 .orderBy(desc("id"))
-                .limit(TRENDS_NUMBER_OF_TAGS);
-
-        ResultSet results = session.execute(statement);
-        return results
-                .all()
-                .stream()
-                .map(e -> e.getString("tag"))
-                .collect(Collectors.toList());
+                .limit(maxNumber);
 
+        Map<UUID, String> tags = new LinkedHashMap<>();
+        for (Row row : session.execute(statement)) {
+            tags.put(row.getUUID("id"), row.getString("tag"));
+        }
+        return tags;
     }
-
 }
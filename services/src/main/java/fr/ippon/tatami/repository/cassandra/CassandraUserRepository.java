@@ -5,11 +5,15 @@ import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.mapping.Mapper;
 import com.datastax.driver.mapping.MappingManager;
 import fr.ippon.tatami.domain.User;
+import fr.ippon.tatami.domain.UserCounters;
 import fr.ippon.tatami.domain.validation.ContraintsUserCreation;
 import fr.ippon.tatami.repository.CounterRepository;
 import fr.ippon.tatami.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Repository;
@@ -18,9 +22,7 @@ import org.springframework.util.StringUtils;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.validation.*;
-import java.util.HashSet;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Cassandra implementation of the user repository.
@@ -35,6 +37,12 @@ public class CassandraUserRepository implements UserRepository {
     @Inject
     private Session session;
 
+    @Inject
+    private PreparedStatementRegistry statements;
+
+    @Autowired(required = false)
+    private CacheManager cacheManager;
+
     private Mapper<User> mapper;
 
 
@@ -50,15 +58,14 @@ public class CassandraUserRepository implements UserRepository {
     private PreparedStatement deleteByLoginStmt;
 
 
-
     @PostConstruct
     public void init() {
         mapper = new MappingManager(session).mapper(User.class);
-        findOneByLoginStmt = session.prepare(
+        findOneByLoginStmt = statements.prepare(QueryClass.USER_READ,
                 "SELECT * " +
                         "FROM user " +
                         "WHERE login = :login");
-        deleteByLoginStmt = session.prepare("DELETE FROM user " +
+        deleteByLoginStmt = statements.prepare("DELETE FROM user " +
                 "WHERE login = :login");
     }
 
@@ -71,7 +78,7 @@ public class CassandraUserRepository implements UserRepository {
         if (!constraintViolations.isEmpty()) {
             throw new ConstraintViolationException(new HashSet<>(constraintViolations));
         }
-        BatchStatement batch = new BatchStatement();
+        BatchStatement batch = statements.apply(QueryClass.USER_WRITE, new BatchStatement());
         batch.add(mapper.saveQuery(user));
         session.execute(batch);
     }
@@ -84,7 +91,7 @@ public class CassandraUserRepository implements UserRepository {
         if (!constraintViolations.isEmpty()) {
             throw new ConstraintViolationException(new HashSet<>(constraintViolations));
         }
-        BatchStatement batch = new BatchStatement();
+        BatchStatement batch = statements.apply(QueryClass.USER_WRITE, new BatchStatement());
         batch.add(mapper.saveQuery(user));
         session.execute(batch);
 
@@ -94,7 +101,7 @@ public class CassandraUserRepository implements UserRepository {
     @CacheEvict(value = "user-cache", key = "#user.login")
     public void deleteUser(User user) {
         log.debug("Deleting user : {}", user);
-        BatchStatement batch = new BatchStatement();
+        BatchStatement batch = statements.apply(QueryClass.USER_WRITE, new BatchStatement());
         batch.add(mapper.deleteQuery(user));
         batch.add(deleteByLoginStmt.bind().setString("login", user.getLogin()));
         session.execute(batch);
@@ -109,13 +116,55 @@ public class CassandraUserRepository implements UserRepository {
         Optional<User> optionalUser = findOneFromIndex(stmt);
         if (optionalUser.isPresent()) {
             user = optionalUser.get();
-            user.setStatusCount(counterRepository.getStatusCounter(login));
-            user.setFollowersCount(counterRepository.getFollowersCounter(login));
-            user.setFriendsCount(counterRepository.getFriendsCounter(login));
+            setCounters(user, counterRepository.getCounters(login));
         }
         return user;
     }
 
+    /**
+     * Users are first looked up in the "user-cache". For all the missing ones, the user row and the counter row
+     * are then read concurrently.
+     */
+    @Override
+    public Map<String, User> findUsersByLogins(Collection<String> logins) {
+        Map<String, User> users = new HashMap<>();
+        Cache cache = cacheManager == null ? null : cacheManager.getCache("user-cache");
+        Map<String, ResultSetFuture> userFutures = new LinkedHashMap<>();
+        for (String login : logins) {
+            if (login == null || userFutures.containsKey(login)) {
+                continue;
+            }
+            Cache.ValueWrapper cachedUser = cache == null ? null : cache.get(login);
+            if (cachedUser != null) {
+                if (cachedUser.get() != null) {
+                    users.put(login, (User) cachedUser.get());
+                }
+            } else {
+                userFutures.put(login, session.executeAsync(findOneByLoginStmt.bind().setString("login", login)));
+            }
+        }
+        Map<String, UserCounters> counters = userFutures.isEmpty() ? Collections.emptyMap() :
+                counterRepository.getCounters(userFutures.keySet());
+        for (Map.Entry<String, ResultSetFuture> userFuture : userFutures.entrySet()) {
+            String login = userFuture.getKey();
+            User user = mapper.map(userFuture.getValue().getUninterruptibly()).one();
+            if (user != null) {
+                setCounters(user, counters.get(login));
+                users.put(login, user);
+            }
+            if (cache != null) {
+                cache.put(login, user);
+            }
+        }
+        return users;
+    }
+
+    private void setCounters(User user, UserCounters counters) {
+        user.setStatusCount(counters.getStatusCount());
+        user.setFollowersCount(counters.getFollowersCount());
+        user.setFriendsCount(counters.getFriendsCount());
+    }
+
     @Override
     @CacheEvict(value = "user-cache", key = "#user.login")
     public void desactivateUser( User user ) {
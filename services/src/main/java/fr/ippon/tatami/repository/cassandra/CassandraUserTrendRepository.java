@@ -1,6 +1,7 @@
 package fr.ippon.tatami.repository.cassandra;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
@@ -81,4 +82,21 @@ public class CassandraUserTrendRepository implements UserTrendRepository {
                 .map(e -> e.getString("tag"))
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public Map<UUID, String> getRecentTagsById(String login, int maxNumber) {
+        Statement statement = QueryBuilder.select()
+                .column("id")
+                .column("tag")
+                .from("userTrends")
+                .where(eq("login", login))
+                .orderBy(desc("id"))
+                .limit(maxNumber);
+
+        Map<UUID, String> tags = new LinkedHashMap<>();
+        for (Row row : session.execute(statement)) {
+            tags.put(row.getUUID("id"), row.getString("tag"));
+        }
+        return tags;
+    }
 }
@@ -43,7 +43,9 @@ public class CassandraUserlineRepository extends AbstractCassandraLineRepository
 
     @PostConstruct
     public void init() {
-        deleteByIdStmt = session.prepare("DELETE FROM userline " +
+        prepareLine(USERLINE_CF);
+        prepareLine(USERLINE_SHARES_CF);
+        deleteByIdStmt = statements.prepare("DELETE FROM userline " +
                 "WHERE key = :key " +
                 "AND status = :statusId");
 
@@ -51,15 +53,12 @@ public class CassandraUserlineRepository extends AbstractCassandraLineRepository
 
     @Override
     public void addStatusToUserline(String login, String statusId) {
-        Statement statement = QueryBuilder.insertInto("userline")
-                .value("key", login)
-                .value("status", UUID.fromString(statusId));
-        session.execute(statement);
+        addStatus(login, USERLINE_CF, statusId);
     }
 
     @Override
     public void removeStatusesFromUserline(String login, Collection<String> statusIdsToDelete) {
-        removeStatuses(login,"userline",statusIdsToDelete);
+        removeStatuses(login,USERLINE_CF,statusIdsToDelete);
     }
 
     @Override
@@ -69,7 +68,7 @@ public class CassandraUserlineRepository extends AbstractCassandraLineRepository
 
     @Override
     public List<String> getUserline(String login, int size, String start, String finish) {
-        return getLineFromTable("userline", login, size, start, finish);
+        return getLineFromTable(USERLINE_CF, login, size, start, finish);
     }
 
     @Override
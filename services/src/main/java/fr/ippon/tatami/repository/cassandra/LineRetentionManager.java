@@ -0,0 +1,211 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import fr.ippon.tatami.config.ColumnFamilyKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retention policies of the status lines : timeline, domainline, tagline, mentionline and groupline.
+ * <p/>
+ * Each line type has a time-to-live, applied when a status is written, and a maximum length. As Cassandra cannot
+ * delete a range of columns, lines are trimmed in the background : the keys written to are counted, and those
+ * which received more than "tatami.retention.trim.threshold" statuses since their last trim have their oldest
+ * statuses deleted, so that the width of the hot partitions stays bounded.
+ * <p/>
+ * At most "tatami.retention.trim.maxPendingKeys" keys are counted per line type : when there are more, the least
+ * recently written keys lose their count, so a cold line may only be trimmed after it receives new statuses.
+ * <p/>
+ * Policies are configured with "tatami.retention.&lt;line&gt;.ttl" (in seconds) and
+ * "tatami.retention.&lt;line&gt;.maxLength", 0 meaning no limit.
+ */
+@Component
+public class LineRetentionManager {
+
+    private final Logger log = LoggerFactory.getLogger(LineRetentionManager.class);
+
+    private static final int DELETE_BATCH_SIZE = 100;
+
+    private static final int PAGE_SIZE = 1000;
+
+    private static final Map<String, String> LINES = new LinkedHashMap<>();
+
+    static {
+        LINES.put(ColumnFamilyKeys.TIMELINE_CF, "timeline");
+        LINES.put(ColumnFamilyKeys.DOMAINLINE, "domainline");
+        LINES.put(ColumnFamilyKeys.TAGLINE, "tagline");
+        LINES.put(ColumnFamilyKeys.MENTIONLINE, "mentionline");
+        LINES.put(ColumnFamilyKeys.GROUPLINE, "groupline");
+    }
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private Session session;
+
+    @Inject
+    private PreparedStatementRegistry statements;
+
+    @Inject
+    private TimelineBufferCache timelineBufferCache;
+
+    private final Map<String, Policy> policies = new HashMap<>();
+
+    private final Map<String, ConcurrentMap<String, LongAdder>> pendingKeys = new HashMap<>();
+
+    private int trimThreshold;
+
+    private long maxPendingKeys;
+
+    private final Counter trimmedKeys = Metrics.newCounter(LineRetentionManager.class, "trimmed-keys");
+
+    private final Counter trimmedStatuses = Metrics.newCounter(LineRetentionManager.class, "trimmed-statuses");
+
+    @PostConstruct
+    public void init() {
+        trimThreshold = Math.max(1, env.getProperty("tatami.retention.trim.threshold", Integer.class, 100));
+        maxPendingKeys = Math.max(1, env.getProperty("tatami.retention.trim.maxPendingKeys", Long.class, 100000L));
+        for (Map.Entry<String, String> line : LINES.entrySet()) {
+            String name = line.getValue();
+            int defaultTtl = ColumnFamilyKeys.DOMAINLINE.equals(line.getKey()) ? 60 * 60 * 24 * 30 : 0;
+            Policy policy = new Policy(
+                    env.getProperty("tatami.retention." + name + ".ttl", Integer.class, defaultTtl),
+                    env.getProperty("tatami.retention." + name + ".maxLength", Integer.class, 0));
+            policies.put(line.getKey(), policy);
+            if (policy.maxLength > 0) {
+                pendingKeys.put(line.getKey(), CacheBuilder.newBuilder()
+                        .maximumSize(maxPendingKeys)
+                        .<String, LongAdder>build()
+                        .asMap());
+            }
+            log.debug("Retention of the {} : ttl={}s, maxLength={}", name, policy.ttl, policy.maxLength);
+        }
+    }
+
+    /**
+     * The time-to-live of the statuses of a line, in seconds, or 0 if they do not expire.
+     */
+    public int getTtl(String table) {
+        Policy policy = policies.get(table);
+        return policy == null ? 0 : policy.ttl;
+    }
+
+    /**
+     * Records that statuses were added to a line, so that it is trimmed if needed.
+     */
+    public void statusAdded(String table, String key) {
+        Map<String, LongAdder> keys = pendingKeys.get(table);
+        if (keys != null) {
+            keys.computeIfAbsent(key, k -> new LongAdder()).increment();
+        }
+    }
+
+    public void statusAdded(String table, Collection<String> keys) {
+        if (pendingKeys.containsKey(table)) {
+            keys.forEach(key -> statusAdded(table, key));
+        }
+    }
+
+    /**
+     * Trims the lines which received enough statuses since they were last trimmed.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void trimLines() {
+        for (Map.Entry<String, ConcurrentMap<String, LongAdder>> entry : pendingKeys.entrySet()) {
+            String table = entry.getKey();
+            int maxLength = policies.get(table).maxLength;
+            ConcurrentMap<String, LongAdder> keys = entry.getValue();
+            for (Map.Entry<String, LongAdder> key : keys.entrySet()) {
+                if (key.getValue().sum() >= trimThreshold && keys.remove(key.getKey(), key.getValue())) {
+                    try {
+                        trim(table, key.getKey(), maxLength);
+                    } catch (RuntimeException e) {
+                        log.warn("Could not trim key {} of {} : {}", key.getKey(), table, e.getMessage());
+                        statusAdded(table, key.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the statuses of a line which are older than its newest "maxLength" statuses.
+     * <p/>
+     * The newest statuses are read up to the first one to delete, and only the statuses older than it are then
+     * read, page by page, so that a wide line is never loaded at once.
+     *
+     * @return the number of deleted statuses
+     */
+    int trim(String table, String key, int maxLength) {
+        PreparedStatement selectCutoff = statements.prepare("SELECT status FROM " + table + " WHERE key = ? " +
+                "ORDER BY status DESC LIMIT ?");
+        Row cutoff = null;
+        int position = 0;
+        for (Row row : session.execute(page(selectCutoff.bind(key, maxLength + 1)))) {
+            if (position++ == maxLength) {
+                cutoff = row;
+            }
+        }
+        if (cutoff == null) {
+            return 0;
+        }
+        PreparedStatement selectOlder = statements.prepare("SELECT status FROM " + table + " WHERE key = ? " +
+                "AND status <= ? ORDER BY status DESC");
+        PreparedStatement delete = statements.prepare("DELETE FROM " + table + " WHERE key = ? AND status = ?");
+        int deleted = 0;
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        for (Row row : session.execute(page(selectOlder.bind(key, cutoff.getUUID("status"))))) {
+            batch.add(delete.bind(key, row.getUUID("status")));
+            deleted++;
+            if (batch.size() == DELETE_BATCH_SIZE) {
+                session.execute(batch);
+                batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+            }
+        }
+        if (batch.size() > 0) {
+            session.execute(batch);
+        }
+        if (deleted > 0) {
+            trimmedKeys.inc();
+            trimmedStatuses.inc(deleted);
+            if (ColumnFamilyKeys.TIMELINE_CF.equals(table)) {
+                timelineBufferCache.evict(key);
+            }
+            log.debug("Trimmed {} statuses from key {} of {}", deleted, key, table);
+        }
+        return deleted;
+    }
+
+    private static Statement page(Statement statement) {
+        return statement.setFetchSize(PAGE_SIZE);
+    }
+
+    private static class Policy {
+
+        private final int ttl;
+
+        private final int maxLength;
+
+        Policy(int ttl, int maxLength) {
+            this.ttl = Math.max(0, ttl);
+            this.maxLength = Math.max(0, maxLength);
+        }
+    }
+}
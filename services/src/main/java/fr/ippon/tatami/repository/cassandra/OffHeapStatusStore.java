@@ -0,0 +1,344 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import fr.ippon.tatami.domain.status.AbstractStatus;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Cache of the statuses, stored outside of the Java heap.
+ * <p/>
+ * Statuses are encoded by the StatusCodec and appended to a ring of direct memory pages. When all the pages are
+ * used, the oldest page is recycled and the statuses it contains are evicted, so the cache never uses more than
+ * "tatami.status.cache.size" bytes. Only the index, from the status Id to the position of the encoded status, is
+ * kept on the heap.
+ * <p/>
+ * Evictions are sent to the other nodes of the cluster, so that they do not serve deleted or modified statuses.
+ * <p/>
+ * A status read from Cassandra before it was evicted must not be put back in the cache afterwards : readers take
+ * the current generation before reading a status, and the put is ignored if the status was evicted since then.
+ * The generation of the last eviction is kept for stripes of status Ids rather than for each Id, so an eviction
+ * may also prevent other statuses of its stripe from being cached, until they are read again.
+ * <p/>
+ * The cache is disabled when its size is 0.
+ */
+@Component
+public class OffHeapStatusStore {
+
+    private final Logger log = LoggerFactory.getLogger(OffHeapStatusStore.class);
+
+    /**
+     * A position is stored in a long : 20 bits for the page, 22 bits for the offset and 22 bits for the length.
+     */
+    private static final int MAX_PAGE_SIZE = 1 << 22;
+
+    private static final int MAX_PAGES = 1 << 19;
+
+    private static final String CHANNEL = "status-invalidation";
+
+    private static final int EVICTION_STRIPES = 4096;
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private ClusterTransport clusterTransport;
+
+    private final ConcurrentHashMap<UUID, Long> index = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLongArray evictionGenerations = new AtomicLongArray(EVICTION_STRIPES);
+
+    private ByteBuffer[] pages = new ByteBuffer[0];
+
+    private PageKeys[] pageKeys;
+
+    private int pageSize;
+
+    private int currentPage = 0;
+
+    private volatile int allocatedPages = 0;
+
+    private volatile long usedBytes = 0;
+
+    private ByteBuffer encodingBuffer = ByteBuffer.allocate(1024);
+
+    private final Meter hits = Metrics.newMeter(OffHeapStatusStore.class, "hits", "reads", TimeUnit.SECONDS);
+
+    private final Meter misses = Metrics.newMeter(OffHeapStatusStore.class, "misses", "reads", TimeUnit.SECONDS);
+
+    private final Counter evictions = Metrics.newCounter(OffHeapStatusStore.class, "evictions");
+
+    @PostConstruct
+    public void init() {
+        init(env.getProperty("tatami.status.cache.size", Long.class, 256L * 1024 * 1024),
+                env.getProperty("tatami.status.cache.pageSize", Integer.class, 1024 * 1024));
+        clusterTransport.subscribe(CHANNEL, message -> {
+            ByteBuffer buffer = ByteBuffer.wrap(message);
+            remove(new UUID(buffer.getLong(), buffer.getLong()));
+        });
+
+        Metrics.newGauge(OffHeapStatusStore.class, "entries", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return index.size();
+            }
+        });
+        Metrics.newGauge(OffHeapStatusStore.class, "bytes-used", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return usedBytes;
+            }
+        });
+        Metrics.newGauge(OffHeapStatusStore.class, "bytes-allocated", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return (long) allocatedPages * pageSize;
+            }
+        });
+        Metrics.newGauge(OffHeapStatusStore.class, "hit-ratio", new Gauge<Double>() {
+            @Override
+            public Double value() {
+                long reads = hits.count() + misses.count();
+                return reads == 0 ? 0 : (double) hits.count() / reads;
+            }
+        });
+    }
+
+    void init(long size, int pageSize) {
+        this.pageSize = Math.min(pageSize, MAX_PAGE_SIZE - 1);
+        int pageCount = (int) Math.min(size / this.pageSize, MAX_PAGES);
+        pages = new ByteBuffer[pageCount];
+        pageKeys = new PageKeys[pageCount];
+        if (pageCount == 0) {
+            log.info("Off-heap status cache is disabled");
+        } else {
+            log.info("Off-heap status cache of {} pages of {} bytes", pageCount, this.pageSize);
+        }
+    }
+
+    public boolean isEnabled() {
+        return pages.length > 0;
+    }
+
+    /**
+     * Returns the cached status, which may be null if the status does not exist, or null if it is not cached.
+     */
+    public Cache.ValueWrapper get(UUID statusId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Long position = index.get(statusId);
+            if (position == null) {
+                misses.mark();
+                return null;
+            }
+            ByteBuffer page = pages[page(position)].duplicate();
+            page.limit(offset(position) + length(position));
+            page.position(offset(position));
+            hits.mark();
+            return new SimpleValueWrapper(StatusCodec.decode(statusId, page));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The current generation of the cache, to take before reading a status which will then be put in the cache.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Caches a status, or the fact that it does not exist.
+     */
+    public void put(UUID statusId, AbstractStatus status) {
+        put(statusId, status, generation());
+    }
+
+    /**
+     * Caches a status, or the fact that it does not exist, unless it was evicted after the given generation : it
+     * would then have been read before its eviction, and may be stale.
+     */
+    public void put(UUID statusId, AbstractStatus status, long readGeneration) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (evictionGenerations.get(stripe(statusId)) > readGeneration) {
+                log.trace("Status {} was evicted while it was read, it is not cached", statusId);
+                return;
+            }
+            encodingBuffer = StatusCodec.encode(status, encodingBuffer);
+            int length = encodingBuffer.remaining();
+            if (length > pageSize) {
+                log.debug("Status {} is too large to be cached : {} bytes", statusId, length);
+                index.remove(statusId);
+                return;
+            }
+            ByteBuffer page = writablePage(length);
+            int offset = page.position();
+            page.put(encodingBuffer);
+            pageKeys[currentPage].add(statusId);
+            usedBytes += length;
+            index.put(statusId, position(currentPage, offset, length));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Evicts a status from the cache, on all the nodes.
+     */
+    public void evict(UUID statusId) {
+        remove(statusId);
+        if (isEnabled() && clusterTransport != null) {
+            clusterTransport.publish(CHANNEL, ByteBuffer.allocate(16)
+                    .putLong(statusId.getMostSignificantBits())
+                    .putLong(statusId.getLeastSignificantBits())
+                    .array());
+        }
+    }
+
+    public void clear() {
+        lock.readLock().lock();
+        try {
+            long cleared = generation.incrementAndGet();
+            for (int i = 0; i < EVICTION_STRIPES; i++) {
+                evictionGenerations.set(i, cleared);
+            }
+            index.clear();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Removes a status from the index, recording the generation of its eviction. This is done under the read lock,
+     * so that it cannot happen between the generation check and the index update of a put.
+     */
+    private void remove(UUID statusId) {
+        lock.readLock().lock();
+        try {
+            evictionGenerations.accumulateAndGet(stripe(statusId), generation.incrementAndGet(), Math::max);
+            index.remove(statusId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int stripe(UUID statusId) {
+        return (statusId.hashCode() & Integer.MAX_VALUE) % EVICTION_STRIPES;
+    }
+
+    /**
+     * Returns the page to write to, moving to the next page of the ring if the current one is full.
+     */
+    private ByteBuffer writablePage(int length) {
+        if (pages[currentPage] == null) {
+            allocatePage(currentPage);
+        }
+        if (pages[currentPage].remaining() >= length) {
+            return pages[currentPage];
+        }
+        currentPage = (currentPage + 1) % pages.length;
+        if (pages[currentPage] == null) {
+            allocatePage(currentPage);
+        } else {
+            recyclePage(currentPage);
+        }
+        return pages[currentPage];
+    }
+
+    private void allocatePage(int page) {
+        pages[page] = ByteBuffer.allocateDirect(pageSize);
+        pageKeys[page] = new PageKeys();
+        allocatedPages++;
+    }
+
+    private void recyclePage(int page) {
+        PageKeys keys = pageKeys[page];
+        int evicted = 0;
+        for (int i = 0; i < keys.size; i++) {
+            UUID statusId = new UUID(keys.mostSigBits[i], keys.leastSigBits[i]);
+            Long position = index.get(statusId);
+            if (position != null && page(position) == page && index.remove(statusId, position)) {
+                evicted++;
+            }
+        }
+        evictions.inc(evicted);
+        usedBytes -= pages[page].position();
+        pages[page].clear();
+        keys.size = 0;
+        log.debug("Recycled page {} of the off-heap status cache, {} statuses evicted", page, evicted);
+    }
+
+    private static long position(int page, int offset, int length) {
+        return ((long) page << 44) | ((long) offset << 22) | length;
+    }
+
+    private static int page(long position) {
+        return (int) (position >>> 44);
+    }
+
+    private static int offset(long position) {
+        return (int) ((position >>> 22) & (MAX_PAGE_SIZE - 1));
+    }
+
+    private static int length(long position) {
+        return (int) (position & (MAX_PAGE_SIZE - 1));
+    }
+
+    /**
+     * The Ids of the statuses written to a page, used to evict them when the page is recycled.
+     */
+    private static class PageKeys {
+
+        private long[] mostSigBits = new long[256];
+
+        private long[] leastSigBits = new long[256];
+
+        private int size = 0;
+
+        void add(UUID statusId) {
+            if (size == mostSigBits.length) {
+                mostSigBits = Arrays.copyOf(mostSigBits, size * 2);
+                leastSigBits = Arrays.copyOf(leastSigBits, size * 2);
+            }
+            mostSigBits[size] = statusId.getMostSignificantBits();
+            leastSigBits[size] = statusId.getLeastSignificantBits();
+            size++;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepares the CQL statements of the repositories, once per statement.
+ * <p/>
+ * Repositories prepare their statements at startup, in their @PostConstruct methods, and then only bind them : the
+ * coordinator does not parse the queries again, and as the partition key is a bound value, the driver's
+ * token-aware policy sends each query directly to a replica.
+ * <p/>
+ * Statements can belong to a QueryClass, which sets their consistency level and whether they are idempotent. These
+ * settings are set when the statement is prepared, and the statements are cached by query class and CQL : a query
+ * used by several classes is prepared once per class, so that they do not overwrite each other's settings. The
+ * statements returned by the registry are shared, and must not be modified by the repositories.
+ * <p/>
+ * The number of statements and the time spent preparing them are logged once the application has started.
+ */
+@Component
+public class PreparedStatementRegistry implements ApplicationListener<ContextRefreshedEvent> {
+
+    private final Logger log = LoggerFactory.getLogger(PreparedStatementRegistry.class);
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private Session session;
+
+    private final Map<QueryClass, ConsistencyLevel> consistencyLevels = new EnumMap<>(QueryClass.class);
+
+    private final ConcurrentMap<String, PreparedStatement> statements = new ConcurrentHashMap<>();
+
+    private final AtomicLong preparationTime = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        for (QueryClass queryClass : QueryClass.values()) {
+            String consistencyLevel = env.getProperty(queryClass.getPropertyName());
+            if (consistencyLevel != null && !consistencyLevel.isEmpty()) {
+                consistencyLevels.put(queryClass, ConsistencyLevel.valueOf(consistencyLevel));
+                log.info("Consistency level of the {} queries : {}", queryClass, consistencyLevel);
+            }
+        }
+        Metrics.newGauge(PreparedStatementRegistry.class, "statements", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return statements.size();
+            }
+        });
+    }
+
+    /**
+     * Returns the prepared statement of a query, preparing it on the first call.
+     */
+    public PreparedStatement prepare(String cql) {
+        PreparedStatement statement = statements.get(cql);
+        if (statement == null) {
+            statement = statements.computeIfAbsent(cql, this::doPrepare);
+        }
+        return statement;
+    }
+
+    /**
+     * Returns the prepared statement of a query, with the consistency level and idempotence of its class.
+     */
+    public PreparedStatement prepare(QueryClass queryClass, String cql) {
+        String key = queryClass.name() + ':' + cql;
+        PreparedStatement statement = statements.get(key);
+        if (statement == null) {
+            statement = statements.computeIfAbsent(key, k -> configure(queryClass, doPrepare(cql)));
+        }
+        return statement;
+    }
+
+    /**
+     * Applies the consistency level and idempotence of a query class to a statement which is not prepared, like
+     * a batch.
+     */
+    public <T extends Statement> T apply(QueryClass queryClass, T statement) {
+        ConsistencyLevel consistencyLevel = consistencyLevels.get(queryClass);
+        if (consistencyLevel != null) {
+            statement.setConsistencyLevel(consistencyLevel);
+        }
+        statement.setIdempotent(queryClass.isIdempotent());
+        return statement;
+    }
+
+    private PreparedStatement configure(QueryClass queryClass, PreparedStatement statement) {
+        ConsistencyLevel consistencyLevel = consistencyLevels.get(queryClass);
+        if (consistencyLevel != null) {
+            statement.setConsistencyLevel(consistencyLevel);
+        }
+        statement.setIdempotent(queryClass.isIdempotent());
+        return statement;
+    }
+
+    private PreparedStatement doPrepare(String cql) {
+        long start = System.nanoTime();
+        PreparedStatement statement = session.prepare(cql);
+        long duration = System.nanoTime() - start;
+        preparationTime.addAndGet(duration);
+        log.debug("Prepared \"{}\" in {} µs", cql, duration / 1000);
+        return statement;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Logs the report when the root context is refreshed : the web context's refresh is also published to the
+     * listeners of its parent.
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (event.getApplicationContext().getParent() != null) {
+            return;
+        }
+        log.info("{} Cassandra statements prepared in {} ms", statements.size(), preparationTime.get() / 1000000);
+    }
+}
@@ -0,0 +1,36 @@
+package fr.ippon.tatami.repository.cassandra;
+
+/**
+ * The classes of Cassandra queries, which can each have their own consistency level.
+ * <p/>
+ * The consistency level of a class is configured with "cassandra.consistency.&lt;name&gt;", for example
+ * "cassandra.consistency.lineRead=ONE". Read classes are idempotent, so they can be executed speculatively.
+ */
+public enum QueryClass {
+
+    LINE_READ("lineRead", true),
+    LINE_WRITE("lineWrite", false),
+    STATUS_READ("statusRead", true),
+    STATUS_WRITE("statusWrite", false),
+    USER_READ("userRead", true),
+    USER_WRITE("userWrite", false),
+    BLOB_READ("blobRead", true),
+    BLOB_WRITE("blobWrite", true);
+
+    private final String name;
+
+    private final boolean idempotent;
+
+    QueryClass(String name, boolean idempotent) {
+        this.name = name;
+        this.idempotent = idempotent;
+    }
+
+    public String getPropertyName() {
+        return "cassandra.consistency." + name;
+    }
+
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+}
@@ -0,0 +1,209 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import fr.ippon.tatami.domain.Attachment;
+import fr.ippon.tatami.domain.status.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Compact binary encoding of the statuses, as stored in the OffHeapStatusStore.
+ * <p/>
+ * A status is encoded as its type, followed by its fields in a fixed order : strings are written as their UTF-8
+ * length and bytes, a length of -1 meaning null. A missing status is encoded as a single ABSENT byte, so that
+ * unknown status Ids are cached too.
+ */
+final class StatusCodec {
+
+    private static final byte ABSENT = 0;
+
+    private static final byte NULL_BOOLEAN = -1;
+
+    private StatusCodec() {
+    }
+
+    /**
+     * Encodes a status, which can be null.
+     *
+     * @return the buffer containing the status, ready to be read
+     */
+    static ByteBuffer encode(AbstractStatus status, ByteBuffer buffer) {
+        buffer.clear();
+        if (status == null) {
+            buffer.put(ABSENT);
+            buffer.flip();
+            return buffer;
+        }
+        buffer.put((byte) (status.getType().ordinal() + 1));
+        buffer = putString(buffer, status.getLogin());
+        buffer = putString(buffer, status.getUsername());
+        buffer = putString(buffer, status.getDomain());
+        buffer = putString(buffer, status.getGeoLocalization());
+        buffer = ensureCapacity(buffer, 8);
+        buffer.putLong(status.getStatusDate() == null ? Long.MIN_VALUE : status.getStatusDate().getTime());
+        switch (status.getType()) {
+            case STATUS:
+                Status s = (Status) status;
+                buffer = putString(buffer, s.getContent());
+                buffer = putString(buffer, s.getGroupId());
+                buffer = putString(buffer, s.getDiscussionId());
+                buffer = putString(buffer, s.getReplyTo());
+                buffer = putString(buffer, s.getReplyToUsername());
+                buffer = ensureCapacity(buffer, 3);
+                buffer.put(fromBoolean(s.getStatusPrivate()));
+                buffer.put(fromBoolean(s.getHasAttachments()));
+                buffer.put(fromBoolean(s.isDetailsAvailable()));
+                buffer = putAttachments(buffer, s.getAttachments());
+                break;
+            case SHARE:
+            case ANNOUNCEMENT:
+            case MENTION_SHARE:
+                buffer = putString(buffer, ((Share) status).getOriginalStatusId());
+                break;
+            case MENTION_FRIEND:
+                buffer = putString(buffer, ((MentionFriend) status).getFollowerLogin());
+                break;
+            default:
+                throw new IllegalStateException("Status has an unknown type: " + status.getType());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a status directly from its buffer, without copying the encoded status.
+     *
+     * @param buffer a buffer positioned at the start of the encoded status
+     */
+    static AbstractStatus decode(UUID statusId, ByteBuffer buffer) {
+        byte type = buffer.get();
+        if (type == ABSENT) {
+            return null;
+        }
+        StatusType statusType = StatusType.values()[type - 1];
+        String login = getString(buffer);
+        String username = getString(buffer);
+        String domain = getString(buffer);
+        String geoLocalization = getString(buffer);
+        long date = buffer.getLong();
+        AbstractStatus status;
+        switch (statusType) {
+            case STATUS:
+                Status s = new Status();
+                s.setContent(getString(buffer));
+                s.setGroupId(getString(buffer));
+                s.setDiscussionId(getString(buffer));
+                s.setReplyTo(getString(buffer));
+                s.setReplyToUsername(getString(buffer));
+                s.setStatusPrivate(toBoolean(buffer.get()));
+                s.setHasAttachments(toBoolean(buffer.get()));
+                s.setDetailsAvailable(Boolean.TRUE.equals(toBoolean(buffer.get())));
+                s.setAttachments(getAttachments(buffer));
+                s.setGeoLocalization(geoLocalization);
+                status = s;
+                break;
+            case SHARE:
+            case ANNOUNCEMENT:
+            case MENTION_SHARE:
+                Share share = statusType == StatusType.SHARE ? new Share() :
+                        statusType == StatusType.ANNOUNCEMENT ? new Announcement() : new MentionShare();
+                share.setOriginalStatusId(getString(buffer));
+                share.setGeoLocalization(geoLocalization);
+                share.setType(statusType);
+                status = share;
+                break;
+            default:
+                MentionFriend mentionFriend = new MentionFriend();
+                mentionFriend.setFollowerLogin(getString(buffer));
+                mentionFriend.setGeoLocalization(geoLocalization);
+                mentionFriend.setType(statusType);
+                status = mentionFriend;
+        }
+        if (status instanceof Status) {
+            ((Status) status).setType(statusType);
+        }
+        status.setStatusId(statusId);
+        status.setLogin(login);
+        status.setUsername(username);
+        status.setDomain(domain);
+        status.setStatusDate(date == Long.MIN_VALUE ? null : new Date(date));
+        return status;
+    }
+
+    private static ByteBuffer putAttachments(ByteBuffer buffer, Collection<Attachment> attachments) {
+        buffer = ensureCapacity(buffer, 4);
+        if (attachments == null) {
+            buffer.putInt(-1);
+            return buffer;
+        }
+        buffer.putInt(attachments.size());
+        for (Attachment attachment : attachments) {
+            buffer = putString(buffer, attachment.getAttachmentId());
+            buffer = putString(buffer, attachment.getFilename());
+            buffer = ensureCapacity(buffer, 8);
+            buffer.putLong(attachment.getSize());
+        }
+        return buffer;
+    }
+
+    private static Collection<Attachment> getAttachments(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size < 0) {
+            return null;
+        }
+        Collection<Attachment> attachments = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Attachment attachment = new Attachment();
+            attachment.setAttachmentId(getString(buffer));
+            attachment.setFilename(getString(buffer));
+            attachment.setSize(buffer.getLong());
+            attachments.add(attachment);
+        }
+        return attachments;
+    }
+
+    private static ByteBuffer putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer = ensureCapacity(buffer, 4);
+            buffer.putInt(-1);
+            return buffer;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer = ensureCapacity(buffer, 4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte fromBoolean(Boolean value) {
+        return value == null ? NULL_BOOLEAN : (byte) (value ? 1 : 0);
+    }
+
+    private static Boolean toBoolean(byte value) {
+        return value == NULL_BOOLEAN ? null : value == 1;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int length) {
+        if (buffer.remaining() >= length) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
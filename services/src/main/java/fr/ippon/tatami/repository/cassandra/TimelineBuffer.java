@@ -0,0 +1,139 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The most recent status Ids of a timeline, kept in memory.
+ * <p/>
+ * The Ids are stored as the two longs of their timeuuid in a ring buffer, newest first, so that a buffer only costs
+ * 16 bytes per status.
+ * <p/>
+ * A buffer always contains the newest statuses of the timeline : statuses older than the oldest one of a full buffer
+ * are ignored. It is "complete" when the timeline has less statuses than the buffer capacity, and it can then answer
+ * for any number of statuses.
+ */
+class TimelineBuffer {
+
+    private final long[] mostSigBits;
+
+    private final long[] leastSigBits;
+
+    private int head = -1;
+
+    private int count = 0;
+
+    private boolean loaded = false;
+
+    private boolean complete = false;
+
+    private boolean truncated = false;
+
+    TimelineBuffer(int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+    }
+
+    /**
+     * The memory used by a buffer of this capacity, in bytes.
+     */
+    static long sizeInBytes(int capacity) {
+        return 16L * capacity + 64;
+    }
+
+    int capacity() {
+        return mostSigBits.length;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Loads the newest statuses of the timeline, as read from Cassandra.
+     * <p/>
+     * Statuses added since the read started are kept.
+     *
+     * @param statusIds the status Ids, newest first
+     * @param complete  if those are all the statuses of the timeline
+     */
+    synchronized void load(List<String> statusIds, boolean complete) {
+        for (String statusId : statusIds) {
+            add(UUID.fromString(statusId));
+        }
+        this.complete = complete;
+        this.loaded = true;
+    }
+
+    /**
+     * Adds a status, keeping the buffer sorted.
+     */
+    synchronized void add(UUID statusId) {
+        int position = 0;
+        while (position < count && compare(statusId, position) < 0) {
+            position++;
+        }
+        if (position < count && statusId.getMostSignificantBits() == mostSigBits[index(position)] &&
+                statusId.getLeastSignificantBits() == leastSigBits[index(position)]) {
+            return; // Already in the buffer
+        }
+        int capacity = capacity();
+        if (position == capacity) {
+            truncated = true; // Older than all the statuses of a full buffer
+            return;
+        }
+        if (count == capacity) {
+            truncated = true; // The oldest status is dropped
+        }
+        if (position == 0) {
+            head = (head + 1) % capacity;
+            if (count < capacity) {
+                count++;
+            }
+        } else {
+            int last = Math.min(count, capacity - 1);
+            for (int i = last; i > position; i--) {
+                mostSigBits[index(i)] = mostSigBits[index(i - 1)];
+                leastSigBits[index(i)] = leastSigBits[index(i - 1)];
+            }
+            if (count < capacity) {
+                count++;
+            }
+        }
+        mostSigBits[index(position)] = statusId.getMostSignificantBits();
+        leastSigBits[index(position)] = statusId.getLeastSignificantBits();
+    }
+
+    /**
+     * Returns the newest status Ids, or null if the buffer cannot answer.
+     */
+    synchronized List<String> newest(int size) {
+        if (!loaded || (size > count && (!complete || truncated))) {
+            return null;
+        }
+        int length = Math.min(size, count);
+        List<String> statusIds = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            statusIds.add(new UUID(mostSigBits[index(i)], leastSigBits[index(i)]).toString());
+        }
+        return statusIds;
+    }
+
+    private int index(int position) {
+        int capacity = capacity();
+        return ((head - position) % capacity + capacity) % capacity;
+    }
+
+    /**
+     * Compares a status to the one at a given position, with the timeuuid ordering : by time, then by value.
+     */
+    private int compare(UUID statusId, int position) {
+        UUID other = new UUID(mostSigBits[index(position)], leastSigBits[index(position)]);
+        int result = Long.compare(statusId.timestamp(), other.timestamp());
+        if (result == 0) {
+            result = statusId.compareTo(other);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,206 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * In-memory cache of the most recent statuses of the timelines.
+ * <p/>
+ * Buffers are created when a timeline is read, and are then kept up to date by the writes to the timelines, so the
+ * first page of an active user's timeline is served without reading Cassandra.
+ * <p/>
+ * The writes and evictions are published on the "timeline-buffer" channel, so the buffers of the other nodes are
+ * updated too. As the cluster messages are best-effort, buffers are also reloaded after "tatami.timeline.cache.ttl"
+ * seconds : a lost message leaves a buffer stale for that long at most.
+ */
+@Component
+public class TimelineBufferCache {
+
+    private final Logger log = LoggerFactory.getLogger(TimelineBufferCache.class);
+
+    private static final String CHANNEL = "timeline-buffer";
+
+    /**
+     * Logins per cluster message, so that a message fits in a datagram.
+     */
+    private static final int LOGINS_PER_MESSAGE = 256;
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private ClusterTransport clusterTransport;
+
+    private final UUID nodeId = UUID.randomUUID();
+
+    private boolean enabled;
+
+    private Cache<String, TimelineBuffer> buffers;
+
+    private int capacity;
+
+    private final Meter hits = Metrics.newMeter(TimelineBufferCache.class, "hits", "reads", TimeUnit.SECONDS);
+
+    private final Meter misses = Metrics.newMeter(TimelineBufferCache.class, "misses", "reads", TimeUnit.SECONDS);
+
+    @PostConstruct
+    public void init() {
+        capacity = Math.max(1, env.getProperty("tatami.timeline.cache.size", Integer.class, 100));
+        long maxUsers = env.getProperty("tatami.timeline.cache.users", Long.class, 10000L);
+        long ttl = env.getProperty("tatami.timeline.cache.ttl", Long.class, 30L);
+        enabled = maxUsers > 0;
+        buffers = CacheBuilder.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+
+        Metrics.newGauge(TimelineBufferCache.class, "users", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return buffers.size();
+            }
+        });
+        Metrics.newGauge(TimelineBufferCache.class, "memory-bytes", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return buffers.size() * TimelineBuffer.sizeInBytes(capacity);
+            }
+        });
+        Metrics.newGauge(TimelineBufferCache.class, "hit-ratio", new Gauge<Double>() {
+            @Override
+            public Double value() {
+                long reads = hits.count() + misses.count();
+                return reads == 0 ? 0 : (double) hits.count() / reads;
+            }
+        });
+        if (enabled) {
+            clusterTransport.subscribe(CHANNEL, this::onRemoteUpdate);
+        }
+        log.debug("Caching the {} most recent statuses of up to {} timelines", capacity, maxUsers);
+    }
+
+    /**
+     * Returns the most recent statuses of a timeline.
+     *
+     * @param loader reads the given number of statuses from Cassandra, newest first
+     */
+    public List<String> getTimeline(String login, int size, Function<Integer, List<String>> loader) {
+        if (size <= 0 || size > capacity) {
+            return loader.apply(size);
+        }
+        TimelineBuffer buffer = buffers.getIfPresent(login);
+        List<String> statusIds = buffer == null ? null : buffer.newest(size);
+        if (statusIds != null) {
+            hits.mark();
+            return statusIds;
+        }
+        misses.mark();
+        // Register the buffer before reading, so statuses added during the read are not lost
+        TimelineBuffer newBuffer = new TimelineBuffer(capacity);
+        buffers.put(login, newBuffer);
+        List<String> line = loader.apply(capacity);
+        newBuffer.load(line, line.size() < capacity);
+        return line.size() > size ? new ArrayList<>(line.subList(0, size)) : line;
+    }
+
+    /**
+     * Adds a status to a timeline, if it is in the cache, on all the nodes.
+     */
+    public void addStatus(String login, String statusId) {
+        addStatus(Collections.singletonList(login), statusId);
+    }
+
+    public void addStatus(Collection<String> logins, String statusId) {
+        addLocally(logins, UUID.fromString(statusId));
+        publish(statusId, logins);
+    }
+
+    /**
+     * Removes a timeline from the cache, on all the nodes : it will be reloaded on the next read.
+     */
+    public void evict(String login) {
+        evict(Collections.singletonList(login));
+    }
+
+    public void evict(Collection<String> logins) {
+        buffers.invalidateAll(logins);
+        publish(null, logins);
+    }
+
+    private void addLocally(Collection<String> logins, UUID statusId) {
+        for (String login : logins) {
+            TimelineBuffer buffer = buffers.getIfPresent(login);
+            if (buffer != null) {
+                buffer.add(statusId);
+            }
+        }
+    }
+
+    /**
+     * Publishes the addition of a status to timelines, or the eviction of timelines if the status is null.
+     */
+    private void publish(String statusId, Collection<String> logins) {
+        if (!enabled || logins.isEmpty()) {
+            return;
+        }
+        List<String> remaining = new ArrayList<>(logins);
+        for (int from = 0; from < remaining.size(); from += LOGINS_PER_MESSAGE) {
+            List<String> batch = remaining.subList(from, Math.min(from + LOGINS_PER_MESSAGE, remaining.size()));
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeLong(nodeId.getMostSignificantBits());
+                out.writeLong(nodeId.getLeastSignificantBits());
+                out.writeUTF(statusId == null ? "" : statusId);
+                out.writeInt(batch.size());
+                for (String login : batch) {
+                    out.writeUTF(login);
+                }
+                clusterTransport.publish(CHANNEL, bytes.toByteArray());
+            } catch (IOException e) {
+                log.warn("Could not publish the update of {} timelines : {}", batch.size(), e.getMessage());
+            }
+        }
+    }
+
+    private void onRemoteUpdate(byte[] message) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            if (nodeId.equals(new UUID(in.readLong(), in.readLong()))) {
+                return;
+            }
+            String statusId = in.readUTF();
+            int count = in.readInt();
+            List<String> logins = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                logins.add(in.readUTF());
+            }
+            if (statusId.isEmpty()) {
+                buffers.invalidateAll(logins);
+            } else {
+                addLocally(logins, UUID.fromString(statusId));
+            }
+        } catch (IOException e) {
+            log.warn("Could not read a timeline update : {}", e.getMessage());
+        }
+    }
+}
@@ -2,12 +2,15 @@ package fr.ippon.tatami.security;
 
 import fr.ippon.tatami.domain.User;
 import fr.ippon.tatami.repository.UserRepository;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
+import java.util.Collections;
 
 /**
  * This service is user to find the current user.
@@ -34,4 +37,21 @@ public class AuthenticationService {
         SecurityContext securityContext = SecurityContextHolder.getContext();
         return (securityContext.getAuthentication() != null);
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs a task on behalf of a user, for the background jobs which build statuses as this user sees them.
+     */
+    public void runAs(String login, Runnable task) {
+        SecurityContext previousContext = SecurityContextHolder.getContext();
+        UserDetails principal = new org.springframework.security.core.userdetails.User(login, "",
+                Collections.<GrantedAuthority>emptyList());
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+        SecurityContextHolder.setContext(context);
+        try {
+            task.run();
+        } finally {
+            SecurityContextHolder.setContext(previousContext);
+        }
+    }
+}
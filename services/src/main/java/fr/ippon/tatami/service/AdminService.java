@@ -4,12 +4,9 @@ import fr.ippon.tatami.config.CassandraConfiguration;
 import fr.ippon.tatami.domain.Domain;
 import fr.ippon.tatami.domain.Group;
 import fr.ippon.tatami.domain.User;
-import fr.ippon.tatami.domain.status.AbstractStatus;
-import fr.ippon.tatami.domain.status.Status;
-import fr.ippon.tatami.domain.status.StatusType;
 import fr.ippon.tatami.repository.DomainRepository;
-import fr.ippon.tatami.repository.StatusRepository;
 import fr.ippon.tatami.repository.UserRepository;
+import fr.ippon.tatami.service.dto.ReindexProgressDTO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.env.Environment;
@@ -19,8 +16,6 @@ import org.springframework.stereotype.Service;
 import javax.inject.Inject;
 import java.util.*;
 
-import static fr.ippon.tatami.config.ColumnFamilyKeys.STATUS_CF;
-
 /**
  * Administration service. Only users with the "admin" role should access it.
  *
@@ -32,6 +27,8 @@ public class AdminService {
 
     private static final Logger log = LoggerFactory.getLogger(AdminService.class);
 
+    private static final int USER_PAGE_SIZE = 500;
+
     @Inject
     private DomainRepository domainRepository;
 
@@ -42,7 +39,7 @@ public class AdminService {
     private UserRepository userRepository;
 
     @Inject
-    private StatusRepository statusRepository;
+    private StatusReindexService statusReindexService;
 
     @Inject
     private GroupService groupService;
@@ -101,11 +98,16 @@ public class AdminService {
     /**
      * Rebuilds the Search Engine Index.
      * <p>
-     * This could be a huge batch process : it does not use a Repository for performance reasons.
+     * Users and groups are indexed synchronously. This could be a huge batch process for the statuses : they are
+     * re-indexed in the background by the StatusReindexService, which resumes after a restart.
      * </p>
      */
     public void rebuildIndex() {
         log.info("Search engine Index rebuild triggered.");
+        if (statusReindexService.isRunning()) {
+            log.error("The statuses are still being re-indexed. Full rebuild of the index cancelled.");
+            return;
+        }
         log.debug("Deleting Index");
         if (searchService.reset()) {
             log.info("Search engine Index deleted.");
@@ -123,64 +125,51 @@ public class AdminService {
         int groupCount = 0;
         for (Domain domain : domains) {
             log.debug("Indexing domain: " + domain.getName());
-            List<String> logins = domainRepository.getLoginsInDomain(domain.getName());
-            Collection<User> users = new ArrayList<User>();
-            for (String login : logins) {
-                User user = userRepository.findUserByLogin(login);
-                if (user == null) {
-                    log.warn("User defined in domain was not found in the user respository: " + login);
-                } else {
-                    log.debug("Indexing user: {}", login);
-                    users.add(user);
-                    Collection<Group> groups = groupService.getGroupsWhereUserIsAdmin(user);
-                    for (Group group : groups) {
-                        searchService.addGroup(group);
-                        groupCount++;
+            int userCount = 0;
+            String afterLogin = null;
+            List<String> logins;
+            do {
+                // the users are read and indexed one page at a time
+                logins = domainRepository.getLoginsInDomain(domain.getName(), afterLogin, USER_PAGE_SIZE);
+                Map<String, User> usersByLogin = userRepository.findUsersByLogins(logins);
+                Collection<User> users = new ArrayList<User>();
+                for (String login : logins) {
+                    User user = usersByLogin.get(login);
+                    if (user == null) {
+                        log.warn("User defined in domain was not found in the user respository: " + login);
+                    } else {
+                        log.debug("Indexing user: {}", login);
+                        users.add(user);
+                        Collection<Group> groups = groupService.getGroupsWhereUserIsAdmin(user);
+                        for (Group group : groups) {
+                            searchService.addGroup(group);
+                            groupCount++;
+                        }
                     }
                 }
-            }
-            searchService.addUsers(users);
-            log.info("The search engine indexed " + logins.size() + " users.");
+                if (!users.isEmpty()) {
+                    searchService.addUsers(users);
+                }
+                userCount += users.size();
+                if (!logins.isEmpty()) {
+                    afterLogin = logins.get(logins.size() - 1);
+                }
+            } while (logins.size() == USER_PAGE_SIZE);
+            log.info("The search engine indexed " + userCount + " users.");
         }
         log.info("The search engine indexed " + groupCount + " groups.");
 
         //Rebuild the status Index
-        log.info("Rebuilding the status Index");
-        String startKey = null;
-        boolean moreStatus = true;
-//        while (moreStatus) {
-//            long startTime = Calendar.getInstance().getTimeInMillis();
-//            RangeSlicesQuery<String, String, String> query = createRangeSlicesQuery(keyspaceOperator,
-//                    StringSerializer.get(), StringSerializer.get(), StringSerializer.get())
-//                    .setColumnFamily(STATUS_CF)
-//                    .setRange("statusId", "statusId", false, 1)
-//                    .setKeys(startKey, null)
-//                    .setRowCount(1001);
-//
-//            QueryResult<OrderedRows<String, String, String>> result = query.execute();
-//            List<Row<String, String, String>> rows = result.get().getList();
-//            if (rows.size() == 1001) { // Calculate the pagination
-//                startKey = rows.get(1000).getKey();
-//                rows = rows.subList(0, 1000);
-//            } else {
-//                moreStatus = false;
-//            }
-//            Collection<Status> statuses = new ArrayList<Status>();
-//            for (Row<String, String, String> row : rows) {
-//                AbstractStatus abstractStatus = statusRepository.findStatusById(row.getKey()); // This makes 2 calls to the same row
-//                if (abstractStatus != null && // if a status has been removed, it is returned as null
-//                        abstractStatus.getType().equals(StatusType.STATUS)) { // Only index standard statuses
-//
-//                    Status status = (Status) abstractStatus;
-//                    if (status.getStatusPrivate() == null || !status.getStatusPrivate()) {
-//                        statuses.add(status);
-//                    }
-//                }
-//            }
-//            searchService.addStatuses(statuses); // This should be batched for optimum performance
-//            log.info("The search engine indexed " + statuses.size() + " statuses in " + (Calendar.getInstance().getTimeInMillis() - startTime) + " ms.");
-//        }
-        log.info("Search engine index rebuilt in " + (Calendar.getInstance().getTimeInMillis() - fullIndexStartTime) + " ms.");
+        log.info("Rebuilding the status Index in the background");
+        statusReindexService.reindexAll();
+        log.info("Search engine user & group indexes rebuilt in " + (Calendar.getInstance().getTimeInMillis() - fullIndexStartTime) + " ms.");
+    }
+
+    /**
+     * Returns the progress of the status re-indexing, started by rebuildIndex().
+     */
+    public ReindexProgressDTO getReindexProgress() {
+        return statusReindexService.getProgress();
     }
 
 }
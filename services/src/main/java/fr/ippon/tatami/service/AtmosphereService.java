@@ -1,6 +1,12 @@
 package fr.ippon.tatami.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
 import fr.ippon.tatami.domain.status.AbstractStatus;
+import fr.ippon.tatami.security.AuthenticationService;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
 import fr.ippon.tatami.service.dto.StatusDTO;
 import fr.ippon.tatami.web.atmosphere.TatamiNotification;
 import org.atmosphere.cpr.Broadcaster;
@@ -9,38 +15,201 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Notifies the users with Atmosphere.
+ * <p/>
+ * The status is built and serialized once, and the same notification is then broadcast to all the recipients which
+ * are connected to this node : no work is done for the recipients which are offline, according to the
+ * {@link PresenceService}.
+ * <p/>
+ * The Id of the status and its recipients are also published to the other nodes of the cluster, which notify their
+ * own connected users : the status is built there on behalf of the user who posted it.
+ */
 @Service
 public class AtmosphereService {
 
     private static final Logger log = LoggerFactory.getLogger(AtmosphereService.class);
 
+    private static final String BROADCASTER_PREFIX = "/realtime/statuses/home_timeline/";
+
+    private static final String CHANNEL = "realtime";
+
+    /**
+     * Recipients are split in several messages, to stay well below the size of a datagram.
+     */
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024;
+
+    private static final ObjectMapper jsonObjectMapper = new ObjectMapper();
+
     @Inject
     private TimelineService timelineService;
 
+    @Inject
+    private PresenceService presenceService;
+
+    @Inject
+    private ClusterTransport clusterTransport;
+
+    @Inject
+    private AuthenticationService authenticationService;
+
+    private final UUID nodeId = UUID.randomUUID();
+
+    private final Meter published = Metrics.newMeter(AtmosphereService.class, "published", "messages", TimeUnit.SECONDS);
+
+    private final Meter received = Metrics.newMeter(AtmosphereService.class, "received", "messages", TimeUnit.SECONDS);
+
+    @PostConstruct
+    public void init() {
+        clusterTransport.subscribe(CHANNEL, this::onRemoteNotification);
+    }
+
     /**
      * Notifies the user with Atmosphere.
      */
     public void notifyUser(String login, AbstractStatus abstractStatus) {
-        log.debug("Notifying user: {}", login);
-        StatusDTO statusDTO = timelineService.getStatus(abstractStatus.getStatusId().toString());
-        TatamiNotification notification = new TatamiNotification();
-        notification.setLogin(login);
-        notification.setStatusDTO(statusDTO);
-        try {
-            Broadcaster broadcaster =
-                    BroadcasterFactory
-                            .getDefault()
-                            .lookup("/realtime/statuses/home_timeline/" + login, true);
+        notifyUsers(Collections.singleton(login), abstractStatus);
+    }
+
+    /**
+     * Notifies the users with Atmosphere, on all the nodes.
+     */
+    public void notifyUsers(Collection<String> logins, AbstractStatus abstractStatus) {
+        String statusId = abstractStatus.getStatusId().toString();
+        deliver(logins, statusId);
+        String sender = authenticationService.hasAuthenticatedUser() ?
+                authenticationService.getCurrentUser().getLogin() : null;
+        if (sender != null) {
+            publish(sender, logins, statusId);
+        }
+    }
 
+    /**
+     * Notifies the users connected to this node.
+     */
+    private void deliver(Collection<String> logins, String statusId) {
+        List<Broadcaster> broadcasters = new ArrayList<>();
+        for (String login : presenceService.filterOnline(logins)) {
+            Broadcaster broadcaster = broadcaster(login);
             if (broadcaster != null) {
+                broadcasters.add(broadcaster);
+            }
+        }
+        log.debug("Notifying {} connected users of {}", broadcasters.size(), logins.size());
+        if (broadcasters.isEmpty()) {
+            return;
+        }
+        TatamiNotification notification = buildNotification(statusId);
+        if (notification == null) {
+            return;
+        }
+        for (Broadcaster broadcaster : broadcasters) {
+            try {
                 broadcaster.broadcast(notification);
-            } else {
-                log.info("Notification error, the broadcaster is null");
+            } catch (Exception e) {
+                log.warn("Notification error: " + e.getMessage());
             }
+        }
+    }
+
+    /**
+     * The broadcaster of a user, or null if the user is not connected.
+     */
+    private Broadcaster broadcaster(String login) {
+        try {
+            return BroadcasterFactory.getDefault().lookup(BROADCASTER_PREFIX + login, false);
         } catch (Exception e) {
             log.warn("Notification error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private TatamiNotification buildNotification(String statusId) {
+        StatusDTO statusDTO = timelineService.getStatus(statusId);
+        if (statusDTO == null) {
+            return null;
+        }
+        TatamiNotification notification = new TatamiNotification();
+        notification.setStatusDTO(statusDTO);
+        try {
+            notification.setJson(jsonObjectMapper.writeValueAsString(notification));
+        } catch (JsonProcessingException e) {
+            log.warn("Notification error: " + e.getMessage());
+            return null;
+        }
+        return notification;
+    }
+
+    private void publish(String sender, Collection<String> logins, String statusId) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            List<String> recipients = new ArrayList<>();
+            int size = 0;
+            for (String login : logins) {
+                recipients.add(login);
+                size += login.length() + 2;
+                if (size >= MAX_MESSAGE_SIZE) {
+                    publish(bytes, sender, recipients, statusId);
+                    recipients.clear();
+                    size = 0;
+                }
+            }
+            if (!recipients.isEmpty()) {
+                publish(bytes, sender, recipients, statusId);
+            }
+        } catch (IOException e) {
+            log.warn("Could not publish the notification of status {} : {}", statusId, e.getMessage());
+        }
+    }
+
+    private void publish(ByteArrayOutputStream bytes, String sender, List<String> recipients, String statusId)
+            throws IOException {
+
+        bytes.reset();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(nodeId.getMostSignificantBits());
+        out.writeLong(nodeId.getLeastSignificantBits());
+        out.writeUTF(statusId);
+        out.writeUTF(sender);
+        out.writeInt(recipients.size());
+        for (String recipient : recipients) {
+            out.writeUTF(recipient);
+        }
+        out.flush();
+        clusterTransport.publish(CHANNEL, bytes.toByteArray());
+        published.mark();
+    }
+
+    private void onRemoteNotification(byte[] message) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            if (nodeId.equals(new UUID(in.readLong(), in.readLong()))) {
+                return;
+            }
+            received.mark();
+            String statusId = in.readUTF();
+            String sender = in.readUTF();
+            int count = in.readInt();
+            List<String> recipients = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                recipients.add(in.readUTF());
+            }
+            if (presenceService.filterOnline(recipients).isEmpty()) {
+                return;
+            }
+            authenticationService.runAs(sender, () -> deliver(recipients, statusId));
+        } catch (IOException e) {
+            log.warn("Could not read a notification : {}", e.getMessage());
         }
     }
 }
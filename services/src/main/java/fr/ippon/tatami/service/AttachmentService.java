@@ -1,13 +1,11 @@
 package fr.ippon.tatami.service;
 
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 
-import javax.imageio.ImageIO;
 import javax.inject.Inject;
 
 import org.slf4j.Logger;
@@ -20,9 +18,11 @@ import fr.ippon.tatami.domain.DomainConfiguration;
 import fr.ippon.tatami.domain.User;
 import fr.ippon.tatami.repository.AttachmentRepository;
 import fr.ippon.tatami.repository.DomainConfigurationRepository;
+import fr.ippon.tatami.repository.ImageVariantRepository;
 import fr.ippon.tatami.repository.UserAttachmentRepository;
 import fr.ippon.tatami.repository.UserRepository;
 import fr.ippon.tatami.security.AuthenticationService;
+import fr.ippon.tatami.service.blob.DiskBlobCache;
 import fr.ippon.tatami.service.exception.StorageSizeException;
 
 
@@ -31,6 +31,12 @@ public class AttachmentService {
 
     private static final Logger log = LoggerFactory.getLogger(AttachmentService.class);
 
+    static final String ATTACHMENT_BLOB = "attachment-";
+
+    static final String THUMBNAIL_BLOB = "thumbnail-";
+
+    static final String PREVIEW_BLOB = "preview-";
+
     @Inject
     private AttachmentRepository attachmentRepository;
 
@@ -46,17 +52,35 @@ public class AttachmentService {
     @Inject
     private AuthenticationService authenticationService;
     
+    @Inject
+    private DiskBlobCache blobCache;
+
+    @Inject
+    private ImageVariantRepository imageVariantRepository;
+
+    @Inject
+    private ImagePipeline imagePipeline;
+
     @Inject
     private Environment env;
 
-    public String createAttachment(Attachment attachment) throws StorageSizeException {
+    /**
+     * Creates an attachment from an uploaded stream, which is stored as it is read.
+     * <p/>
+     * The storage quota of the domain is checked while the content is read : the upload is aborted as soon as it
+     * exceeds the storage left to the user.
+     */
+    public String createAttachment(Attachment attachment, InputStream content)
+            throws StorageSizeException, IOException {
 
         User currentUser = authenticationService.getCurrentUser();
         DomainConfiguration domainConfiguration =
                 domainConfigurationRepository.findDomainConfigurationByDomain(currentUser.getDomain());
 
-        long newAttachmentsSize = currentUser.getAttachmentsSize() + attachment.getSize();
-        if (newAttachmentsSize > domainConfiguration.getStorageSizeAsLong()) {
+        long availableSize = domainConfiguration.getStorageSizeAsLong() - currentUser.getAttachmentsSize();
+        // The thumbnail is created in the background
+        attachment.setHasThumbnail(false);
+        if (availableSize < 0 || !attachmentRepository.createAttachment(attachment, content, availableSize)) {
             log.info("User " + currentUser.getLogin() +
                     " has tried to exceed his storage capacity. current storage=" +
                     currentUser.getAttachmentsSize() +
@@ -65,10 +89,6 @@ public class AttachmentService {
 
             throw new StorageSizeException("User storage exceeded for user " + currentUser.getLogin());
         }
-        
-        attachment.setThumbnail(computeThumbnail(attachment));
-        
-        attachmentRepository.createAttachment(attachment);
         userAttachmentRepository.addAttachmentId(authenticationService.getCurrentUser().getLogin(),
                 attachment.getAttachmentId());
 
@@ -76,19 +96,74 @@ public class AttachmentService {
         currentUser = authenticationService.getCurrentUser();
         currentUser.setAttachmentsSize(currentUser.getAttachmentsSize() + attachment.getSize());
         userRepository.updateUser(currentUser);
+        if (isImage(attachment)) {
+            imagePipeline.submitAttachment(attachment.getAttachmentId());
+        }
         return attachment.getAttachmentId();
     }
 
+    /**
+     * Returns the metadata of an attachment, without its content.
+     */
     public Attachment getAttachmentById(String attachmentId) {
-        Attachment attachment =  attachmentRepository.findAttachmentById(attachmentId);
-        //Computing the thumbnail if it does not exists
-        if(! attachment.getHasThumbnail()) {
-        	attachment.setThumbnail(computeThumbnail(attachment));
-        	attachmentRepository.updateThumbnail(attachment);
+        Attachment attachment =  attachmentRepository.findAttachmentMetadataById(attachmentId);
+        //Computing the thumbnail in the background if it does not exists
+        if(attachment != null && ! attachment.getHasThumbnail() && isImage(attachment)) {
+            imagePipeline.submitAttachment(attachmentId);
         }
         return attachment;
     }
 
+    /**
+     * Writes the thumbnail of an attachment to a stream, from the blob cache of this node if possible.
+     *
+     * @return false if the attachment has no thumbnail
+     */
+    public boolean writeThumbnail(String attachmentId, OutputStream out) throws IOException {
+        String key = THUMBNAIL_BLOB + attachmentId;
+        if (blobCache.write(key, 0, Long.MAX_VALUE, out)) {
+            return true;
+        }
+        byte[] thumbnail = attachmentRepository.findThumbnail(attachmentId);
+        if (thumbnail == null || thumbnail.length == 0) {
+            return false;
+        }
+        blobCache.store(key, thumbnail);
+        out.write(thumbnail);
+        return true;
+    }
+
+    /**
+     * Writes the preview of an image attachment to a stream, from the blob cache of this node if possible.
+     *
+     * @return false if the attachment has no preview
+     */
+    public boolean writePreview(String attachmentId, OutputStream out) throws IOException {
+        String key = PREVIEW_BLOB + attachmentId;
+        if (blobCache.write(key, 0, Long.MAX_VALUE, out)) {
+            return true;
+        }
+        byte[] preview = imageVariantRepository.findVariant(attachmentId,
+                ImagePipeline.ImageVariant.PREVIEW.getName());
+        if (preview == null) {
+            return false;
+        }
+        blobCache.store(key, preview);
+        out.write(preview);
+        return true;
+    }
+
+    /**
+     * Writes a range of the content of an attachment to a stream, from the blob cache of this node if possible, or
+     * one chunk at a time from Cassandra.
+     * <p/>
+     * The attachments with the same content share a single entry of the blob cache.
+     */
+    public void writeContent(Attachment attachment, long offset, long length, OutputStream out) throws IOException {
+        blobCache.write(contentBlob(attachment), attachment.getSize(), offset, length,
+                (from, count, target) -> attachmentRepository.readContent(attachment, from, count, target), out);
+    }
+
     public Collection<String> getAttachmentIdsForCurrentUser(int pagination, String finish) {
         Collection<String> attachmentIds =
                 userAttachmentRepository.
@@ -106,7 +181,12 @@ public class AttachmentService {
         for (String attachmentIdTest : userAttachmentRepository.findAttachmentIds(currentUser.getLogin())) {
             if (attachmentIdTest.equals(attachment.getAttachmentId())) {
                 userAttachmentRepository.removeAttachmentId(currentUser.getLogin(), attachment.getAttachmentId());
-                attachmentRepository.deleteAttachment(attachment);
+                if (attachmentRepository.deleteAttachment(attachment)) {
+                    blobCache.evict(contentBlob(attachment));
+                }
+                blobCache.evict(THUMBNAIL_BLOB + attachment.getAttachmentId());
+                imageVariantRepository.deleteVariants(attachment.getAttachmentId());
+                blobCache.evict(PREVIEW_BLOB + attachment.getAttachmentId());
                 // Refresh user data, to reduce the risk of errors
                 currentUser = authenticationService.getCurrentUser();
                 long newAttachmentsSize = currentUser.getAttachmentsSize() - attachment.getSize();
@@ -135,31 +215,22 @@ public class AttachmentService {
         return taux;
     }
     
-    private byte[] computeThumbnail(Attachment attachment) {
-    	byte[] result = new byte[0];
-    	
-    	String[] imagesExtensions = env.getProperty("tatami.attachment.thumbnail.extensions").split(",");
-    	for(String ext : imagesExtensions) {
-    		if(attachment.getFilename().endsWith(ext)) {
-    			attachment.setHasThumbnail(true);
-    			break;
-    		}
-    	}
-    	if(attachment.getHasThumbnail()) {
-    		try {
-    			BufferedImage thumbnail = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
-				thumbnail.createGraphics()
-						.drawImage(ImageIO
-								.read(new ByteArrayInputStream(attachment.getContent()))
-    							.getScaledInstance(100, 100, BufferedImage.SCALE_SMOOTH), 0, 0, null);
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				ImageIO.write(thumbnail, "png", baos);
-				baos.flush();
-				result = baos.toByteArray();
-    		} catch(IOException e) {
-    			log.error("Error creating thumbnail for attachment "+attachment.getAttachmentId());
-    		}
-    	}
-    	return result;
+    /**
+     * The key of the attachment content in the blob cache : the content of the attachments created before the
+     * contents were shared is not shared either.
+     */
+    private static String contentBlob(Attachment attachment) {
+        return ATTACHMENT_BLOB + (attachment.getBodyId() != null ? attachment.getBodyId() :
+                attachment.getAttachmentId());
+    }
+
+    private boolean isImage(Attachment attachment) {
+        String[] imagesExtensions = env.getProperty("tatami.attachment.thumbnail.extensions").split(",");
+        for(String ext : imagesExtensions) {
+            if(attachment.getFilename().endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -1,28 +1,22 @@
 package fr.ippon.tatami.service;
 
-import fr.ippon.tatami.config.Constants;
 import fr.ippon.tatami.domain.Avatar;
 import fr.ippon.tatami.domain.User;
 import fr.ippon.tatami.repository.AvatarRepository;
 import fr.ippon.tatami.repository.DomainConfigurationRepository;
 import fr.ippon.tatami.repository.UserRepository;
 import fr.ippon.tatami.security.AuthenticationService;
+import fr.ippon.tatami.service.blob.DiskBlobCache;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
 import javax.inject.Inject;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
-import java.nio.ByteBuffer;
 import java.util.Date;
 
 @Service
@@ -30,6 +24,8 @@ public class AvatarService {
 
     private static final Logger log = LoggerFactory.getLogger(AvatarService.class);
 
+    static final String AVATAR_BLOB = "avatar-";
+
     @Inject
     private AvatarRepository avatarRepository;
 
@@ -42,6 +38,12 @@ public class AvatarService {
     @Inject
     private AuthenticationService authenticationService;
 
+    @Inject
+    private DiskBlobCache blobCache;
+
+    @Inject
+    private ImagePipeline imagePipeline;
+
     public String createAvatar(Avatar avatar) {
 
         User currentUser = authenticationService.getCurrentUser();
@@ -50,14 +52,18 @@ public class AvatarService {
             deleteAvatar(currentUser.getAvatar());
         }
 
-        try {
-            avatar.setContent(scaleImage(avatar.getContent()));
-        } catch (IOException e) {
-            log.info("Avatar could not be resized : " + e.getMessage());
+        if (!imagePipeline.isImage(avatar.getContent())) {
+            log.info("Avatar could not be resized : " + avatar.getFilename() + " is not an image");
+            currentUser.setAvatar("");
+            userRepository.updateUser(currentUser);
             return null;
         }
 
         avatarRepository.createAvatar(avatar);
+        currentUser.setAvatar(avatar.getAvatarId());
+        userRepository.updateUser(currentUser);
+        // The avatar is resized in the background, and the user is then pointed at the resized avatar
+        imagePipeline.submitAvatar(avatar.getAvatarId(), currentUser.getLogin());
 
         log.debug("Avatar created : {}", avatar);
 
@@ -69,31 +75,33 @@ public class AvatarService {
         return avatarRepository.findAvatarById(avatartId);
     }
 
+    /**
+     * Writes an avatar to a stream, from the blob cache of this node if possible.
+     *
+     * @return false if the avatar does not exist
+     */
+    public boolean writeAvatar(String avatarId, OutputStream out) throws IOException {
+        String key = AVATAR_BLOB + avatarId;
+        if (blobCache.write(key, 0, Long.MAX_VALUE, out)) {
+            return true;
+        }
+        Avatar avatar = avatarRepository.findAvatarById(avatarId);
+        if (avatar == null || avatar.getContent() == null) {
+            return false;
+        }
+        blobCache.store(key, avatar.getContent());
+        out.write(avatar.getContent());
+        return true;
+    }
+
     public void deleteAvatar(String avatarId) {
         avatarRepository.removeAvatar(avatarId);
+        blobCache.evict(AVATAR_BLOB + avatarId);
 
         User currentUser = authenticationService.getCurrentUser();
         userRepository.updateUser(currentUser);
     }
 
-    private byte[] scaleImage(byte[] data) throws IOException {
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
-
-        BufferedImage img = ImageIO.read(in);
-        int width = Constants.AVATAR_SIZE;
-        int height = Constants.AVATAR_SIZE;
-
-        Image image = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        bufferedImage.getGraphics().drawImage(image, 0, 0, new Color(0, 0, 0), null);
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        ImageIO.write(bufferedImage, "jpg", byteArrayOutputStream);
-
-        log.debug("New Byte size of Avatar : {} Kbits", byteArrayOutputStream.size() / 1024);
-
-        return byteArrayOutputStream.toByteArray();
-    }
-
     public Avatar createAvatarBasedOnAvatar(Avatar avatar) {
         User currentUser = authenticationService.getCurrentUser();
         Avatar dbAvatar = avatarRepository.findAvatarByFilename(avatar.getFilename());
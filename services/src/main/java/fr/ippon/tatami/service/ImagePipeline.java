@@ -0,0 +1,361 @@
+package fr.ippon.tatami.service;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import fr.ippon.tatami.config.Constants;
+import fr.ippon.tatami.domain.Attachment;
+import fr.ippon.tatami.domain.Avatar;
+import fr.ippon.tatami.domain.User;
+import fr.ippon.tatami.repository.AttachmentRepository;
+import fr.ippon.tatami.repository.AvatarRepository;
+import fr.ippon.tatami.repository.ImageVariantRepository;
+import fr.ippon.tatami.repository.UserRepository;
+import fr.ippon.tatami.service.blob.DiskBlobCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.inject.Inject;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the resized versions of the uploaded images in the background : the thumbnail and the preview of the
+ * attachments, and the avatars.
+ * <p/>
+ * Images are processed by a pool of "tatami.image.threads" workers, and at most "tatami.image.queueCapacity" images
+ * wait for a worker : when the queue is full, the image is skipped, and its thumbnail is requested again the next
+ * time the attachment is read.
+ * <p/>
+ * An image is decoded once, for its largest variant, and the other variants are resized from it. Large images are
+ * decoded with subsampling : the decoded image is at most twice as large as the variant, and never has more than
+ * "tatami.image.maxPixels" pixels.
+ * <p/>
+ * A resized avatar is stored under a new id, which the user is then pointed at, as avatars are cached by their id.
+ */
+@Service
+public class ImagePipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagePipeline.class);
+
+    /**
+     * The sizes of the resized images.
+     */
+    enum ImageVariant {
+
+        THUMBNAIL("thumbnail", 100, 100, true, "png"),
+        PREVIEW("preview", 800, 800, false, "jpg"),
+        AVATAR("avatar", Constants.AVATAR_SIZE, Constants.AVATAR_SIZE, true, "jpg");
+
+        private final String name;
+
+        private final int width;
+
+        private final int height;
+
+        /**
+         * Whether the image is stretched to the variant size, or only reduced to fit in it.
+         */
+        private final boolean stretched;
+
+        private final String format;
+
+        ImageVariant(String name, int width, int height, boolean stretched, String format) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.stretched = stretched;
+            this.format = format;
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private AttachmentRepository attachmentRepository;
+
+    @Inject
+    private AvatarRepository avatarRepository;
+
+    @Inject
+    private ImageVariantRepository imageVariantRepository;
+
+    @Inject
+    private UserRepository userRepository;
+
+    @Inject
+    private DiskBlobCache blobCache;
+
+    private ThreadPoolExecutor executor;
+
+    private long maxPixels;
+
+    /**
+     * The images waiting for a worker or being processed, so that an image is only queued once.
+     */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final Timer processingTimer = Metrics.newTimer(ImagePipeline.class, "processing",
+            TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+    private final Timer queueTimer = Metrics.newTimer(ImagePipeline.class, "queue-wait",
+            TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+    private final Meter failureMeter = Metrics.newMeter(ImagePipeline.class, "failures", "images", TimeUnit.SECONDS);
+
+    private final Meter rejectedMeter = Metrics.newMeter(ImagePipeline.class, "rejected", "images", TimeUnit.SECONDS);
+
+    @PostConstruct
+    public void init() {
+        int threads = Math.max(1, env.getProperty("tatami.image.threads", Integer.class, 2));
+        int queueCapacity = Math.max(1, env.getProperty("tatami.image.queueCapacity", Integer.class, 1000));
+        maxPixels = env.getProperty("tatami.image.maxPixels", Long.class, 16L * 1024 * 1024);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "TatamiImage-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Metrics.newGauge(ImagePipeline.class, "queue-depth", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return executor.getQueue().size();
+            }
+        });
+        Metrics.newGauge(ImagePipeline.class, "active-workers", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return executor.getActiveCount();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Creates the thumbnail and the preview of an image attachment.
+     */
+    public void submitAttachment(String attachmentId) {
+        submit("attachment-" + attachmentId, () -> processAttachment(attachmentId));
+    }
+
+    /**
+     * Resizes the avatar of a user, which is served as it was uploaded until then.
+     */
+    public void submitAvatar(String avatarId, String login) {
+        submit("avatar-" + avatarId, () -> processAvatar(avatarId, login));
+    }
+
+    /**
+     * Checks that an image can be decoded, by reading its header.
+     */
+    public boolean isImage(byte[] content) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(content))) {
+            return input != null && ImageIO.getImageReaders(input).hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void submit(String key, Runnable job) {
+        if (!pending.add(key)) {
+            return;
+        }
+        long queued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                queueTimer.update(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+                TimerContext context = processingTimer.time();
+                try {
+                    job.run();
+                } catch (Exception e) {
+                    failureMeter.mark();
+                    log.warn("Could not resize the image " + key + " : " + e.getMessage());
+                    log.debug("Image error", e);
+                } finally {
+                    context.stop();
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+            rejectedMeter.mark();
+            log.warn("Too many images are waiting to be resized, {} is skipped", key);
+        }
+    }
+
+    private void processAttachment(String attachmentId) {
+        Attachment attachment = attachmentRepository.findAttachmentMetadataById(attachmentId);
+        if (attachment == null) {
+            // The attachment was deleted in the meantime
+            return;
+        }
+        BufferedImage image;
+        try (InputStream content = attachmentRepository.openContent(attachment)) {
+            image = decode(content, ImageVariant.PREVIEW);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + attachment, e);
+        }
+        if (image == null) {
+            throw new IllegalStateException("No image reader for " + attachment);
+        }
+        imageVariantRepository.saveVariant(attachmentId, ImageVariant.PREVIEW.getName(),
+                encode(resize(image, ImageVariant.PREVIEW), ImageVariant.PREVIEW));
+        blobCache.evict(AttachmentService.PREVIEW_BLOB + attachmentId);
+
+        Attachment thumbnail = new Attachment();
+        thumbnail.setAttachmentId(attachmentId);
+        thumbnail.setFilename(attachment.getFilename());
+        thumbnail.setThumbnail(encode(resize(image, ImageVariant.THUMBNAIL), ImageVariant.THUMBNAIL));
+        thumbnail.setHasThumbnail(true);
+        attachmentRepository.updateThumbnail(thumbnail);
+        blobCache.evict(AttachmentService.THUMBNAIL_BLOB + attachmentId);
+    }
+
+    void processAvatar(String avatarId, String login) {
+        Avatar avatar = avatarRepository.findAvatarById(avatarId);
+        if (avatar == null || avatar.getContent() == null) {
+            return;
+        }
+        BufferedImage image;
+        try {
+            image = decode(new ByteArrayInputStream(avatar.getContent()), ImageVariant.AVATAR);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + avatar, e);
+        }
+        if (image == null) {
+            throw new IllegalStateException("No image reader for " + avatar);
+        }
+        Avatar resized = new Avatar();
+        resized.setFilename(avatar.getFilename());
+        resized.setContent(encode(resize(image, ImageVariant.AVATAR), ImageVariant.AVATAR));
+        resized.setSize(resized.getContent().length);
+        resized.setCreationDate(avatar.getCreationDate());
+        avatarRepository.createAvatar(resized);
+
+        // The uploaded avatar is cached by the browsers under its id : the resized one is served under a new id
+        User user = userRepository.findUserByLogin(login);
+        if (user == null || !avatarId.equals(user.getAvatar())) {
+            // The user changed its avatar in the meantime
+            avatarRepository.removeAvatar(resized.getAvatarId());
+            return;
+        }
+        user.setAvatar(resized.getAvatarId());
+        userRepository.updateUser(user);
+        avatarRepository.removeAvatar(avatarId);
+        blobCache.evict(AvatarService.AVATAR_BLOB + avatarId);
+        log.debug("New Byte size of Avatar : {} Kbits", resized.getSize() / 1024);
+    }
+
+    /**
+     * Decodes an image, with a subsampling fitted to the variant it is decoded for.
+     *
+     * @return null if the image format is not supported
+     */
+    BufferedImage decode(InputStream content, ImageVariant variant) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(content)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int subsampling = Math.max(1, Math.min(width / (2 * variant.width), height / (2 * variant.height)));
+                while ((long) (width / subsampling) * (height / subsampling) > maxPixels) {
+                    subsampling++;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Resizes an image by halving it until it is less than twice as large as the variant, so that bilinear
+     * interpolation keeps its details.
+     */
+    BufferedImage resize(BufferedImage image, ImageVariant variant) {
+        int width;
+        int height;
+        if (variant.stretched) {
+            width = variant.width;
+            height = variant.height;
+        } else {
+            double scale = Math.min(1, Math.min((double) variant.width / image.getWidth(),
+                    (double) variant.height / image.getHeight()));
+            width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+            height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        }
+        int type = "png".equals(variant.format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2, type);
+        }
+        return draw(current, width, height, type);
+    }
+
+    private static BufferedImage draw(BufferedImage image, int width, int height, int type) {
+        BufferedImage target = new BufferedImage(width, height, type);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                // JPEG has no transparency
+                graphics.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+            } else {
+                graphics.drawImage(image, 0, 0, width, height, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] encode(BufferedImage image, ImageVariant variant) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageIO.write(image, variant.format, bytes);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode the " + variant.getName(), e);
+        }
+    }
+}
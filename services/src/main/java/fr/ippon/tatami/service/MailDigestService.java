@@ -1,25 +1,43 @@
 package fr.ippon.tatami.service;
 
+import com.datastax.driver.core.utils.UUIDs;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
+import fr.ippon.tatami.config.Constants;
 import fr.ippon.tatami.domain.DigestType;
 import fr.ippon.tatami.domain.Domain;
 import fr.ippon.tatami.domain.Group;
 import fr.ippon.tatami.domain.User;
 import fr.ippon.tatami.repository.DomainRepository;
 import fr.ippon.tatami.repository.MailDigestRepository;
+import fr.ippon.tatami.repository.TimelineRepository;
 import fr.ippon.tatami.repository.UserRepository;
+import fr.ippon.tatami.repository.UserlineRepository;
+import fr.ippon.tatami.security.AuthenticationService;
 import fr.ippon.tatami.service.dto.StatusDTO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * This service generates digest emails for subscribed users.
+ * <p/>
+ * The digests of a run are generated in parallel by a bounded pool of "tatami.digest.threads" workers : when the
+ * queue is full, the thread reading the subscribed logins generates the digests itself. For each user, only the
+ * Ids of the timeline are read until the start of the digest period, and only the statuses selected for the digest
+ * are built.
  *
  * @author Pierre Rust
  */
@@ -31,6 +49,11 @@ public class MailDigestService {
     private final static int MAX_STATUS_DAILY_DIGEST = 10;
     private final static int MAX_STATUS_WEEKLY_DIGEST = 10;
 
+    private final static int TIMELINE_PAGE_SIZE = 200;
+
+    @Inject
+    private Environment env;
+
     @Inject
     private MailDigestRepository mailDigestRepository;
 
@@ -40,6 +63,12 @@ public class MailDigestService {
     @Inject
     private UserRepository userRepository;
 
+    @Inject
+    private TimelineRepository timelineRepository;
+
+    @Inject
+    private UserlineRepository userlineRepository;
+
     @Inject
     private TimelineService timelineService;
 
@@ -49,38 +78,25 @@ public class MailDigestService {
     @Inject
     private SuggestionService suggestionService;
 
+    @Inject
+    private AuthenticationService authenticationService;
+
+    private final Meter digestMeter = Metrics.newMeter(MailDigestService.class, "digests", "digests", TimeUnit.SECONDS);
+
+    private final Meter failureMeter = Metrics.newMeter(MailDigestService.class, "failures", "digests", TimeUnit.SECONDS);
+
+    private final Histogram runDurationHistogram = Metrics.newHistogram(MailDigestService.class, "run-duration-ms", true);
+
+    private final Histogram runThroughputHistogram = Metrics.newHistogram(MailDigestService.class, "run-digests-per-second", true);
+
     /**
      * Sends daily digest. Must be run every day
      */
     @Scheduled(cron = "0 0 22 * * ?")
     public void dailyDigest() {
         log.info("Starting Daily digest mail process ");
-        Set<Domain> domains = domainRepository.getAllDomains();
-
         String day = String.valueOf(Calendar.getInstance().get(Calendar.DAY_OF_WEEK));
-
-        for (Domain d : domains) {
-            log.info("Sending daily digest for domain {} and day {}", d, day);
-            int pagination = 0;
-            List<String> logins;
-            do {
-                logins = mailDigestRepository.getLoginsRegisteredToDigest(
-                        DigestType.DAILY_DIGEST, d.getName(), day, pagination);
-                pagination = pagination + logins.size();
-
-                for (String login : logins) {
-                    try {
-                        handleDailyDigestPageForLogin(login);
-                    } catch (Exception e) {
-                        log.warn("An error has occured when generating daily digest for user " + login + ": " + e.getMessage());
-                        StringWriter stack = new StringWriter();
-                        PrintWriter pw = new PrintWriter(stack);
-                        e.printStackTrace(pw);
-                        log.debug("{}", stack.toString());
-                    }
-                }
-            } while (logins.size() > 0);
-        }
+        runDigest(DigestType.DAILY_DIGEST, Collections.singletonList(day), this::handleDailyDigestPageForLogin);
     }
 
     /**
@@ -95,38 +111,74 @@ public class MailDigestService {
     @Scheduled(cron = "0 0 01 ? * MON")
     public void weeklyDigest() {
         log.info("Starting Weekly digest mail process ");
-
-        Set<Domain> domains = domainRepository.getAllDomains();
-
         // sent digest for all domains
         // for users that have register any day of the week
+        List<String> days = new ArrayList<>();
         for (int i = 1; i < 8; ++i) {
-            String day = String.valueOf(i);
-
-            for (Domain d : domains) {
-                log.info("Sending weekly digest for domain {} and day {}", d, i);
-                int pagination = 0;
-                List<String> logins;
-                do {
-                    logins = mailDigestRepository.getLoginsRegisteredToDigest(
-                            DigestType.WEEKLY_DIGEST, d.getName(),
-                            day, pagination);
-                    pagination = pagination + logins.size();
-
-                    for (String login : logins) {
-                        try {
-                            handleWeeklyDigestPageForLogin(login);
-                        } catch (Exception e) {
-                            log.warn("An error has occured when generating weekly digest for user " + login + ": " + e.getMessage());
-                            StringWriter stack = new StringWriter();
-                            PrintWriter pw = new PrintWriter(stack);
-                            e.printStackTrace(pw);
-                            log.debug("{}", stack.toString());
+            days.add(String.valueOf(i));
+        }
+        runDigest(DigestType.WEEKLY_DIGEST, days, this::handleWeeklyDigestPageForLogin);
+    }
+
+    /**
+     * Generates the digests of all the users registered to a type of digest, in parallel.
+     */
+    private void runDigest(DigestType digestType, List<String> days, Consumer<String> digest) {
+        long start = System.currentTimeMillis();
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        int threads = env.getProperty("tatami.digest.threads", Integer.class, 4);
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(env.getProperty("tatami.digest.queueCapacity", Integer.class, 1000));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("TatamiDigest-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(Integer.MAX_VALUE);
+        executor.initialize();
+        try {
+            Set<Domain> domains = domainRepository.getAllDomains();
+            for (String day : days) {
+                for (Domain d : domains) {
+                    log.info("Sending {} for domain {} and day {}", digestType, d, day);
+                    String afterLogin = null;
+                    List<String> logins;
+                    do {
+                        logins = mailDigestRepository.getLoginsRegisteredToDigest(
+                                digestType, d.getName(), day, afterLogin, Constants.PAGINATION_SIZE);
+                        if (!logins.isEmpty()) {
+                            afterLogin = logins.get(logins.size() - 1);
+                        }
+
+                        for (String login : logins) {
+                            executor.execute(() -> {
+                                try {
+                                    digest.accept(login);
+                                    sent.incrementAndGet();
+                                    digestMeter.mark();
+                                } catch (Exception e) {
+                                    failed.incrementAndGet();
+                                    failureMeter.mark();
+                                    log.warn("An error has occured when generating " + digestType + " for user " +
+                                            login + ": " + e.getMessage());
+                                    log.debug("Digest error", e);
+                                }
+                            });
                         }
-                    }
-                } while (logins.size() > 0);
+                    } while (logins.size() == Constants.PAGINATION_SIZE);
+                }
             }
+        } finally {
+            executor.shutdown();
         }
+        long duration = System.currentTimeMillis() - start;
+        double throughput = duration == 0 ? sent.get() : sent.get() * 1000.0 / duration;
+        runDurationHistogram.update(duration);
+        runThroughputHistogram.update(Math.round(throughput));
+        log.info("{} : {} digests sent, {} failures, in {} ms ({} digests/s)", digestType, sent.get(), failed.get(),
+                duration, String.format("%.1f", throughput));
     }
 
     /**
@@ -134,7 +186,7 @@ public class MailDigestService {
      * and delegate the sending operation to mailService.
      */
     private void handleDailyDigestPageForLogin(String login) {
-        log.info("Preparing weekly digest for user " + login);
+        log.debug("Preparing daily digest for user " + login);
 
         User user = userRepository.findUserByLogin(login);
 
@@ -160,7 +212,7 @@ public class MailDigestService {
      * and delegate the sending operation to mailService.
      */
     private void handleWeeklyDigestPageForLogin(String login) {
-        log.info("Preparing weekly digest for user " + login);
+        log.debug("Preparing weekly digest for user " + login);
 
         User user = userRepository.findUserByLogin(login);
 
@@ -183,6 +235,9 @@ public class MailDigestService {
     /**
      * Build a list containing an extract of the status from an user timeline,
      * except its own, since a given date.
+     * <p/>
+     * The dates of the statuses are read from their time-based Ids, so only the selected statuses are built, on
+     * behalf of the user.
      *
      * @param user           the user
      * @param since_date     date since
@@ -192,53 +247,56 @@ public class MailDigestService {
      */
     private int getStatusesForDigest(final User user, final Date since_date,
                                      int nbStatus, List<StatusDTO> digestStatuses) {
-        String finish = null;
-        boolean dateReached = false;
-        List<StatusDTO> allStatuses = new ArrayList<StatusDTO>(50);
-
-        // collect all statuses since 'since_date' from the timeline
-        while (!dateReached) {
-            Collection<StatusDTO> statuses = timelineService.getUserTimeline(user.getLogin(), 200, null, finish);
-            statuses.size();
-            int count = 0;
-            if (statuses.isEmpty()) {
-                dateReached = true;
-            }
 
-            for (StatusDTO status : statuses) {
-                if (status.getStatusDate().before(since_date)) {
-                    dateReached = true;
-                    break;
-                } else {
-                    // Do not includes user's own status in digest
-                    if (!status.getUsername().equals(user.getUsername())) {
-                        allStatuses.add(status);
-                    }
-                }
-                count++;
-                if (count == statuses.size() && !dateReached) {
-                    finish = status.getStatusId();
-                }
-            }
-        }
+        List<String> allStatuses = new ArrayList<String>(findStatusIdsSince(since_date,
+                (finish) -> timelineRepository.getTimeline(user.getLogin(), TIMELINE_PAGE_SIZE, null, finish)));
+
+        // Do not includes user's own status in digest
+        allStatuses.removeAll(findStatusIdsSince(since_date,
+                (finish) -> userlineRepository.getUserline(user.getLogin(), TIMELINE_PAGE_SIZE, null, finish)));
 
         int nbStatusTotal = allStatuses.size();
         if (nbStatusTotal > 0) {
 
             // now select some of theses statuses
+            List<String> selectedStatuses = allStatuses;
             if (allStatuses.size() > nbStatus) {
                 Collections.shuffle(allStatuses);
-                digestStatuses.addAll(allStatuses.subList(0, nbStatus));
-                Collections.sort(digestStatuses, new Comparator<StatusDTO>() {
-                    @Override
-                    public int compare(StatusDTO statusDTO, StatusDTO statusDTO2) {
-                        return statusDTO.getStatusDate().compareTo(statusDTO2.getStatusDate());
-                    }
-                });
-            } else {
-                digestStatuses.addAll(allStatuses);
+                selectedStatuses = allStatuses.subList(0, nbStatus);
             }
+            List<String> line = new ArrayList<String>(selectedStatuses);
+            authenticationService.runAs(user.getLogin(), () ->
+                    digestStatuses.addAll(timelineService.buildStatusList(line)));
+            Collections.sort(digestStatuses, new Comparator<StatusDTO>() {
+                @Override
+                public int compare(StatusDTO statusDTO, StatusDTO statusDTO2) {
+                    return statusDTO.getStatusDate().compareTo(statusDTO2.getStatusDate());
+                }
+            });
         }
         return nbStatusTotal;
     }
+
+    /**
+     * Reads the Ids of a line, most recent first, until a date.
+     *
+     * @param line returns the page of Ids after a given Id, or the first page if it is null
+     */
+    private Set<String> findStatusIdsSince(Date since, Function<String, List<String>> line) {
+        Set<String> statusIds = new LinkedHashSet<String>();
+        String finish = null;
+        while (true) {
+            List<String> page = line.apply(finish);
+            for (String statusId : page) {
+                if (UUIDs.unixTimestamp(UUID.fromString(statusId)) < since.getTime()) {
+                    return statusIds;
+                }
+                statusIds.add(statusId);
+            }
+            if (page.size() < TIMELINE_PAGE_SIZE) {
+                return statusIds;
+            }
+            finish = page.get(page.size() - 1);
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package fr.ippon.tatami.service;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Knows which users are connected to this node with Atmosphere.
+ * <p/>
+ * A user may have several connections, for example with several browser tabs : the user is online until the last
+ * one is closed. Connections are identified by their Atmosphere UUID, which is kept when a client reconnects.
+ */
+@Service
+public class PresenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    /**
+     * The login of each connection.
+     */
+    private final ConcurrentMap<String, String> connections = new ConcurrentHashMap<>();
+
+    /**
+     * The number of connections of each online user.
+     */
+    private final ConcurrentMap<String, AtomicInteger> users = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Metrics.newGauge(PresenceService.class, "connected-users", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return users.size();
+            }
+        });
+        Metrics.newGauge(PresenceService.class, "connections", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return connections.size();
+            }
+        });
+        Metrics.newGauge(PresenceService.class, "broadcasters", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                BroadcasterFactory factory = BroadcasterFactory.getDefault();
+                return factory == null ? 0 : factory.lookupAll().size();
+            }
+        });
+    }
+
+    public void connected(String uuid, String login) {
+        if (uuid == null || login == null) {
+            return;
+        }
+        String previousLogin = connections.put(uuid, login);
+        if (login.equals(previousLogin)) {
+            return;
+        }
+        if (previousLogin != null) {
+            leave(previousLogin);
+        }
+        users.compute(login, (key, count) -> {
+            if (count == null) {
+                count = new AtomicInteger();
+            }
+            count.incrementAndGet();
+            return count;
+        });
+        log.debug("User {} connected", login);
+    }
+
+    public void disconnected(String uuid) {
+        if (uuid == null) {
+            return;
+        }
+        String login = connections.remove(uuid);
+        if (login != null) {
+            leave(login);
+            log.debug("User {} disconnected", login);
+        }
+    }
+
+    public boolean isOnline(String login) {
+        return users.containsKey(login);
+    }
+
+    /**
+     * The users which are online, among the given users.
+     */
+    public List<String> filterOnline(Collection<String> logins) {
+        List<String> online = new ArrayList<>();
+        if (users.isEmpty()) {
+            return online;
+        }
+        for (String login : logins) {
+            if (users.containsKey(login)) {
+                online.add(login);
+            }
+        }
+        return online;
+    }
+
+    public int getConnectedUsers() {
+        return users.size();
+    }
+
+    private void leave(String login) {
+        users.computeIfPresent(login, (key, count) -> count.decrementAndGet() <= 0 ? null : count);
+    }
+}
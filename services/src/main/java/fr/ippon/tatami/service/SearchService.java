@@ -5,6 +5,7 @@ import fr.ippon.tatami.domain.User;
 import fr.ippon.tatami.domain.status.Status;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -31,6 +32,11 @@ public interface SearchService {
      */
     void addStatus(Status status);
 
+    /**
+     * Add statuses to the index, synchronously.
+     *
+     * @throws fr.ippon.tatami.service.exception.IndexingException when some of the statuses were not indexed
+     */
     void addStatuses(Collection<Status> statuses);
 
     /**
@@ -52,6 +58,23 @@ public interface SearchService {
                               int page,
                               int size);
 
+    /**
+     * Search statuses, the most recent first, with the fields stored in the index.
+     * <p/>
+     * Pages are read after the last status of the previous page, so reading a page doesn't get slower with its
+     * number.
+     *
+     * @param query      the query : mandatory
+     * @param beforeDate the date of the last status of the previous page, or null for the first page
+     * @param beforeId   the id of the last status of the previous page, or null for the first page
+     * @param size       the size of a page
+     */
+    List<Status> searchStatus(String domain,
+                              String query,
+                              Date beforeDate,
+                              String beforeId,
+                              int size);
+
 
     /**
      * Add a user to the index.
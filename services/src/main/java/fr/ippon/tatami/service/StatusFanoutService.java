@@ -0,0 +1,281 @@
+package fr.ippon.tatami.service;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.repository.TimelineRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Delivers a newly created status to the timelines of its recipients.
+ * <p/>
+ * The status itself is persisted by the StatusUpdateService on the request thread : the recipients (followers, group
+ * members, tag followers and mentioned users) are then resolved and written to in the background, by a bounded
+ * pool of workers. When the queue is full, the posting thread does the delivery itself, which slows down
+ * the producers instead of dropping statuses.
+ * <p/>
+ * A failed delivery is retried with an exponential back-off, resuming where it stopped : users are notified by
+ * batches of "tatami.fanout.notificationBatchSize" and mentioned one at a time, so that only the batch which failed
+ * is notified again.
+ * <p/>
+ * Delivery is synchronous when "tatami.fanout.async" is false, which is used by the tests.
+ */
+@Service
+public class StatusFanoutService {
+
+    private static final Logger log = LoggerFactory.getLogger(StatusFanoutService.class);
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private TimelineRepository timelineRepository;
+
+    @Inject
+    private AtmosphereService atmosphereService;
+
+    @Inject
+    private MentionService mentionService;
+
+    private boolean async;
+
+    private int maxRetries;
+
+    private long retryDelay;
+
+    private int notificationBatchSize;
+
+    private ThreadPoolTaskExecutor executor;
+
+    private ThreadPoolTaskScheduler retryScheduler;
+
+    private final Timer fanoutTimer = Metrics.newTimer(StatusFanoutService.class, "fanout",
+            TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+    private final Histogram lagHistogram = Metrics.newHistogram(StatusFanoutService.class, "lag-ms", true);
+
+    private final Histogram recipientsHistogram = Metrics.newHistogram(StatusFanoutService.class, "recipients", true);
+
+    private final Counter retryCounter = Metrics.newCounter(StatusFanoutService.class, "retries");
+
+    private final Counter failureCounter = Metrics.newCounter(StatusFanoutService.class, "failures");
+
+    @PostConstruct
+    public void init() {
+        async = env.getProperty("tatami.fanout.async", Boolean.class, true);
+        maxRetries = env.getProperty("tatami.fanout.maxRetries", Integer.class, 5);
+        retryDelay = env.getProperty("tatami.fanout.retryDelay", Long.class, 1000L);
+        notificationBatchSize = Math.max(1, env.getProperty("tatami.fanout.notificationBatchSize", Integer.class, 100));
+        if (!async) {
+            log.info("Status fan-out is synchronous");
+            return;
+        }
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(env.getProperty("tatami.fanout.threads", Integer.class, 4));
+        executor.setMaxPoolSize(env.getProperty("tatami.fanout.threads", Integer.class, 4));
+        executor.setQueueCapacity(env.getProperty("tatami.fanout.queueCapacity", Integer.class, 10000));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("TatamiFanout-");
+        executor.initialize();
+
+        retryScheduler = new ThreadPoolTaskScheduler();
+        retryScheduler.setPoolSize(1);
+        retryScheduler.setThreadNamePrefix("TatamiFanoutRetry-");
+        retryScheduler.initialize();
+
+        Metrics.newGauge(StatusFanoutService.class, "queue-depth", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return executor.getThreadPoolExecutor().getQueue().size();
+            }
+        });
+        log.info("Status fan-out is asynchronous, using {} workers", executor.getMaxPoolSize());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (executor != null) {
+            log.info("Stopping the status fan-out, {} deliveries pending",
+                    executor.getThreadPoolExecutor().getQueue().size());
+            retryScheduler.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Delivers a status in the background.
+     *
+     * @param status    the status, which must already be persisted
+     * @param resolver  fills the delivery with the recipients of the status ; it is run in the background too
+     */
+    public void fanout(Status status, Consumer<Delivery> resolver) {
+        FanoutTask task = new FanoutTask(status, resolver, SecurityContextHolder.getContext());
+        if (async) {
+            submit(task);
+        } else {
+            task.run();
+        }
+    }
+
+    private void submit(FanoutTask task) {
+        executor.execute(new DelegatingSecurityContextRunnable(task, task.securityContext));
+    }
+
+    /**
+     * The recipients of a status.
+     */
+    public static class Delivery {
+
+        private final String authorLogin;
+
+        private final Set<String> timelineLogins = new LinkedHashSet<>();
+
+        private final Set<String> mentionedLogins = new LinkedHashSet<>();
+
+        Delivery(String authorLogin) {
+            this.authorLogin = authorLogin;
+        }
+
+        /**
+         * Adds the status to the user's timeline, and notifies the user.
+         */
+        public void addToTimeline(String login) {
+            if (!login.equals(authorLogin)) {
+                timelineLogins.add(login);
+            }
+        }
+
+        /**
+         * Adds the status to the user's timeline and mentionline, and notifies the user.
+         */
+        public void mention(String login) {
+            addToTimeline(login);
+            mentionedLogins.add(login);
+        }
+
+        public Collection<String> getTimelineLogins() {
+            return timelineLogins;
+        }
+
+        public Collection<String> getMentionedLogins() {
+            return mentionedLogins;
+        }
+    }
+
+    private enum Step {
+        RESOLVE, TIMELINES, NOTIFICATIONS, MENTIONS, DONE
+    }
+
+    private class FanoutTask implements Runnable {
+
+        private final Status status;
+
+        private final Consumer<Delivery> resolver;
+
+        private final SecurityContext securityContext;
+
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        /**
+         * The recipients and the mentioned users, in the order they are notified.
+         */
+        private List<String> recipients;
+
+        private List<String> mentions;
+
+        private Step step = Step.RESOLVE;
+
+        private int attempts = 0;
+
+        /**
+         * The number of recipients already notified, and of mentioned users already notified of the mention.
+         */
+        private int notified = 0;
+
+        private int mentioned = 0;
+
+        FanoutTask(Status status, Consumer<Delivery> resolver, SecurityContext securityContext) {
+            this.status = status;
+            this.resolver = resolver;
+            this.securityContext = securityContext;
+        }
+
+        @Override
+        public void run() {
+            if (attempts == 0) {
+                lagHistogram.update(System.currentTimeMillis() - enqueuedAt);
+            }
+            attempts++;
+            String statusId = status.getStatusId().toString();
+            try {
+                if (step == Step.RESOLVE) {
+                    Delivery delivery = new Delivery(status.getLogin());
+                    resolver.accept(delivery);
+                    recipients = new ArrayList<>(delivery.getTimelineLogins());
+                    mentions = new ArrayList<>(delivery.getMentionedLogins());
+                    recipientsHistogram.update(recipients.size());
+                    step = Step.TIMELINES;
+                }
+                if (step == Step.TIMELINES) {
+                    timelineRepository.addStatusToTimelines(recipients, statusId);
+                    step = Step.NOTIFICATIONS;
+                }
+                if (step == Step.NOTIFICATIONS) {
+                    while (notified < recipients.size()) {
+                        int end = Math.min(notified + notificationBatchSize, recipients.size());
+                        atmosphereService.notifyUsers(recipients.subList(notified, end), status);
+                        notified = end;
+                    }
+                    step = Step.MENTIONS;
+                }
+                if (step == Step.MENTIONS) {
+                    while (mentioned < mentions.size()) {
+                        mentionService.mentionUser(mentions.get(mentioned), status);
+                        mentioned++;
+                    }
+                    step = Step.DONE;
+                }
+                fanoutTimer.update(System.currentTimeMillis() - enqueuedAt, TimeUnit.MILLISECONDS);
+                log.debug("Status {} delivered to {} timelines", statusId, recipients.size());
+            } catch (RuntimeException e) {
+                if (!async) {
+                    throw e;
+                }
+                if (attempts > maxRetries) {
+                    failureCounter.inc();
+                    log.error("Could not deliver status " + statusId + " at step " + step + ", giving up", e);
+                } else {
+                    retryCounter.inc();
+                    long delay = retryDelay << (attempts - 1);
+                    log.warn("Could not deliver status {} at step {}, retrying in {} ms : {}",
+                            statusId, step, delay, e.getMessage());
+                    retryScheduler.schedule(() -> submit(this), new Date(System.currentTimeMillis() + delay));
+                }
+            }
+        }
+    }
+}
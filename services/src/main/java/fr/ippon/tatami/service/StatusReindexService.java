@@ -0,0 +1,288 @@
+package fr.ippon.tatami.service;
+
+import fr.ippon.tatami.domain.ReindexSegment;
+import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.repository.ReindexCheckpointRepository;
+import fr.ippon.tatami.repository.StatusRepository;
+import fr.ippon.tatami.service.dto.ReindexProgressDTO;
+import fr.ippon.tatami.service.exception.IndexingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Re-indexes all the statuses in the search engine.
+ * <p/>
+ * The token ring of the status table is split in segments, which are scanned in parallel. Each page of statuses is
+ * sent to the search engine in bulk requests, and the last token of the page is then saved : if the application
+ * is stopped, the re-indexing is resumed from these checkpoints when it starts again. As the bulk requests are
+ * synchronous, a slow search engine slows the scan down instead of filling the memory.
+ * <p/>
+ * The statuses which the search engine rejects, for example when it is busy, are sent again after a growing delay,
+ * and a checkpoint is only saved once all the statuses of its page are indexed.
+ */
+@Service
+public class StatusReindexService implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(StatusReindexService.class);
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final long RETRY_DELAY = 1000;
+
+    @Inject
+    private StatusRepository statusRepository;
+
+    @Inject
+    private ReindexCheckpointRepository reindexCheckpointRepository;
+
+    @Inject
+    private SearchService searchService;
+
+    @Inject
+    private Environment env;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final AtomicBoolean resumeChecked = new AtomicBoolean(false);
+
+    private final AtomicLong indexedStatuses = new AtomicLong();
+
+    private volatile List<ReindexSegment> segments = Collections.emptyList();
+
+    private volatile long startTime;
+
+    private volatile long endTime;
+
+    private volatile double startProgress;
+
+    private long retryDelay = RETRY_DELAY;
+
+    /**
+     * Resumes an interrupted re-indexing when the application starts.
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (!resumeChecked.compareAndSet(false, true) ||
+                !env.getProperty("tatami.reindex.resume", Boolean.class, true)) {
+            return;
+        }
+        Collection<ReindexSegment> checkpoints = reindexCheckpointRepository.findSegments();
+        if (checkpoints.stream().anyMatch(segment -> !segment.isDone()) && running.compareAndSet(false, true)) {
+            log.info("Resuming the re-indexing of the statuses");
+            launch(new ArrayList<>(checkpoints));
+        }
+    }
+
+    /**
+     * Starts re-indexing all the statuses, in the background.
+     *
+     * @return false if a re-indexing is already running
+     */
+    public boolean reindexAll() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("The statuses are already being re-indexed");
+            return false;
+        }
+        reindexCheckpointRepository.deleteSegments();
+        int segmentCount = Math.max(1, env.getProperty("tatami.reindex.segments", Integer.class, 64));
+        List<ReindexSegment> newSegments = split(segmentCount);
+        newSegments.forEach(reindexCheckpointRepository::saveSegment);
+        launch(newSegments);
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public ReindexProgressDTO getProgress() {
+        List<ReindexSegment> currentSegments = segments;
+        ReindexProgressDTO progress = new ReindexProgressDTO();
+        progress.setRunning(running.get());
+        progress.setIndexedStatuses(indexedStatuses.get());
+        progress.setSegments(currentSegments.size());
+        progress.setDoneSegments((int) currentSegments.stream().filter(ReindexSegment::isDone).count());
+        double done = progress(currentSegments);
+        progress.setProgress(done);
+        long elapsed = (running.get() ? System.currentTimeMillis() : endTime) - startTime;
+        if (elapsed > 0 && !currentSegments.isEmpty()) {
+            progress.setStatusesPerSecond(indexedStatuses.get() * 1000.0 / elapsed);
+            double progressPerMilli = (done - startProgress) / elapsed;
+            if (running.get() && progressPerMilli > 0) {
+                progress.setEtaSeconds((long) ((1 - done) / progressPerMilli / 1000));
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * Splits the Murmur3 token ring in segments of the same size.
+     */
+    static List<ReindexSegment> split(int segmentCount) {
+        BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+        BigInteger range = BigInteger.valueOf(Long.MAX_VALUE).subtract(min);
+        List<ReindexSegment> segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            long start = min.add(range.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(segmentCount)))
+                    .longValue();
+            long end = i == segmentCount - 1 ? Long.MAX_VALUE :
+                    min.add(range.multiply(BigInteger.valueOf(i + 1)).divide(BigInteger.valueOf(segmentCount)))
+                            .longValue();
+            segments.add(new ReindexSegment(i, start, end, start));
+        }
+        return segments;
+    }
+
+    private void launch(List<ReindexSegment> jobSegments) {
+        segments = jobSegments;
+        indexedStatuses.set(0);
+        startProgress = progress(jobSegments);
+        startTime = System.currentTimeMillis();
+        Thread coordinator = new Thread(() -> run(jobSegments), "TatamiReindex");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    private void run(List<ReindexSegment> jobSegments) {
+        int threads = Math.max(1, env.getProperty("tatami.reindex.threads", Integer.class, 4));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "TatamiReindex-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicBoolean failed = new AtomicBoolean(false);
+        try {
+            for (ReindexSegment segment : jobSegments) {
+                if (!segment.isDone()) {
+                    executor.execute(() -> {
+                        try {
+                            reindex(segment, failed);
+                        } catch (RuntimeException e) {
+                            failed.set(true);
+                            log.error("Could not re-index segment " + segment.getSegment() +
+                                    ", the re-indexing will resume from its last checkpoint", e);
+                        }
+                    });
+                }
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.info("Re-indexing the statuses : {}", getProgress());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            endTime = System.currentTimeMillis();
+            running.set(false);
+        }
+        if (failed.get()) {
+            log.error("The re-indexing of the statuses stopped : {}", getProgress());
+        } else {
+            log.info("The statuses were re-indexed : {}", getProgress());
+        }
+    }
+
+    private void reindex(ReindexSegment segment, AtomicBoolean failed) {
+        int pageSize = env.getProperty("tatami.reindex.pageSize", Integer.class, 1000);
+        int bulkSize = env.getProperty("tatami.reindex.bulkSize", Integer.class, 500);
+        long bulkBytes = env.getProperty("tatami.reindex.bulkBytes", Long.class, 5L * 1024 * 1024);
+        List<Status> bulk = new ArrayList<>(bulkSize);
+        long[] size = new long[1];
+        while (!segment.isDone() && !failed.get()) {
+            long lastToken = statusRepository.scanStatuses(segment.getLastToken(), segment.getEndToken(), pageSize,
+                    status -> {
+                        bulk.add(status);
+                        size[0] += estimateSize(status);
+                        if (bulk.size() >= bulkSize || size[0] >= bulkBytes) {
+                            index(bulk);
+                            size[0] = 0;
+                        }
+                    });
+            index(bulk);
+            size[0] = 0;
+            // The page is indexed : the scan can restart after it
+            segment.setLastToken(lastToken);
+            reindexCheckpointRepository.saveSegment(segment);
+        }
+    }
+
+    private void index(List<Status> bulk) {
+        if (bulk.isEmpty()) {
+            return;
+        }
+        List<Status> pending = bulk;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                searchService.addStatuses(pending);
+                break;
+            } catch (IndexingException e) {
+                // Only the statuses which were not indexed are sent again
+                Set<String> failedIds = e.getFailedIds();
+                pending = pending.stream()
+                        .filter(status -> failedIds.contains(status.getStatusId().toString()))
+                        .collect(Collectors.toList());
+                if (pending.isEmpty()) {
+                    break;
+                }
+                backOff(e, attempt, pending.size());
+            } catch (RuntimeException e) {
+                backOff(e, attempt, pending.size());
+            }
+        }
+        indexedStatuses.addAndGet(bulk.size());
+        bulk.clear();
+    }
+
+    /**
+     * Waits before the next attempt, or throws the error when it was the last one.
+     */
+    private void backOff(RuntimeException e, int attempt, int statusCount) {
+        if (attempt == MAX_ATTEMPTS) {
+            throw e;
+        }
+        log.warn("Could not index {} statuses, attempt {} of {} : {}", statusCount, attempt, MAX_ATTEMPTS,
+                e.getMessage());
+        try {
+            Thread.sleep(retryDelay * attempt);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private static long estimateSize(Status status) {
+        return 256 + (status.getContent() == null ? 0 : status.getContent().length() * 2);
+    }
+
+    private static double progress(List<ReindexSegment> jobSegments) {
+        if (jobSegments.isEmpty()) {
+            return 0;
+        }
+        double done = 0;
+        for (ReindexSegment segment : jobSegments) {
+            done += segment.getProgress();
+        }
+        return done / jobSegments.size();
+    }
+}
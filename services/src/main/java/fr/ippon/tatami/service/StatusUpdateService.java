@@ -6,8 +6,11 @@ import fr.ippon.tatami.domain.User;
 import fr.ippon.tatami.domain.status.*;
 import fr.ippon.tatami.repository.*;
 import fr.ippon.tatami.security.AuthenticationService;
+import fr.ippon.tatami.service.StatusFanoutService.Delivery;
 import fr.ippon.tatami.service.exception.ArchivedGroupException;
 import fr.ippon.tatami.service.exception.ReplyStatusException;
+import fr.ippon.tatami.service.trends.TagIndex;
+import fr.ippon.tatami.service.trends.TrendEngine;
 import fr.ippon.tatami.service.util.DomainUtil;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.slf4j.Logger;
@@ -49,9 +52,6 @@ public class StatusUpdateService {
     @Inject
     private TimelineRepository timelineRepository;
 
-    @Inject
-    private MentionService mentionService;
-
     @Inject
     private UserlineRepository userlineRepository;
 
@@ -79,6 +79,12 @@ public class StatusUpdateService {
     @Inject
     private UserTrendRepository userTrendRepository;
 
+    @Inject
+    private TrendEngine trendEngine;
+
+    @Inject
+    private TagIndex tagIndex;
+
     @Inject
     private DiscussionRepository discussionRepository;
 
@@ -97,6 +103,9 @@ public class StatusUpdateService {
     @Inject
     private AtmosphereService atmosphereService;
 
+    @Inject
+    private StatusFanoutService statusFanoutService;
+
     public void postStatus(String content, boolean statusPrivate, Collection<String> attachmentIds, String geoLocalization) {
         createStatus(content, statusPrivate, null, "", "", "", attachmentIds, null, geoLocalization);
     }
@@ -251,24 +260,17 @@ public class StatusUpdateService {
 
         if (status.getStatusPrivate()) { // Private status
             // add status to the mentioned users' timeline
-            manageMentions(status, null, currentLogin, domain, new ArrayList<String>());
+            statusFanoutService.fanout(status, delivery ->
+                    manageMentions(status, null, currentLogin, domain, new ArrayList<String>(), delivery));
 
         } else { // Public status
-            Collection<String> followersForUser = followerRepository.findFollowersForUser(currentLogin);
-
             // add status to the dayline, userline
             String day = StatsService.DAYLINE_KEY_FORMAT.format(status.getStatusDate());
             daylineRepository.addStatusToDayline(status, day);
             userlineRepository.addStatusToUserline(status.getLogin(), status.getStatusId().toString());
 
-            // add the status to the group line and group followers
-            manageGroups(status, group, followersForUser);
-
             // tag managgement
-            manageStatusTags(status, group);
-
-            // add status to the mentioned users' timeline
-            manageMentions(status, group, currentLogin, domain, followersForUser);
+            Collection<String> tags = manageStatusTags(status);
 
             // Increment status count for the current user
             counterRepository.incrementStatusCounter(currentLogin);
@@ -278,6 +280,22 @@ public class StatusUpdateService {
 
             // add status to the company wall
             addToCompanyWall(status, group);
+
+            // deliver the status to the followers, group members, tag followers and mentioned users
+            statusFanoutService.fanout(status, delivery -> {
+                Collection<String> followersForUser = followerRepository.findFollowersForUser(currentLogin);
+
+                // add the status to the group line and group followers
+                manageGroups(status, group, followersForUser, delivery);
+
+                // add the status to all users following its tags
+                for (String tag : tags) {
+                    addStatusToTagFollowers(status, group, tag, delivery);
+                }
+
+                // add status to the mentioned users' timeline
+                manageMentions(status, group, currentLogin, domain, followersForUser, delivery);
+            });
         }
 
         if (log.isInfoEnabled()) {
@@ -287,24 +305,24 @@ public class StatusUpdateService {
         return status;
     }
 
-    private void manageGroups(Status status, Group group, Collection<String> followersForUser) {
+    private void manageGroups(Status status, Group group, Collection<String> followersForUser, Delivery delivery) {
         if (group != null) {
             grouplineRepository.addStatusToGroupline(group.getGroupId(), status.getStatusId().toString());
             Collection<String> groupMemberLogins = groupMembersRepository.findMembers(group.getGroupId()).keySet();
             // For all people following the group
             for (String groupMemberLogin : groupMemberLogins) {
-                addStatusToTimelineAndNotify(groupMemberLogin, status);
+                delivery.addToTimeline(groupMemberLogin);
             }
             if (isPublicGroup(group)) { // for people not following the group but following the user
                 for (String followerLogin : followersForUser) {
                     if (!groupMemberLogins.contains(followerLogin)) {
-                        addStatusToTimelineAndNotify(followerLogin, status);
+                        delivery.addToTimeline(followerLogin);
                     }
                 }
             }
         } else { // only people following the user
             for (String followerLogin : followersForUser) {
-                addStatusToTimelineAndNotify(followerLogin, status);
+                delivery.addToTimeline(followerLogin);
             }
         }
     }
@@ -321,8 +339,11 @@ public class StatusUpdateService {
      * <p/>
      * The Tatami Bot is a specific use case : as it sends a lot of statuses, it may pollute the global trends,
      * so it is excluded from it.
+     *
+     * @return the tags found in the status
      */
-    private void manageStatusTags(Status status, Group group) {
+    private Collection<String> manageStatusTags(Status status) {
+        Collection<String> tags = new ArrayList<>();
         Matcher m = PATTERN_HASHTAG.matcher(status.getContent());
         while (m.find()) {
             String tag = m.group(2);
@@ -330,19 +351,22 @@ public class StatusUpdateService {
                 log.debug("Found tag : {}", tag);
                 taglineRepository.addStatusToTagline(tag, status);
                 tagCounterRepository.incrementTagCounter(status.getDomain(), tag);
+                tagIndex.tagUsed(status.getDomain(), tag);
                 //Excludes the Tatami Bot from the global trend
-                if (!status.getUsername().equals(Constants.TATAMIBOT_NAME)) {
+                boolean domainTrend = !status.getUsername().equals(Constants.TATAMIBOT_NAME);
+                if (domainTrend) {
                     trendsRepository.addTag(status.getDomain(), tag);
                 }
                 userTrendRepository.addTag(status.getLogin(), tag);
-
-                // Add the status to all users following this tag
-                addStatusToTagFollowers(status, group, tag);
+                trendEngine.tagUsed(status.getDomain(), status.getLogin(), tag, domainTrend);
+                tags.add(tag);
             }
         }
+        return tags;
     }
 
-    private void manageMentions(Status status, Group group, String currentLogin, String domain, Collection<String> followersForUser) {
+    private void manageMentions(Status status, Group group, String currentLogin, String domain,
+                                Collection<String> followersForUser, Delivery delivery) {
         Matcher m = PATTERN_LOGIN.matcher(status.getContent());
         while (m.find()) {
             String mentionedUsername = extractUsernameWithoutAt(m.group());
@@ -358,42 +382,33 @@ public class StatusUpdateService {
                 if (!isPublicGroup(group)) {
                     Collection<UUID> groupIds = userGroupRepository.findGroups(mentionedLogin);
                     if (groupIds.contains(group.getGroupId())) { // The user is part of the private group
-                        mentionUser(mentionedLogin, status);
+                        delivery.mention(mentionedLogin);
                     }
                 } else { // This is a public status
-                    mentionUser(mentionedLogin, status);
+                    delivery.mention(mentionedLogin);
                 }
             }
         }
     }
 
-    private void addStatusToTagFollowers(Status status, Group group, String tag) {
+    private void addStatusToTagFollowers(Status status, Group group, String tag, Delivery delivery) {
         Collection<String> followersForTag =
                 tagFollowerRepository.findFollowers(status.getDomain(), tag);
 
         if (isPublicGroup(group)) { // This is a public status
             for (String followerLogin : followersForTag) {
-                addStatusToTimelineAndNotify(followerLogin, status);
+                delivery.addToTimeline(followerLogin);
             }
         } else {  // This is a private status
             for (String followerLogin : followersForTag) {
                 Collection<UUID> groupIds = userGroupRepository.findGroups(followerLogin);
                 if (groupIds.contains(group.getGroupId())) { // The user is part of the private group
-                    addStatusToTimelineAndNotify(followerLogin, status);
+                    delivery.addToTimeline(followerLogin);
                 }
             }
         }
     }
 
-    /**
-     * A status that mentions a user is put in the user's mentionline and in his timeline.
-     * The mentioned user can also be notified by email or iOS push.
-     */
-    private void mentionUser(String mentionedLogin, Status status) {
-        addStatusToTimelineAndNotify(mentionedLogin, status);
-        mentionService.mentionUser(mentionedLogin, status);
-    }
-
     private String extractUsernameWithoutAt(String dest) {
         return dest.substring(1, dest.length());
     }
@@ -9,6 +9,7 @@ import fr.ippon.tatami.service.dto.StatusDTO;
 import fr.ippon.tatami.service.util.DomainUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 import fr.ippon.tatami.domain.status.*;
 
@@ -81,6 +82,9 @@ public class TimelineService {
     @Inject
     private AtmosphereService atmosphereService;
 
+    @Inject
+    private Environment env;
+
     public StatusDTO getStatus(String statusId) {
         List<String> line = new ArrayList<String>();
         line.add(statusId);
@@ -177,7 +181,43 @@ public class TimelineService {
         return details;
     }
 
+    /**
+     * Builds the DTOs of a line of statuses.
+     * <p/>
+     * The data is fetched in three concurrent waves, instead of one round trip per item : first the statuses, then
+     * the original statuses of the shares and announcements, and finally all their authors.
+     */
     public Collection<StatusDTO> buildStatusList(List<String> line) {
+        return buildStatusList(line, statusRepository.findStatusesByIds(line));
+    }
+
+    /**
+     * Builds the DTOs of statuses found by the search engine.
+     * <p/>
+     * When "tatami.search.hydrateFromIndex" is true, the statuses are built from the fields stored in the search
+     * index : only the statuses with attachments, or indexed without their login, are read from Cassandra.
+     */
+    public Collection<StatusDTO> buildSearchResults(List<Status> searchResults) {
+        boolean hydrateFromIndex = env.getProperty("tatami.search.hydrateFromIndex", Boolean.class, true);
+        List<String> line = new ArrayList<>(searchResults.size());
+        Map<String, AbstractStatus> abstractStatuses = new HashMap<>();
+        Collection<String> statusIdsToRead = new ArrayList<>();
+        for (Status status : searchResults) {
+            String statusId = status.getStatusId().toString();
+            line.add(statusId);
+            if (hydrateFromIndex && status.getLogin() != null && !Boolean.TRUE.equals(status.getHasAttachments())) {
+                abstractStatuses.put(statusId, status);
+            } else {
+                statusIdsToRead.add(statusId);
+            }
+        }
+        if (!statusIdsToRead.isEmpty()) {
+            abstractStatuses.putAll(statusRepository.findStatusesByIds(statusIdsToRead));
+        }
+        return buildStatusList(line, abstractStatuses);
+    }
+
+    private Collection<StatusDTO> buildStatusList(List<String> line, Map<String, AbstractStatus> abstractStatuses) {
         User currentUser = null;
         Collection<Group> usergroups;
         List<String> favoriteLine;
@@ -189,11 +229,33 @@ public class TimelineService {
             usergroups = Collections.emptyList();
             favoriteLine = Collections.emptyList();
         }
+
+        Collection<String> originalStatusIds = new HashSet<>();
+        for (AbstractStatus abstractStatus : abstractStatuses.values()) {
+            String originalStatusId = getOriginalStatusId(abstractStatus);
+            if (originalStatusId != null) {
+                originalStatusIds.add(originalStatusId);
+            }
+        }
+        Map<String, AbstractStatus> originalStatuses = statusRepository.findStatusesByIds(originalStatusIds);
+
+        Collection<String> logins = new HashSet<>();
+        for (AbstractStatus abstractStatus : abstractStatuses.values()) {
+            logins.add(abstractStatus.getLogin());
+            if (abstractStatus.getType().equals(StatusType.MENTION_FRIEND)) {
+                logins.add(((MentionFriend) abstractStatus).getFollowerLogin());
+            }
+        }
+        for (AbstractStatus originalStatus : originalStatuses.values()) {
+            logins.add(originalStatus.getLogin());
+        }
+        Map<String, User> users = userService.getUsersMapByLogin(logins);
+
         Collection<StatusDTO> statuses = new ArrayList<>(line.size());
         for (String statusId : line) {
-            AbstractStatus abstractStatus = statusRepository.findStatusById(statusId);
+            AbstractStatus abstractStatus = abstractStatuses.get(statusId);
             if (abstractStatus != null) {
-                User statusUser = userService.getUserByLogin(abstractStatus.getLogin());
+                User statusUser = users.get(abstractStatus.getLogin());
                 if (statusUser != null) {
                     // Security check
                     // bypass the security check when no user is logged in
@@ -217,22 +279,22 @@ public class TimelineService {
 
                     if (abstractStatus.getType().equals(StatusType.SHARE)) {
                         Share share = (Share) abstractStatus;
-                        AbstractStatus originalStatus = statusRepository.findStatusById(share.getOriginalStatusId());
+                        AbstractStatus originalStatus = originalStatuses.get(share.getOriginalStatusId());
                         if (originalStatus != null) { // Find the original status
                             statusDTO.setTimelineId(share.getStatusId().toString());
                             statusDTO.setSharedByUsername(share.getUsername());
-                            statusUser = userService.getUserByLogin(originalStatus.getLogin());
+                            statusUser = users.get(originalStatus.getLogin());
                             addStatusToLine(statuses, statusDTO, originalStatus, statusUser, usergroups, favoriteLine);
                         } else {
                             log.debug("Original status has been deleted");
                         }
                     } else if (abstractStatus.getType().equals(StatusType.MENTION_SHARE)) {
                         MentionShare mentionShare = (MentionShare) abstractStatus;
-                        AbstractStatus originalStatus = statusRepository.findStatusById(mentionShare.getOriginalStatusId());
+                        AbstractStatus originalStatus = originalStatuses.get(mentionShare.getOriginalStatusId());
                         if (originalStatus != null) { // Find the status that was shared
                             statusDTO.setTimelineId(mentionShare.getStatusId().toString());
                             statusDTO.setSharedByUsername(mentionShare.getUsername());
-                            statusUser = userService.getUserByLogin(mentionShare.getLogin());
+                            statusUser = users.get(mentionShare.getLogin());
                             addStatusToLine(statuses, statusDTO, originalStatus, statusUser, usergroups, favoriteLine);
                         } else {
                             log.debug("Mentioned status has been deleted");
@@ -241,7 +303,7 @@ public class TimelineService {
                         MentionFriend mentionFriend = (MentionFriend) abstractStatus;
                         statusDTO.setTimelineId(mentionFriend.getStatusId().toString());
                         //statusDTO.setSharedByUsername(mentionFriend.getUsername());
-                        statusUser = userService.getUserByLogin(mentionFriend.getFollowerLogin());
+                        statusUser = users.get(mentionFriend.getFollowerLogin());
                         statusDTO.setFirstName(statusUser.getFirstName());
                         statusDTO.setLastName(statusUser.getLastName());
                         statusDTO.setAvatar(statusUser.getAvatar());
@@ -249,11 +311,11 @@ public class TimelineService {
                         statuses.add(statusDTO);
                     } else if (abstractStatus.getType().equals(StatusType.ANNOUNCEMENT)) {
                         Announcement announcement = (Announcement) abstractStatus;
-                        AbstractStatus originalStatus = statusRepository.findStatusById(announcement.getOriginalStatusId());
+                        AbstractStatus originalStatus = originalStatuses.get(announcement.getOriginalStatusId());
                         if (originalStatus != null) { // Find the status that was announced
                             statusDTO.setTimelineId(announcement.getStatusId().toString());
                             statusDTO.setSharedByUsername(announcement.getUsername());
-                            statusUser = userService.getUserByLogin(originalStatus.getLogin());
+                            statusUser = users.get(originalStatus.getLogin());
                             addStatusToLine(statuses, statusDTO, originalStatus, statusUser, usergroups, favoriteLine);
                         } else {
                             log.debug("Announced status has been deleted");
@@ -270,20 +332,40 @@ public class TimelineService {
             }
         }
 
-        for(StatusDTO statusDTO : statuses)
-            statusDTO.setShareByMe(shareByMe(statusDTO));
-
+        if (!statuses.isEmpty()) {
+            Collection<String> statusIds = new ArrayList<>(statuses.size());
+            for (StatusDTO statusDTO : statuses) {
+                statusIds.add(statusDTO.getStatusId());
+            }
+            Map<String, Collection<String>> loginsWhoShared = sharesRepository.findLoginsWhoSharedStatuses(statusIds);
+            User sharingUser = authenticationService.getCurrentUser();
+            for (StatusDTO statusDTO : statuses) {
+                statusDTO.setShareByMe(shareByMe(statusDTO, loginsWhoShared.get(statusDTO.getStatusId()), sharingUser));
+            }
+        }
         return statuses;
     }
 
+    /**
+     * The Id of the status which was shared, mentioned or announced, or null for other types of statuses.
+     */
+    private String getOriginalStatusId(AbstractStatus abstractStatus) {
+        if (abstractStatus.getType().equals(StatusType.SHARE)) {
+            return ((Share) abstractStatus).getOriginalStatusId();
+        } else if (abstractStatus.getType().equals(StatusType.MENTION_SHARE)) {
+            return ((MentionShare) abstractStatus).getOriginalStatusId();
+        } else if (abstractStatus.getType().equals(StatusType.ANNOUNCEMENT)) {
+            return ((Announcement) abstractStatus).getOriginalStatusId();
+        }
+        return null;
+    }
+
     //@Cacheable("isSharedByMe")
-    private Boolean shareByMe(StatusDTO statusDTO)
+    private Boolean shareByMe(StatusDTO statusDTO, Collection<String> loginWhoShare, User currentUser)
     {
         Boolean isSharedByMe;
 
-        Collection<String> loginWhoShare = sharesRepository.findLoginsWhoSharedAStatus(statusDTO.getStatusId());
-        User currentUser = authenticationService.getCurrentUser();
-        if(loginWhoShare.contains(currentUser.getLogin()) )
+        if(loginWhoShare != null && loginWhoShare.contains(currentUser.getLogin()) )
             isSharedByMe = true;
         else if(currentUser.getUsername().equals(statusDTO.getSharedByUsername())) //Greg ce n'est pas normal de devoir faire ça
             isSharedByMe = true;
@@ -619,9 +701,7 @@ public class TimelineService {
         String domain = DomainUtil.getDomainFromLogin(currentLogin);
         List<String> logins = domainRepository.getLoginsInDomain(domain);
         timelineRepository.announceStatusToTimeline(currentLogin, logins, announcement);
-        for (String login : logins) {
-            atmosphereService.notifyUser(login, announcement);
-        }
+        atmosphereService.notifyUsers(logins, announcement);
     }
 
     /**
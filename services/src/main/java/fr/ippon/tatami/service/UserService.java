@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Manages the application's users.
@@ -106,9 +107,10 @@ public class UserService {
      */
     public Collection<User> getUsersByLogin(Collection<String> logins) {
         final Collection<User> users = new ArrayList<User>();
+        Map<String, User> usersByLogin = userRepository.findUsersByLogins(logins);
         User user;
         for (String login : logins) {
-            user = userRepository.findUserByLogin(login);
+            user = usersByLogin.get(login);
             if (user != null) {
                 users.add(user);
             }
@@ -116,10 +118,24 @@ public class UserService {
         return users;
     }
 
-    public List<User> getUsersForCurrentDomain(int pagination) {
+    /**
+     * Return the Users matching a collection of logins, indexed by login.
+     * <p/>
+     * All the users which are not in the cache are fetched concurrently.
+     */
+    public Map<String, User> getUsersMapByLogin(Collection<String> logins) {
+        return userRepository.findUsersByLogins(logins);
+    }
+
+    /**
+     * Return a page of the users of the current domain, in alphabetical order of login.
+     *
+     * @param afterLogin the last login of the previous page, or null for the first page
+     */
+    public List<User> getUsersForCurrentDomain(String afterLogin) {
         User currentUSer = authenticationService.getCurrentUser();
         String domain = DomainUtil.getDomainFromLogin(currentUSer.getLogin());
-        List<String> logins = domainRepository.getLoginsInDomain(domain, pagination);
+        List<String> logins = domainRepository.getLoginsInDomain(domain, afterLogin, Constants.PAGINATION_SIZE);
         List<User> users = new ArrayList<User>();
         for (String login : logins) {
             User user = getUserByLogin(login);
@@ -0,0 +1,302 @@
+package fr.ippon.tatami.service.blob;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-local cache of blobs (attachment files, thumbnails and avatars) on the disk.
+ * <p/>
+ * A blob is stored in a file the first time it is read, and is then sent from the file with
+ * {@link FileChannel#transferTo}, without loading them in the JVM heap : popular blobs stay in the page cache of the
+ * operating system. The least recently used blobs are deleted when the cache exceeds "tatami.blobcache.maxBytes".
+ * <p/>
+ * Blobs are immutable : a blob is only removed from the cache when it is deleted or replaced. The evictions are
+ * published on the "blob-invalidation" channel, so that the other nodes do not keep serving a deleted blob from
+ * their own cache. The cache is emptied when the application starts.
+ */
+@Component
+public class DiskBlobCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskBlobCache.class);
+
+    private static final String CHANNEL = "blob-invalidation";
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private ClusterTransport clusterTransport;
+
+    private boolean enabled;
+
+    private File directory;
+
+    private long maxBytes;
+
+    private long maxEntryBytes;
+
+    /**
+     * The cached blobs, in access order.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    private final ConcurrentMap<String, CompletableFuture<Boolean>> loading = new ConcurrentHashMap<>();
+
+    private final Meter hits = Metrics.newMeter(DiskBlobCache.class, "hits", "blobs", TimeUnit.SECONDS);
+
+    private final Meter misses = Metrics.newMeter(DiskBlobCache.class, "misses", "blobs", TimeUnit.SECONDS);
+
+    private final Meter evictions = Metrics.newMeter(DiskBlobCache.class, "evictions", "blobs", TimeUnit.SECONDS);
+
+    @PostConstruct
+    public void init() {
+        enabled = env.getProperty("tatami.blobcache.enabled", Boolean.class, true);
+        maxBytes = env.getProperty("tatami.blobcache.maxBytes", Long.class, 1024L * 1024 * 1024);
+        maxEntryBytes = env.getProperty("tatami.blobcache.maxEntryBytes", Long.class, 50L * 1024 * 1024);
+        String path = env.getProperty("tatami.blobcache.directory");
+        if (path == null || path.isEmpty()) {
+            path = new File(System.getProperty("java.io.tmpdir"), "tatami-blobcache").getPath();
+        }
+        directory = new File(path);
+        if (enabled) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                log.error("Could not create the blob cache directory {}, the blob cache is disabled", directory);
+                enabled = false;
+            } else {
+                clear();
+                clusterTransport.subscribe(CHANNEL,
+                        message -> evictLocally(new String(message, StandardCharsets.UTF_8)));
+                log.info("Blob cache of {} MB in {}", maxBytes / (1024 * 1024), directory);
+            }
+        }
+
+        Metrics.newGauge(DiskBlobCache.class, "bytes", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                synchronized (entries) {
+                    return size;
+                }
+            }
+        });
+        Metrics.newGauge(DiskBlobCache.class, "entries", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                synchronized (entries) {
+                    return entries.size();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes a range of a blob, from the cache or from its loader.
+     * <p/>
+     * If the blob is not cached, it is read from its loader and stored, unless it is larger than
+     * "tatami.blobcache.maxEntryBytes" : then only the range is read from the loader.
+     *
+     * @param blobSize the size of the blob
+     */
+    public void write(String key, long blobSize, long offset, long length, BlobLoader loader, OutputStream out)
+            throws IOException {
+
+        if (write(key, offset, length, out)) {
+            return;
+        }
+        if (store(key, blobSize, loader) && write(key, offset, length, out)) {
+            return;
+        }
+        loader.load(offset, length, out);
+    }
+
+    /**
+     * Writes a range of a cached blob.
+     *
+     * @return false if the blob is not in the cache
+     */
+    public boolean write(String key, long offset, long length, OutputStream out) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.mark();
+            return false;
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // The file was evicted in the meantime
+            misses.mark();
+            return false;
+        }
+        hits.mark();
+        try {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = offset;
+            long end = Math.min(offset + length, entry.size);
+            while (position < end) {
+                position += channel.transferTo(position, end - position, target);
+            }
+        } finally {
+            channel.close();
+        }
+        return true;
+    }
+
+    /**
+     * Stores a blob. If several threads store the same blob, it is only read once.
+     *
+     * @return false if the blob was not stored
+     */
+    public boolean store(String key, long blobSize, BlobLoader loader) {
+        if (!enabled || blobSize > maxEntryBytes || blobSize > maxBytes) {
+            return false;
+        }
+        CompletableFuture<Boolean> stored = new CompletableFuture<>();
+        CompletableFuture<Boolean> other = loading.putIfAbsent(key, stored);
+        if (other != null) {
+            return other.join();
+        }
+        try {
+            stored.complete(doStore(key, blobSize, loader));
+        } catch (RuntimeException e) {
+            stored.complete(false);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+        return stored.join();
+    }
+
+    public boolean store(String key, byte[] data) {
+        return store(key, data.length, (offset, length, out) -> out.write(data, (int) offset, (int) length));
+    }
+
+    /**
+     * Evicts a blob from the cache of all the nodes.
+     */
+    public void evict(String key) {
+        evictLocally(key);
+        clusterTransport.publish(CHANNEL, key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void evictLocally(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(key);
+            if (entry != null) {
+                size -= entry.size;
+            }
+        }
+        if (entry != null) {
+            delete(entry.file);
+        }
+    }
+
+    private boolean doStore(String key, long blobSize, BlobLoader loader) {
+        synchronized (entries) {
+            if (entries.containsKey(key)) {
+                return true;
+            }
+        }
+        File file = new File(directory, UUID.randomUUID().toString());
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary))) {
+                loader.load(0, blobSize, out);
+            }
+            if (temporary.length() != blobSize) {
+                log.warn("The blob {} has {} bytes instead of {}, it is not cached", key, temporary.length(),
+                        blobSize);
+                delete(temporary);
+                return false;
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not cache the blob {} : {}", key, e.getMessage());
+            delete(temporary);
+            return false;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(key, new Entry(file, blobSize));
+            size += blobSize;
+            if (previous != null) {
+                size -= previous.size;
+                delete(previous.file);
+            }
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (size > maxBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                size -= evicted.size;
+                delete(evicted.file);
+                evictions.mark();
+            }
+        }
+        return true;
+    }
+
+    private void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                delete(file);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warn("Could not delete {}", file);
+        }
+    }
+
+    /**
+     * Reads a range of a blob from its storage.
+     */
+    public interface BlobLoader {
+        void load(long offset, long length, OutputStream out) throws IOException;
+    }
+
+    private static final class Entry {
+
+        private final File file;
+
+        private final long size;
+
+        Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package fr.ippon.tatami.service.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache manager which propagates the evictions to the other nodes of the cluster.
+ * <p/>
+ * The caches of the underlying cache manager are decorated, so that the @CacheEvict annotations and the explicit
+ * evictions of the listed caches are published on the "cache-invalidation" channel. When a node receives an
+ * invalidation, it evicts the entry from its own cache, without publishing it again.
+ * <p/>
+ * Keys which are not Strings cannot be matched on the other nodes : the whole cache is then cleared there.
+ */
+public class ClusterCacheManager implements CacheManager {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterCacheManager.class);
+
+    public static final String CHANNEL = "cache-invalidation";
+
+    private final CacheManager delegate;
+
+    private final ClusterTransport transport;
+
+    private final Set<String> invalidatedCacheNames;
+
+    private final Map<String, Cache> caches = new ConcurrentHashMap<>();
+
+    public ClusterCacheManager(CacheManager delegate, ClusterTransport transport,
+                               Set<String> invalidatedCacheNames) {
+        this.delegate = delegate;
+        this.transport = transport;
+        this.invalidatedCacheNames = invalidatedCacheNames;
+        transport.subscribe(CHANNEL, this::onInvalidation);
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        Cache cache = caches.get(name);
+        if (cache == null) {
+            Cache target = delegate.getCache(name);
+            if (target == null || !invalidatedCacheNames.contains(name)) {
+                return target;
+            }
+            cache = caches.computeIfAbsent(name, n -> new InvalidatingCache(target));
+        }
+        return cache;
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return delegate.getCacheNames();
+    }
+
+    private void publish(String cacheName, Object key) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(cacheName);
+            boolean clear = !(key instanceof String);
+            out.writeBoolean(clear);
+            if (!clear) {
+                out.writeUTF((String) key);
+            }
+            transport.publish(CHANNEL, bytes.toByteArray());
+        } catch (IOException e) {
+            log.warn("Could not publish the invalidation of cache {} : {}", cacheName, e.getMessage());
+        }
+    }
+
+    private void onInvalidation(byte[] message) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            String cacheName = in.readUTF();
+            Cache cache = delegate.getCache(cacheName);
+            if (cache == null) {
+                return;
+            }
+            if (in.readBoolean()) {
+                cache.clear();
+            } else {
+                cache.evict(in.readUTF());
+            }
+        } catch (IOException e) {
+            log.warn("Could not read a cache invalidation : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the evictions of a cache.
+     */
+    private class InvalidatingCache implements Cache {
+
+        private final Cache target;
+
+        InvalidatingCache(Cache target) {
+            this.target = target;
+        }
+
+        @Override
+        public String getName() {
+            return target.getName();
+        }
+
+        @Override
+        public Object getNativeCache() {
+            return target.getNativeCache();
+        }
+
+        @Override
+        public ValueWrapper get(Object key) {
+            return target.get(key);
+        }
+
+        @Override
+        public <T> T get(Object key, Class<T> type) {
+            return target.get(key, type);
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            target.put(key, value);
+        }
+
+        @Override
+        public ValueWrapper putIfAbsent(Object key, Object value) {
+            return target.putIfAbsent(key, value);
+        }
+
+        @Override
+        public void evict(Object key) {
+            target.evict(key);
+            publish(getName(), key);
+        }
+
+        @Override
+        public void clear() {
+            target.clear();
+            publish(getName(), null);
+        }
+    }
+}
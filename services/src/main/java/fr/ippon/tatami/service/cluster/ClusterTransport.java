@@ -0,0 +1,22 @@
+package fr.ippon.tatami.service.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Sends messages to the other nodes of the Tatami cluster.
+ * <p/>
+ * Messages are published to a named channel, and are received by the listeners subscribed to this channel on all
+ * the nodes. Delivery is best-effort, and a node may also receive its own messages : listeners must be idempotent.
+ */
+public interface ClusterTransport {
+
+    /**
+     * Publishes a message to the other nodes.
+     */
+    void publish(String channel, byte[] message);
+
+    /**
+     * Subscribes to the messages of a channel.
+     */
+    void subscribe(String channel, Consumer<byte[]> listener);
+}
@@ -0,0 +1,40 @@
+package fr.ippon.tatami.service.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Cluster transport which delivers the messages inside the JVM, synchronously.
+ * <p/>
+ * It is used for single-node deployments and by the tests, where several components subscribed to the same
+ * transport stand for several nodes.
+ */
+public class InMemoryClusterTransport implements ClusterTransport {
+
+    private final Logger log = LoggerFactory.getLogger(InMemoryClusterTransport.class);
+
+    private final Map<String, List<Consumer<byte[]>>> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        for (Consumer<byte[]> listener : listeners.getOrDefault(channel, Collections.emptyList())) {
+            try {
+                listener.accept(message);
+            } catch (RuntimeException e) {
+                log.warn("Could not deliver a message on channel " + channel, e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> listener) {
+        listeners.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+}
@@ -0,0 +1,145 @@
+package fr.ippon.tatami.service.cluster;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Cluster transport using UDP multicast, so that the nodes do not need to know each other.
+ * <p/>
+ * Each datagram contains the Id of the sending node, which ignores its own messages, the channel and the message.
+ * Datagrams can be lost : the data invalidated through this transport should also expire.
+ */
+public class MulticastClusterTransport implements ClusterTransport {
+
+    private final Logger log = LoggerFactory.getLogger(MulticastClusterTransport.class);
+
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private final UUID nodeId = UUID.randomUUID();
+
+    private final InetAddress group;
+
+    private final int port;
+
+    private final int timeToLive;
+
+    private final Map<String, List<Consumer<byte[]>>> listeners = new ConcurrentHashMap<>();
+
+    private MulticastSocket socket;
+
+    private Thread receiver;
+
+    private volatile boolean running;
+
+    private final Counter sent = Metrics.newCounter(MulticastClusterTransport.class, "sent");
+
+    private final Counter received = Metrics.newCounter(MulticastClusterTransport.class, "received");
+
+    private final Counter errors = Metrics.newCounter(MulticastClusterTransport.class, "errors");
+
+    public MulticastClusterTransport(String group, int port, int timeToLive) throws IOException {
+        this.group = InetAddress.getByName(group);
+        this.port = port;
+        this.timeToLive = timeToLive;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        socket = new MulticastSocket(port);
+        socket.setTimeToLive(timeToLive);
+        socket.joinGroup(group);
+        running = true;
+        receiver = new Thread(this::receive, "TatamiCluster-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        log.info("Joined the cluster on {}:{} as node {}", group.getHostAddress(), port, nodeId);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            socket.leaveGroup(group);
+        } catch (IOException e) {
+            log.debug("Could not leave the cluster : {}", e.getMessage());
+        }
+        socket.close();
+    }
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(nodeId.getMostSignificantBits());
+            out.writeLong(nodeId.getLeastSignificantBits());
+            out.writeUTF(channel);
+            out.writeInt(message.length);
+            out.write(message);
+            byte[] datagram = bytes.toByteArray();
+            if (datagram.length > MAX_DATAGRAM_SIZE) {
+                log.warn("Message on channel {} is too large to be sent : {} bytes", channel, datagram.length);
+                errors.inc();
+                return;
+            }
+            socket.send(new DatagramPacket(datagram, datagram.length, group, port));
+            sent.inc();
+        } catch (IOException e) {
+            errors.inc();
+            log.warn("Could not send a message on channel {} : {}", channel, e.getMessage());
+        }
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> listener) {
+        listeners.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+        while (running) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(packet.getData(), packet.getOffset(), packet.getLength()));
+                UUID sender = new UUID(in.readLong(), in.readLong());
+                if (nodeId.equals(sender)) {
+                    continue;
+                }
+                String channel = in.readUTF();
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                received.inc();
+                for (Consumer<byte[]> listener : listeners.getOrDefault(channel, Collections.emptyList())) {
+                    listener.accept(message);
+                }
+            } catch (SocketException e) {
+                if (running) {
+                    errors.inc();
+                    log.warn("Cluster socket error : {}", e.getMessage());
+                }
+            } catch (IOException | RuntimeException e) {
+                errors.inc();
+                log.warn("Could not handle a cluster message", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package fr.ippon.tatami.service.dto;
+
+import java.io.Serializable;
+
+/**
+ * DTO to present the progress of the status re-indexing.
+ */
+public class ReindexProgressDTO implements Serializable {
+
+    private boolean running;
+
+    private long indexedStatuses;
+
+    private double statusesPerSecond;
+
+    private double progress;
+
+    private long etaSeconds = -1;
+
+    private int segments;
+
+    private int doneSegments;
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void setRunning(boolean running) {
+        this.running = running;
+    }
+
+    public long getIndexedStatuses() {
+        return indexedStatuses;
+    }
+
+    public void setIndexedStatuses(long indexedStatuses) {
+        this.indexedStatuses = indexedStatuses;
+    }
+
+    public double getStatusesPerSecond() {
+        return statusesPerSecond;
+    }
+
+    public void setStatusesPerSecond(double statusesPerSecond) {
+        this.statusesPerSecond = statusesPerSecond;
+    }
+
+    /**
+     * The part of the status table which is indexed, from 0 to 1.
+     */
+    public double getProgress() {
+        return progress;
+    }
+
+    public void setProgress(double progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * The estimated remaining time, or -1 if it is not known yet.
+     */
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    public int getDoneSegments() {
+        return doneSegments;
+    }
+
+    public void setDoneSegments(int doneSegments) {
+        this.doneSegments = doneSegments;
+    }
+
+    @Override
+    public String toString() {
+        return "ReindexProgressDTO{" +
+                "running=" + running +
+                ", indexedStatuses=" + indexedStatuses +
+                ", statusesPerSecond=" + statusesPerSecond +
+                ", progress=" + progress +
+                ", etaSeconds=" + etaSeconds +
+                ", doneSegments=" + doneSegments + "/" + segments +
+                '}';
+    }
+}
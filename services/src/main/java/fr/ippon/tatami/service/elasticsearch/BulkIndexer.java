@@ -0,0 +1,239 @@
+package fr.ippon.tatami.service.elasticsearch;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Buffers the index and delete operations, and sends them to Elasticsearch in bulk requests.
+ * <p/>
+ * Operations are flushed every "flushInterval" milliseconds, or as soon as "maxActions" operations are buffered.
+ * Only the last operation on a document is kept : a document which is indexed and then deleted before the flush
+ * is only deleted.
+ * <p/>
+ * At most "maxPending" operations are buffered : when the buffer is full, the thread adding an operation flushes
+ * the buffer itself, which slows the producers down to the rate of Elasticsearch. The operations of a failed bulk
+ * request, or which failed in a bulk request, are buffered again and sent with the next flush, unless a newer
+ * operation on the same document was buffered meanwhile. They are dropped after MAX_ATTEMPTS attempts.
+ */
+class BulkIndexer {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkIndexer.class);
+
+    static final int MAX_ATTEMPTS = 3;
+
+    private final Supplier<Client> client;
+
+    private final Function<String, String> indexName;
+
+    private final int maxActions;
+
+    private final int maxPending;
+
+    private final Object lock = new Object();
+
+    private Map<String, Operation> pending = new LinkedHashMap<>();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ScheduledExecutorService flusher;
+
+    private final Timer flushes = Metrics.newTimer(BulkIndexer.class, "flush", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+    private final Meter operations = Metrics.newMeter(BulkIndexer.class, "operations", "operations", TimeUnit.SECONDS);
+
+    private final Meter coalesced = Metrics.newMeter(BulkIndexer.class, "coalesced", "operations", TimeUnit.SECONDS);
+
+    private final Meter failures = Metrics.newMeter(BulkIndexer.class, "failures", "operations", TimeUnit.SECONDS);
+
+    private final Meter retries = Metrics.newMeter(BulkIndexer.class, "retries", "operations", TimeUnit.SECONDS);
+
+    BulkIndexer(Supplier<Client> client, Function<String, String> indexName, int maxActions, int maxPending,
+                long flushInterval) {
+        this.client = client;
+        this.indexName = indexName;
+        this.maxActions = Math.max(1, maxActions);
+        this.maxPending = Math.max(this.maxActions, maxPending);
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TatamiBulkIndexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        Metrics.newGauge(BulkIndexer.class, "queue-depth", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return queueDepth();
+            }
+        });
+    }
+
+    void index(String type, String id, XContentBuilder source) {
+        enqueue(new Operation(type, id, source, 1));
+    }
+
+    void delete(String type, String id) {
+        enqueue(new Operation(type, id, null, 1));
+    }
+
+    int queueDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Sends all the buffered operations.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            Map<String, Operation> flushed;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                flushed = pending;
+                pending = new LinkedHashMap<>();
+            }
+            List<Operation> batch = new ArrayList<>(Math.min(maxActions, flushed.size()));
+            for (Operation operation : flushed.values()) {
+                batch.add(operation);
+                if (batch.size() == maxActions) {
+                    send(batch);
+                    batch.clear();
+                }
+            }
+            send(batch);
+        } catch (RuntimeException e) {
+            log.error("Could not flush the operations to Elasticsearch", e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    private void enqueue(Operation operation) {
+        operations.mark();
+        int size;
+        synchronized (lock) {
+            if (pending.put(operation.key(), operation) != null) {
+                coalesced.mark();
+            }
+            size = pending.size();
+        }
+        if (size >= maxPending) {
+            log.debug("{} operations are buffered, flushing them in the calling thread", size);
+            flush();
+        } else if (size == maxActions) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * Buffers a failed operation again, unless it was already sent MAX_ATTEMPTS times.
+     */
+    private void retry(Operation operation, String reason) {
+        if (operation.attempt >= MAX_ATTEMPTS) {
+            failures.mark();
+            log.error("The " + operation.type + " of id " + operation.id + " wasn't sent to Elasticsearch after " +
+                    operation.attempt + " attempts: " + reason);
+            return;
+        }
+        retries.mark();
+        synchronized (lock) {
+            // A newer operation on the document replaces the failed one
+            pending.putIfAbsent(operation.key(), operation.retry());
+        }
+    }
+
+    private void send(List<Operation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        BulkRequestBuilder request = client.get().prepareBulk();
+        for (Operation operation : batch) {
+            String index = indexName.apply(operation.type);
+            if (operation.source == null) {
+                request.add(client.get().prepareDelete(index, operation.type, operation.id));
+            } else {
+                request.add(client.get().prepareIndex(index, operation.type, operation.id).setSource(operation.source));
+            }
+        }
+        TimerContext context = flushes.time();
+        try {
+            BulkResponse response = request.execute().actionGet();
+            if (response.hasFailures()) {
+                for (BulkItemResponse itemResponse : response) {
+                    if (itemResponse.failed()) {
+                        log.warn("The " + itemResponse.getType() + " of id " + itemResponse.getId() +
+                                " wasn't indexed in bulk operation: " + itemResponse.getFailureMessage());
+                        retry(batch.get(itemResponse.getItemId()), itemResponse.getFailureMessage());
+                    }
+                }
+            } else {
+                log.debug("{} operations sent to Elasticsearch in bulk operation.", batch.size());
+            }
+        } catch (ElasticSearchException e) {
+            log.warn(batch.size() + " operations were not sent to Elasticsearch, they will be retried", e);
+            batch.forEach(operation -> retry(operation, e.getMessage()));
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * The last operation on a document : indexing if it has a source, deletion otherwise.
+     */
+    private static final class Operation {
+
+        private final String type;
+
+        private final String id;
+
+        private final XContentBuilder source;
+
+        private final int attempt;
+
+        Operation(String type, String id, XContentBuilder source, int attempt) {
+            this.type = type;
+            this.id = id;
+            this.source = source;
+            this.attempt = attempt;
+        }
+
+        String key() {
+            return type + '/' + id;
+        }
+
+        Operation retry() {
+            return new Operation(type, id, source, attempt + 1);
+        }
+    }
+}
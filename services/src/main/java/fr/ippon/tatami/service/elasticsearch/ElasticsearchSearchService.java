@@ -3,26 +3,28 @@ package fr.ippon.tatami.service.elasticsearch;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import fr.ippon.tatami.domain.Group;
 import fr.ippon.tatami.domain.User;
 import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.domain.status.StatusType;
 import fr.ippon.tatami.repository.GroupRepository;
 import fr.ippon.tatami.service.SearchService;
+import fr.ippon.tatami.service.exception.IndexingException;
 import org.apache.commons.lang.StringUtils;
 import org.elasticsearch.ElasticSearchException;
-import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
-import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.indices.IndexMissingException;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
@@ -31,18 +33,30 @@ import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.core.env.Environment;
 import org.springframework.util.Assert;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import static org.elasticsearch.index.query.FilterBuilders.andFilter;
+import static org.elasticsearch.index.query.FilterBuilders.orFilter;
+import static org.elasticsearch.index.query.FilterBuilders.rangeFilter;
 import static org.elasticsearch.index.query.FilterBuilders.termFilter;
 import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
 
+/**
+ * Search engine backed by Elasticsearch.
+ * <p/>
+ * Documents added or removed one at a time are buffered, and sent in bulk requests by the {@link BulkIndexer} :
+ * they become searchable after at most "elasticsearch.bulk.flushInterval" milliseconds.
+ */
 public class ElasticsearchSearchService implements SearchService {
 
     private static final Logger log = LoggerFactory.getLogger(ElasticsearchSearchService.class);
@@ -60,6 +74,19 @@ public class ElasticsearchSearchService implements SearchService {
     @Inject
     private GroupRepository groupRepository;
 
+    @Inject
+    private Environment env;
+
+    private BulkIndexer bulkIndexer;
+
+    /**
+     * Visibility of the groups, so the statuses of a group don't each need to read the group.
+     */
+    private final Cache<UUID, Boolean> publicGroups = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
     private Client client() {
         return engine.client();
     }
@@ -76,6 +103,15 @@ public class ElasticsearchSearchService implements SearchService {
                 createIndex();
             }
         }
+        bulkIndexer = new BulkIndexer(this::client, this::indexName,
+                env.getProperty("elasticsearch.bulk.maxActions", Integer.class, 500),
+                env.getProperty("elasticsearch.bulk.maxPending", Integer.class, 10000),
+                env.getProperty("elasticsearch.bulk.flushInterval", Long.class, 1000L));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        bulkIndexer.close();
     }
 
     @Override
@@ -185,26 +221,45 @@ public class ElasticsearchSearchService implements SearchService {
                     .field("domain", status.getDomain())
                     .field("username", status.getUsername())
                     .field("statusDate", status.getStatusDate())
-                    .field("content", status.getContent());
+                    .field("content", status.getContent())
+                    .field("login", status.getLogin())
+                    .field("replyTo", status.getReplyTo())
+                    .field("replyToUsername", status.getReplyToUsername())
+                    .field("discussionId", status.getDiscussionId())
+                    .field("geoLocalization", status.getGeoLocalization())
+                    .field("hasAttachments", Boolean.TRUE.equals(status.getHasAttachments()));
 
             if (status.getGroupId() != null) {
-                Group group = groupRepository.getGroupByGroupId(UUID.fromString(status.getGroupId()));
                 source.field("groupId", status.getGroupId());
-                source.field("publicGroup", group.isPublicGroup());
+                source.field("publicGroup", isPublicGroup(UUID.fromString(status.getGroupId())));
             }
             return source.endObject();
         }
     };
 
+    private boolean isPublicGroup(UUID groupId) {
+        try {
+            return publicGroups.get(groupId, () -> {
+                Group group = groupRepository.getGroupByGroupId(groupId);
+                return group != null && group.isPublicGroup();
+            });
+        } catch (ExecutionException e) {
+            log.warn("Could not read the group {} : {}", groupId, e.getMessage());
+            return false;
+        }
+    }
+
     @Override
-    @Async
     public void addStatus(Status status) {
         index(status, statusMapper);
     }
 
     @Override
     public void addStatuses(Collection<Status> statuses) {
-        indexAll(statuses, statusMapper);
+        Collection<String> failedIds = indexAll(statuses, statusMapper);
+        if (!failedIds.isEmpty()) {
+            throw new IndexingException(failedIds.size() + " statuses were not indexed", failedIds);
+        }
     }
 
 
@@ -270,6 +325,93 @@ public class ElasticsearchSearchService implements SearchService {
         }
     }
 
+    @Override
+    public List<Status> searchStatus(String domain,
+                                     String query,
+                                     Date beforeDate,
+                                     String beforeId,
+                                     int size) {
+
+        Assert.notNull(query);
+        Assert.notNull(domain);
+
+        if (size <= 0) {
+            size = SearchService.DEFAULT_PAGE_SIZE;
+        }
+
+        FilterBuilder filter = termFilter("domain", domain);
+        if (beforeDate != null && beforeId != null) {
+            // Statuses sorted after the last status of the previous page
+            long date = beforeDate.getTime();
+            filter = andFilter(filter, orFilter(
+                    rangeFilter("statusDate").lt(date),
+                    andFilter(rangeFilter("statusDate").from(date).to(date), rangeFilter("statusId").lt(beforeId))));
+        }
+
+        try {
+            SearchRequestBuilder searchRequest = client().prepareSearch(indexName(statusMapper.type()))
+                    .setTypes(statusMapper.type())
+                    .setQuery(matchQuery(ALL_FIELD, query))
+                    .setFilter(filter)
+                    .setSize(size)
+                    .addSort("statusDate", SortOrder.DESC)
+                    .addSort("statusId", SortOrder.DESC);
+
+            if (log.isTraceEnabled()) {
+                log.trace("elasticsearch query : " + searchRequest);
+            }
+            SearchResponse searchResponse = searchRequest.execute().actionGet();
+
+            SearchHit[] hits = searchResponse.hits().hits();
+            List<Status> statuses = new ArrayList<Status>(hits.length);
+            for (SearchHit hit : hits) {
+                statuses.add(toStatus(hit));
+            }
+
+            log.debug("search status with words ({}) before {} = {} statuses", query, beforeId, statuses.size());
+            return statuses;
+
+        } catch (IndexMissingException e) {
+            log.warn("The index " + indexName(statusMapper.type()) + " was not found in the Elasticsearch cluster.");
+            return Collections.emptyList();
+
+        } catch (ElasticSearchException e) {
+            log.error("Error happened while searching status in index " + indexName(statusMapper.type()), e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Builds a status from the source of a search hit.
+     * <p/>
+     * Documents indexed before the login was stored only give the Id of the status.
+     */
+    private Status toStatus(SearchHit hit) {
+        Status status = new Status();
+        status.setStatusId(UUID.fromString(hit.getId()));
+        status.setType(StatusType.STATUS);
+        status.setStatusPrivate(false);
+        Object[] sortValues = hit.getSortValues();
+        if (sortValues != null && sortValues.length > 0 && sortValues[0] instanceof Number) {
+            status.setStatusDate(new Date(((Number) sortValues[0]).longValue()));
+        }
+        Map<String, Object> source = hit.getSource();
+        if (source != null) {
+            status.setLogin((String) source.get("login"));
+            status.setDomain((String) source.get("domain"));
+            status.setUsername((String) source.get("username"));
+            status.setContent((String) source.get("content"));
+            status.setGroupId((String) source.get("groupId"));
+            status.setReplyTo((String) source.get("replyTo"));
+            status.setReplyToUsername((String) source.get("replyToUsername"));
+            status.setDiscussionId((String) source.get("discussionId"));
+            status.setGeoLocalization((String) source.get("geoLocalization"));
+            status.setHasAttachments((Boolean) source.get("hasAttachments"));
+            status.setDetailsAvailable(StringUtils.isNotBlank(status.getReplyTo()));
+        }
+        return status;
+    }
+
     private final ElasticsearchMapper<User> userMapper = new ElasticsearchMapper<User>() {
         @Override
         public String id(User user) {
@@ -300,7 +442,6 @@ public class ElasticsearchSearchService implements SearchService {
     };
 
     @Override
-    @Async
     public void addUser(final User user) {
         Assert.notNull(user, "user cannot be null");
         index(user, userMapper);
@@ -352,13 +493,14 @@ public class ElasticsearchSearchService implements SearchService {
     };
 
     @Override
-    @Async
     public void addGroup(Group group) {
+        publicGroups.put(group.getGroupId(), group.isPublicGroup());
         index(group, groupMapper);
     }
 
     @Override
     public void removeGroup(Group group) {
+        publicGroups.invalidate(group.getGroupId());
         delete(group, groupMapper);
     }
 
@@ -375,7 +517,7 @@ public class ElasticsearchSearchService implements SearchService {
 
     /**
      * Indexes an object to elasticsearch.
-     * This method is asynchronous.
+     * The object is sent in the next bulk request.
      *
      * @param object Object to index.
      * @param mapper Converter to JSON.
@@ -384,23 +526,15 @@ public class ElasticsearchSearchService implements SearchService {
         Assert.notNull(object);
         Assert.notNull(mapper);
 
-        final String type = mapper.type();
-        final String id = mapper.id(object);
+        String type = mapper.type();
+        String id = mapper.id(object);
         try {
-            final XContentBuilder source = mapper.toJson(object);
+            XContentBuilder source = mapper.toJson(object);
 
-            log.debug("Ready to index the {} id {} into Elasticsearch: {}", type, id, stringify(source));
-            client().prepareIndex(indexName(type), type, id).setSource(source).execute(new ActionListener<IndexResponse>() {
-                @Override
-                public void onResponse(IndexResponse response) {
-                    log.debug(type + " id " + id + " was " + (response.version() == 1 ? "indexed" : "updated") + " into Elasticsearch");
-                }
-
-                @Override
-                public void onFailure(Throwable e) {
-                    log.error("The " + type + " id " + id + " wasn't indexed : " + stringify(source), e);
-                }
-            });
+            if (log.isDebugEnabled()) {
+                log.debug("Ready to index the {} id {} into Elasticsearch: {}", type, id, stringify(source));
+            }
+            bulkIndexer.index(type, id, source);
 
         } catch (IOException e) {
             log.error("The " + type + " id " + id + " wasn't indexed", e);
@@ -413,13 +547,14 @@ public class ElasticsearchSearchService implements SearchService {
      *
      * @param collection Object to index.
      * @param adapter    Converter to JSON.
+     * @return the ids of the objects which failed in the bulk request, for example because they were rejected
      */
-    private <T> void indexAll(Collection<T> collection, ElasticsearchMapper<T> adapter) {
+    private <T> Collection<String> indexAll(Collection<T> collection, ElasticsearchMapper<T> adapter) {
         Assert.notNull(collection);
         Assert.notNull(adapter);
 
         if (collection.isEmpty())
-            return;
+            return Collections.emptyList();
 
         String type = adapter.type();
         BulkRequestBuilder request = client().prepareBulk();
@@ -439,24 +574,25 @@ public class ElasticsearchSearchService implements SearchService {
         log.debug("Ready to index {} {} into Elasticsearch.", collection.size(), type);
 
         BulkResponse response = request.execute().actionGet();
+        List<String> failedIds = new ArrayList<>();
         if (response.hasFailures()) {
-            int errorCount = 0;
             for (BulkItemResponse itemResponse : response) {
                 if (itemResponse.failed()) {
                     log.error("The " + type + " of id " + itemResponse.getId() + " wasn't indexed in bulk operation: " + itemResponse.getFailureMessage());
-                    ++errorCount;
+                    failedIds.add(itemResponse.getId());
                 }
             }
-            log.error(errorCount + " " + type + " where not indexed in bulk operation.");
+            log.error(failedIds.size() + " " + type + " where not indexed in bulk operation.");
 
         } else {
             log.debug("{} {} indexed into Elasticsearch in bulk operation.", collection.size(), type);
         }
+        return failedIds;
     }
 
     /**
      * delete a document.
-     * This method is asynchronous.
+     * The deletion is sent in the next bulk request.
      *
      * @param object Object to index.
      * @param mapper Converter to JSON.
@@ -465,28 +601,11 @@ public class ElasticsearchSearchService implements SearchService {
         Assert.notNull(object);
         Assert.notNull(mapper);
 
-        final String id = mapper.id(object);
-        final String type = mapper.type();
+        String id = mapper.id(object);
+        String type = mapper.type();
 
         log.debug("Ready to delete the {} of id {} from Elasticsearch: ", type, id);
-
-        client().prepareDelete(indexName(type), type, id).execute(new ActionListener<DeleteResponse>() {
-            @Override
-            public void onResponse(DeleteResponse deleteResponse) {
-                if (log.isDebugEnabled()) {
-                    if (deleteResponse.notFound()) {
-                        log.debug("{} of id {} was not found therefore not deleted.", type, id);
-                    } else {
-                        log.debug("{} of id {} was deleted from Elasticsearch.", type, id);
-                    }
-                }
-            }
-
-            @Override
-            public void onFailure(Throwable e) {
-                log.error("The " + type + " of id " + id + " wasn't deleted from Elasticsearch.", e);
-            }
-        });
+        bulkIndexer.delete(type, id);
     }
 
     private Collection<String> searchByPrefix(String domain, String prefix, int size, ElasticsearchMapper<?> mapper) {
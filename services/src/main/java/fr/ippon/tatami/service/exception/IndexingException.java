@@ -0,0 +1,27 @@
+package fr.ippon.tatami.service.exception;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This exception is thrown when some objects of a bulk request were not indexed by the search engine, for example
+ * because it rejected them while it was busy.
+ */
+public class IndexingException extends RuntimeException {
+
+    private final Set<String> failedIds;
+
+    public IndexingException(String s, Collection<String> failedIds) {
+        super(s);
+        this.failedIds = Collections.unmodifiableSet(new HashSet<>(failedIds));
+    }
+
+    /**
+     * The ids of the objects which were not indexed.
+     */
+    public Set<String> getFailedIds() {
+        return failedIds;
+    }
+}
@@ -0,0 +1,98 @@
+package fr.ippon.tatami.service.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A Lucene index stored on the local disk, with near-real-time searchers.
+ * <p/>
+ * Documents are visible to the searches after the next {@link #refresh()}, and are durable after the next
+ * {@link #commit()}.
+ */
+final class LuceneIndex {
+
+    static final String ID_FIELD = "id";
+
+    private final String name;
+
+    private final Directory directory;
+
+    private final IndexWriter writer;
+
+    private final SearcherManager searcherManager;
+
+    LuceneIndex(String name, File path, Analyzer analyzer) throws IOException {
+        this.name = name;
+        if (!path.isDirectory() && !path.mkdirs()) {
+            throw new IOException("Could not create the directory " + path);
+        }
+        directory = new MMapDirectory(path);
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_36, analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        writer = new IndexWriter(directory, config);
+        searcherManager = new SearcherManager(writer, true, new SearcherFactory());
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void update(String id, Document document) throws IOException {
+        writer.updateDocument(new Term(ID_FIELD, id), document);
+    }
+
+    void delete(String id) throws IOException {
+        writer.deleteDocuments(new Term(ID_FIELD, id));
+    }
+
+    void deleteAll() throws IOException {
+        writer.deleteAll();
+        writer.commit();
+        searcherManager.maybeRefresh();
+    }
+
+    <T> T search(Search<T> search) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return search.search(searcher);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    void refresh() throws IOException {
+        searcherManager.maybeRefresh();
+    }
+
+    void commit() throws IOException {
+        writer.commit();
+    }
+
+    void close() throws IOException {
+        try {
+            searcherManager.close();
+            writer.close();
+        } finally {
+            directory.close();
+        }
+    }
+
+    /**
+     * A search, run with a searcher of the index.
+     */
+    interface Search<T> {
+        T search(IndexSearcher searcher) throws IOException;
+    }
+}
@@ -0,0 +1,487 @@
+package fr.ippon.tatami.service.lucene;
+
+import fr.ippon.tatami.domain.Group;
+import fr.ippon.tatami.domain.User;
+import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.domain.status.StatusType;
+import fr.ippon.tatami.repository.GroupRepository;
+import fr.ippon.tatami.service.SearchService;
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.analysis.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.fr.FrenchAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.core.env.Environment;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search engine backed by Lucene indexes on the local disk, for single-node installations.
+ * <p/>
+ * It has the same semantics as the Elasticsearch engine : statuses are searched in their content and the username
+ * of their author, with a French analysis, and users and groups are searched by the prefixes of the words of their
+ * names. Documents become searchable after at most "lucene.refreshInterval" milliseconds.
+ * <p/>
+ * This engine is used with the "lucene" Spring profile.
+ */
+public class LuceneSearchService implements SearchService {
+
+    private static final Logger log = LoggerFactory.getLogger(LuceneSearchService.class);
+
+    private static final String DOMAIN_FIELD = "domain";
+
+    private static final String ALL_FIELD = "all";
+
+    private static final String PREFIX_FIELD = "prefix";
+
+    private static final String SORT_FIELD = "sort";
+
+    private static final String STATUS_DATE_FIELD = "statusDate";
+
+    private static final int MAX_PREFIX_LENGTH = 30;
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private GroupRepository groupRepository;
+
+    private final Analyzer analyzer = new StatusAnalyzer();
+
+    private LuceneIndex statusIndex;
+
+    private LuceneIndex userIndex;
+
+    private LuceneIndex groupIndex;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() throws IOException {
+        File directory = new File(env.getProperty("lucene.directory",
+                System.getProperty("java.io.tmpdir") + File.separator + "tatami-lucene"));
+        log.info("Opening the Lucene indexes in {}", directory.getAbsolutePath());
+        statusIndex = new LuceneIndex("status", new File(directory, "status"), analyzer);
+        userIndex = new LuceneIndex("user", new File(directory, "user"), analyzer);
+        groupIndex = new LuceneIndex("group", new File(directory, "group"), analyzer);
+
+        long refreshInterval = env.getProperty("lucene.refreshInterval", Long.class, 1000L);
+        long commitInterval = env.getProperty("lucene.commitInterval", Long.class, 60000L);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TatamiLucene");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdown();
+        for (LuceneIndex index : indexes()) {
+            try {
+                index.commit();
+                index.close();
+            } catch (IOException e) {
+                log.error("Could not close the Lucene index " + index.getName(), e);
+            }
+        }
+    }
+
+    @Override
+    public boolean reset() {
+        log.info("Reseting Lucene indexes");
+        for (LuceneIndex index : indexes()) {
+            try {
+                index.deleteAll();
+            } catch (IOException e) {
+                log.error("Lucene index " + index.getName() + " was not reset", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void addStatus(Status status) {
+        Assert.notNull(status, "status cannot be null");
+        update(statusIndex, status.getStatusId().toString(), toDocument(status));
+    }
+
+    @Override
+    public void addStatuses(Collection<Status> statuses) {
+        for (Status status : statuses) {
+            addStatus(status);
+        }
+    }
+
+    @Override
+    public void removeStatus(Status status) {
+        Assert.notNull(status, "status cannot be null");
+        delete(statusIndex, status.getStatusId().toString());
+    }
+
+    @Override
+    public List<String> searchStatus(String domain, String query, int page, int size) {
+        Assert.notNull(query);
+        Assert.notNull(domain);
+
+        if (page < 0) {
+            page = 0; //Default value
+        }
+        if (size <= 0) {
+            size = SearchService.DEFAULT_PAGE_SIZE;
+        }
+        Query luceneQuery = statusQuery(domain, query, null, null);
+        if (luceneQuery == null) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>(size);
+        for (Document document : search(statusIndex, luceneQuery, page * size, size, statusSort())) {
+            ids.add(document.get(LuceneIndex.ID_FIELD));
+        }
+        log.debug("search status with words ({}) = {}", query, ids);
+        return ids;
+    }
+
+    @Override
+    public List<Status> searchStatus(String domain, String query, Date beforeDate, String beforeId, int size) {
+        Assert.notNull(query);
+        Assert.notNull(domain);
+
+        if (size <= 0) {
+            size = SearchService.DEFAULT_PAGE_SIZE;
+        }
+        Query luceneQuery = statusQuery(domain, query, beforeDate, beforeId);
+        if (luceneQuery == null) {
+            return Collections.emptyList();
+        }
+        List<Document> documents = search(statusIndex, luceneQuery, 0, size, statusSort());
+        List<Status> statuses = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            statuses.add(toStatus(document));
+        }
+        log.debug("search status with words ({}) before {} = {} statuses", query, beforeId, statuses.size());
+        return statuses;
+    }
+
+    @Override
+    public void addUser(User user) {
+        Assert.notNull(user, "user cannot be null");
+        Document document = new Document();
+        document.add(new Field(LuceneIndex.ID_FIELD, user.getLogin(), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        document.add(new Field(DOMAIN_FIELD, lowerCase(user.getDomain()), Field.Store.NO, Field.Index.NOT_ANALYZED));
+        document.add(new Field(SORT_FIELD, lowerCase(user.getUsername()), Field.Store.NO, Field.Index.NOT_ANALYZED));
+        addPrefixes(document, user.getUsername(), user.getFirstName(), user.getLastName());
+        update(userIndex, user.getLogin(), document);
+    }
+
+    @Override
+    public void addUsers(Collection<User> users) {
+        for (User user : users) {
+            addUser(user);
+        }
+    }
+
+    @Override
+    public void removeUser(User user) {
+        delete(userIndex, user.getLogin());
+    }
+
+    @Override
+    @Cacheable("user-prefix-cache")
+    public Collection<String> searchUserByPrefix(String domain, String prefix) {
+        return searchByPrefix(userIndex, domain, prefix, DEFAULT_TOP_N_SEARCH_USER);
+    }
+
+    @Override
+    public void addGroup(Group group) {
+        String id = group.getGroupId().toString();
+        Document document = new Document();
+        document.add(new Field(LuceneIndex.ID_FIELD, id, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        document.add(new Field(DOMAIN_FIELD, lowerCase(group.getDomain()), Field.Store.NO, Field.Index.NOT_ANALYZED));
+        document.add(new Field(SORT_FIELD, lowerCase(group.getName()), Field.Store.NO, Field.Index.NOT_ANALYZED));
+        addPrefixes(document, group.getName());
+        update(groupIndex, id, document);
+    }
+
+    @Override
+    public void removeGroup(Group group) {
+        delete(groupIndex, group.getGroupId().toString());
+    }
+
+    @Override
+    @Cacheable("group-prefix-cache")
+    public Collection<Group> searchGroupByPrefix(String domain, String prefix, int size) {
+        Collection<String> ids = searchByPrefix(groupIndex, domain, prefix, size);
+        List<Group> groups = new ArrayList<Group>(ids.size());
+        for (String id : ids) {
+            groups.add(groupRepository.getGroupByGroupId(UUID.fromString(id)));
+        }
+        return groups;
+    }
+
+    private Document toDocument(Status status) {
+        Document document = new Document();
+        document.add(new Field(LuceneIndex.ID_FIELD, status.getStatusId().toString(), Field.Store.YES,
+                Field.Index.NOT_ANALYZED));
+        document.add(new Field(DOMAIN_FIELD, lowerCase(status.getDomain()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        document.add(new NumericField(STATUS_DATE_FIELD, Field.Store.YES, true)
+                .setLongValue(status.getStatusDate().getTime()));
+        document.add(new Field(ALL_FIELD, StringUtils.defaultString(status.getUsername()) + ' ' +
+                StringUtils.defaultString(status.getContent()), Field.Store.NO, Field.Index.ANALYZED));
+        store(document, "login", status.getLogin());
+        store(document, "username", status.getUsername());
+        store(document, "content", status.getContent());
+        store(document, "groupId", status.getGroupId());
+        store(document, "replyTo", status.getReplyTo());
+        store(document, "replyToUsername", status.getReplyToUsername());
+        store(document, "discussionId", status.getDiscussionId());
+        store(document, "geoLocalization", status.getGeoLocalization());
+        store(document, "hasAttachments", String.valueOf(Boolean.TRUE.equals(status.getHasAttachments())));
+        return document;
+    }
+
+    private Status toStatus(Document document) {
+        Status status = new Status();
+        status.setStatusId(UUID.fromString(document.get(LuceneIndex.ID_FIELD)));
+        status.setType(StatusType.STATUS);
+        status.setStatusPrivate(false);
+        status.setStatusDate(new Date(Long.parseLong(document.get(STATUS_DATE_FIELD))));
+        status.setDomain(document.get(DOMAIN_FIELD));
+        status.setLogin(document.get("login"));
+        status.setUsername(document.get("username"));
+        status.setContent(document.get("content"));
+        status.setGroupId(document.get("groupId"));
+        status.setReplyTo(document.get("replyTo"));
+        status.setReplyToUsername(document.get("replyToUsername"));
+        status.setDiscussionId(document.get("discussionId"));
+        status.setGeoLocalization(document.get("geoLocalization"));
+        status.setHasAttachments(Boolean.valueOf(document.get("hasAttachments")));
+        status.setDetailsAvailable(StringUtils.isNotBlank(status.getReplyTo()));
+        return status;
+    }
+
+    /**
+     * The statuses of a domain matching any of the words of a query, sorted after a status if it is given.
+     *
+     * @return null if the query has no word to search
+     */
+    private Query statusQuery(String domain, String query, Date beforeDate, String beforeId) {
+        BooleanQuery words = new BooleanQuery();
+        for (String term : analyze(query)) {
+            words.add(new TermQuery(new Term(ALL_FIELD, term)), BooleanClause.Occur.SHOULD);
+        }
+        if (words.clauses().isEmpty()) {
+            return null;
+        }
+        BooleanQuery luceneQuery = new BooleanQuery();
+        luceneQuery.add(words, BooleanClause.Occur.MUST);
+        luceneQuery.add(new TermQuery(new Term(DOMAIN_FIELD, lowerCase(domain))), BooleanClause.Occur.MUST);
+        if (beforeDate != null && beforeId != null) {
+            long date = beforeDate.getTime();
+            BooleanQuery sameDate = new BooleanQuery();
+            sameDate.add(NumericRangeQuery.newLongRange(STATUS_DATE_FIELD, date, date, true, true),
+                    BooleanClause.Occur.MUST);
+            sameDate.add(new TermRangeQuery(LuceneIndex.ID_FIELD, null, beforeId, false, false),
+                    BooleanClause.Occur.MUST);
+            BooleanQuery before = new BooleanQuery();
+            before.add(NumericRangeQuery.newLongRange(STATUS_DATE_FIELD, null, date, false, false),
+                    BooleanClause.Occur.SHOULD);
+            before.add(sameDate, BooleanClause.Occur.SHOULD);
+            luceneQuery.add(before, BooleanClause.Occur.MUST);
+        }
+        return luceneQuery;
+    }
+
+    private Sort statusSort() {
+        return new Sort(new SortField(STATUS_DATE_FIELD, SortField.LONG, true),
+                new SortField(LuceneIndex.ID_FIELD, SortField.STRING, true));
+    }
+
+    private Collection<String> searchByPrefix(LuceneIndex index, String domain, String prefix, int size) {
+        BooleanQuery prefixes = new BooleanQuery();
+        for (String word : words(prefix)) {
+            prefixes.add(new TermQuery(new Term(PREFIX_FIELD, StringUtils.left(word, MAX_PREFIX_LENGTH))),
+                    BooleanClause.Occur.SHOULD);
+        }
+        if (prefixes.clauses().isEmpty()) {
+            return Collections.emptyList();
+        }
+        BooleanQuery luceneQuery = new BooleanQuery();
+        luceneQuery.add(prefixes, BooleanClause.Occur.MUST);
+        luceneQuery.add(new TermQuery(new Term(DOMAIN_FIELD, lowerCase(domain))), BooleanClause.Occur.MUST);
+
+        List<String> ids = new ArrayList<>(size);
+        for (Document document : search(index, luceneQuery, 0, size, new Sort(new SortField(SORT_FIELD, SortField.STRING)))) {
+            ids.add(document.get(LuceneIndex.ID_FIELD));
+        }
+        log.debug("search " + index.getName() + " by prefix(\"" + domain + "\", \"" + prefix + "\") = result : " + ids);
+        return ids;
+    }
+
+    private List<Document> search(LuceneIndex index, Query query, int from, int size, Sort sort) {
+        try {
+            return index.search(searcher -> {
+                TopDocs topDocs = searcher.search(query, from + size, sort);
+                List<Document> documents = new ArrayList<>(size);
+                ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+                for (int i = from; i < scoreDocs.length; i++) {
+                    documents.add(searcher.doc(scoreDocs[i].doc));
+                }
+                return documents;
+            });
+        } catch (IOException e) {
+            log.error("Error happened while searching in the Lucene index " + index.getName(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void update(LuceneIndex index, String id, Document document) {
+        try {
+            index.update(id, document);
+        } catch (IOException e) {
+            log.error("The " + index.getName() + " id " + id + " wasn't indexed", e);
+        }
+    }
+
+    private void delete(LuceneIndex index, String id) {
+        try {
+            index.delete(id);
+        } catch (IOException e) {
+            log.error("The " + index.getName() + " of id " + id + " wasn't deleted from the Lucene index.", e);
+        }
+    }
+
+    void refresh() {
+        for (LuceneIndex index : indexes()) {
+            try {
+                index.refresh();
+            } catch (IOException e) {
+                log.error("Could not refresh the Lucene index " + index.getName(), e);
+            }
+        }
+    }
+
+    private void commit() {
+        for (LuceneIndex index : indexes()) {
+            try {
+                index.commit();
+            } catch (IOException e) {
+                log.error("Could not commit the Lucene index " + index.getName(), e);
+            }
+        }
+    }
+
+    private List<LuceneIndex> indexes() {
+        return Arrays.asList(statusIndex, userIndex, groupIndex);
+    }
+
+    private List<String> analyze(String text) {
+        List<String> terms = new ArrayList<>();
+        try {
+            TokenStream stream = analyzer.tokenStream(ALL_FIELD, new StringReader(text));
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+            stream.close();
+        } catch (IOException e) {
+            log.warn("Could not analyze the query {} : {}", text, e.getMessage());
+        }
+        return terms;
+    }
+
+    /**
+     * Indexes all the prefixes of the words of the names, as the "prefixIndex" Elasticsearch analyzer.
+     */
+    private static void addPrefixes(Document document, String... names) {
+        Set<String> prefixes = new HashSet<>();
+        for (String name : names) {
+            for (String word : words(name)) {
+                for (int i = 1; i <= Math.min(word.length(), MAX_PREFIX_LENGTH); i++) {
+                    prefixes.add(word.substring(0, i));
+                }
+            }
+        }
+        for (String prefix : prefixes) {
+            document.add(new Field(PREFIX_FIELD, prefix, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+        }
+    }
+
+    /**
+     * The lower case words of a text, without accents.
+     */
+    private static List<String> words(String text) {
+        if (StringUtils.isBlank(text)) {
+            return Collections.emptyList();
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{InCombiningDiacriticalMarks}+", "")
+                .toLowerCase();
+        List<String> words = new ArrayList<>();
+        for (String word : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static String lowerCase(String value) {
+        return value == null ? "" : value.toLowerCase();
+    }
+
+    private static void store(Document document, String name, String value) {
+        if (value != null) {
+            document.add(new Field(name, value, Field.Store.YES, Field.Index.NO));
+        }
+    }
+
+    /**
+     * French analysis without accents, as the default Elasticsearch analyzer of the statuses.
+     */
+    private static final class StatusAnalyzer extends Analyzer {
+
+        private final Analyzer french = new FrenchAnalyzer(Version.LUCENE_36);
+
+        @Override
+        public TokenStream tokenStream(String fieldName, Reader reader) {
+            return new ASCIIFoldingFilter(french.tokenStream(fieldName, reader));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package fr.ippon.tatami.service.trends;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space-Saving summary : counts the most frequent tags with a bounded number of counters.
+ * <p/>
+ * When all the counters are used, the least frequent tag is replaced by the new one, which inherits its count. The
+ * count of a frequent tag may then be over-estimated, but a tag used more often than 1 / capacity of the time is
+ * never lost.
+ */
+final class SpaceSaving {
+
+    private final int capacity;
+
+    private final Map<String, long[]> counts;
+
+    SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.counts = new HashMap<>(capacity * 2);
+    }
+
+    void add(String tag) {
+        long[] count = counts.get(tag);
+        if (count != null) {
+            count[0]++;
+            return;
+        }
+        if (counts.size() < capacity) {
+            counts.put(tag, new long[]{1});
+            return;
+        }
+        String leastFrequentTag = null;
+        long min = Long.MAX_VALUE;
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            if (entry.getValue()[0] < min) {
+                min = entry.getValue()[0];
+                leastFrequentTag = entry.getKey();
+            }
+        }
+        count = counts.remove(leastFrequentTag);
+        count[0]++;
+        counts.put(tag, count);
+    }
+
+    long count(String tag) {
+        long[] count = counts.get(tag);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * Adds the counts of this summary to the given totals.
+     */
+    void addTo(Map<String, Long> totals) {
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            totals.merge(entry.getKey(), entry.getValue()[0], Long::sum);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package fr.ippon.tatami.service.trends;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import fr.ippon.tatami.repository.TagCounterRepository;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of all the tags of each domain, used to autocomplete the tags.
+ * <p/>
+ * The index is rebuilt from the tag counters when the application starts, and is then kept up to date by the
+ * statuses posted on this node and on the other nodes of the cluster. Tags are ranked by number of uses.
+ * <p/>
+ * The rebuild is disabled when "tatami.tags.index.rebuild" is false.
+ */
+@Component
+public class TagIndex {
+
+    private final Logger log = LoggerFactory.getLogger(TagIndex.class);
+
+    private static final String CHANNEL = "tag-index";
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private TagCounterRepository tagCounterRepository;
+
+    @Inject
+    private ClusterTransport clusterTransport;
+
+    private final UUID nodeId = UUID.randomUUID();
+
+    private final ConcurrentMap<String, TagTrie> domains = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        clusterTransport.subscribe(CHANNEL, this::onRemoteTag);
+        if (env.getProperty("tatami.tags.index.rebuild", Boolean.class, true)) {
+            Thread rebuild = new Thread(this::rebuild, "TatamiTagIndex-rebuild");
+            rebuild.setDaemon(true);
+            rebuild.start();
+        }
+
+        Metrics.newGauge(TagIndex.class, "tags", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                long tags = 0;
+                for (TagTrie trie : domains.values()) {
+                    tags += trie.size();
+                }
+                return tags;
+            }
+        });
+    }
+
+    /**
+     * Reads all the tag counters from Cassandra.
+     * <p/>
+     * Tags used during the rebuild are not counted twice : the counter read from Cassandra only replaces the number
+     * of uses of a tag if it is higher.
+     */
+    public void rebuild() {
+        log.info("Rebuilding the tag index");
+        long start = System.currentTimeMillis();
+        try {
+            tagCounterRepository.findAllTagCounters((domain, tag, count) -> trie(domain).addAtLeast(tag, count));
+            log.info("Tag index rebuilt in {} ms", System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            log.error("Could not rebuild the tag index", e);
+        }
+    }
+
+    public void tagUsed(String domain, String tag) {
+        trie(domain).add(tag, 1);
+        publish(domain, tag);
+    }
+
+    /**
+     * Returns the most used tags of a domain starting with a prefix, ignoring case.
+     */
+    public List<String> search(String domain, String prefix, int size) {
+        TagTrie trie = domains.get(domain);
+        if (trie == null) {
+            return Collections.emptyList();
+        }
+        return trie.search(prefix, size);
+    }
+
+    private TagTrie trie(String domain) {
+        return domains.computeIfAbsent(domain, d -> new TagTrie());
+    }
+
+    private void publish(String domain, String tag) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(nodeId.getMostSignificantBits());
+            out.writeLong(nodeId.getLeastSignificantBits());
+            out.writeUTF(domain);
+            out.writeUTF(tag);
+            clusterTransport.publish(CHANNEL, bytes.toByteArray());
+        } catch (IOException e) {
+            log.warn("Could not publish the use of tag {} : {}", tag, e.getMessage());
+        }
+    }
+
+    private void onRemoteTag(byte[] message) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            if (nodeId.equals(new UUID(in.readLong(), in.readLong()))) {
+                return;
+            }
+            String domain = in.readUTF();
+            trie(domain).add(in.readUTF(), 1);
+        } catch (IOException e) {
+            log.warn("Could not read the use of a tag : {}", e.getMessage());
+        }
+    }
+}
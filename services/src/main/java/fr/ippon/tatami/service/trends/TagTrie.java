@@ -0,0 +1,175 @@
+package fr.ippon.tatami.service.trends;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Prefix tree of the tags of a domain, with their number of uses.
+ * <p/>
+ * Tags are indexed in lower case. The children of a node are kept in sorted arrays, and each node knows the highest
+ * number of uses in its sub-tree, so the most used tags starting with a prefix are found without visiting all the
+ * matching tags.
+ */
+final class TagTrie {
+
+    private static final char[] NO_KEYS = new char[0];
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Node root = new Node();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int size = 0;
+
+    /**
+     * Adds uses to a tag.
+     */
+    void add(String tag, long uses) {
+        update(tag, uses, false);
+    }
+
+    /**
+     * Sets the number of uses of a tag, unless it is already higher.
+     */
+    void addAtLeast(String tag, long uses) {
+        update(tag, uses, true);
+    }
+
+    /**
+     * Returns the most used tags starting with a prefix, ignoring case.
+     */
+    List<String> search(String prefix, int size) {
+        List<String> tags = new ArrayList<>(size);
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            String key = prefix.toLowerCase();
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) {
+                return tags;
+            }
+            // Best-first walk : a sub-tree is only opened when it may contain one of the most used tags
+            PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+            candidates.add(new Candidate(node, false));
+            while (!candidates.isEmpty() && tags.size() < size) {
+                Candidate candidate = candidates.poll();
+                if (candidate.tag) {
+                    tags.add(candidate.node.tag);
+                    continue;
+                }
+                if (candidate.node.tag != null) {
+                    candidates.add(new Candidate(candidate.node, true));
+                }
+                for (Node child : candidate.node.children) {
+                    candidates.add(new Candidate(child, false));
+                }
+            }
+            return tags;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void update(String tag, long uses, boolean atLeast) {
+        String key = tag.toLowerCase();
+        lock.writeLock().lock();
+        try {
+            Node[] path = new Node[key.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < key.length(); i++) {
+                path[i + 1] = path[i].getOrCreateChild(key.charAt(i));
+            }
+            Node node = path[key.length()];
+            if (node.tag == null) {
+                size++;
+            }
+            // Prefer the spelling of the statuses to the lower case tags read from the counters
+            if (node.tag == null || node.tag.equals(key)) {
+                node.tag = tag;
+            }
+            node.count = atLeast ? Math.max(node.count, uses) : node.count + uses;
+            for (Node parent : path) {
+                parent.best = Math.max(parent.best, node.count);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static final class Node {
+
+        private char[] keys = NO_KEYS;
+
+        private Node[] children = NO_CHILDREN;
+
+        private String tag;
+
+        private long count;
+
+        private long best;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node getOrCreateChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertion = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            newKeys[insertion] = c;
+            newChildren[insertion] = new Node();
+            System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[insertion];
+        }
+    }
+
+    /**
+     * A tag, or a sub-tree which may contain tags, ordered by number of uses.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+
+        private final Node node;
+
+        private final boolean tag;
+
+        Candidate(Node node, boolean tag) {
+            this.node = node;
+            this.tag = tag;
+        }
+
+        long uses() {
+            return tag ? node.count : node.best;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int compare = Long.compare(other.uses(), uses());
+            if (compare == 0) {
+                // Tags before sub-trees of the same number of uses
+                return Boolean.compare(other.tag, tag);
+            }
+            return compare;
+        }
+    }
+}
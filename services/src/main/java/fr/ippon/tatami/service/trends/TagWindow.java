@@ -0,0 +1,122 @@
+package fr.ippon.tatami.service.trends;
+
+import fr.ippon.tatami.web.rest.dto.Trend;
+
+import java.util.*;
+
+/**
+ * The tags used in a domain or by a user, counted over sliding time windows.
+ * <p/>
+ * Each window is divided in slices, and a ring of twice as many slices is kept, so that the tags used during the
+ * window can be compared with the tags used during the previous one. Each slice is a Space-Saving summary, so the
+ * memory used by a window does not depend on the number of tags.
+ */
+final class TagWindow {
+
+    private final Level[] levels;
+
+    /**
+     * @param windowsMillis the durations of the windows, shortest first
+     * @param slices        the number of slices of each window
+     * @param capacity      the number of tags counted in each slice
+     */
+    TagWindow(long[] windowsMillis, int slices, int capacity) {
+        levels = new Level[windowsMillis.length];
+        for (int i = 0; i < windowsMillis.length; i++) {
+            levels[i] = new Level(Math.max(1, windowsMillis[i] / slices), slices, capacity);
+        }
+    }
+
+    synchronized void add(String tag, long timeMillis) {
+        for (Level level : levels) {
+            level.add(tag, timeMillis);
+        }
+    }
+
+    /**
+     * Returns the most used tags, over the shortest window in which at least "size" tags were used.
+     * <p/>
+     * A tag is trending up if it was used at least as often during the window as during the previous one.
+     */
+    synchronized List<Trend> trends(int size, long nowMillis) {
+        Map<String, Long> recent = new HashMap<>();
+        Map<String, Long> previous = new HashMap<>();
+        for (Level level : levels) {
+            recent.clear();
+            previous.clear();
+            level.count(nowMillis, recent, previous);
+            Set<String> tags = new HashSet<>(recent.keySet());
+            tags.addAll(previous.keySet());
+            if (tags.size() >= size) {
+                break;
+            }
+        }
+        Map<String, Long> totals = new HashMap<>(recent);
+        previous.forEach((tag, count) -> totals.merge(tag, count, Long::sum));
+        List<String> mostUsedTags = new ArrayList<>(totals.keySet());
+        mostUsedTags.sort(Comparator.comparing((String tag) -> totals.get(tag)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+
+        List<Trend> trends = new ArrayList<>();
+        for (String tag : mostUsedTags.subList(0, Math.min(size, mostUsedTags.size()))) {
+            Trend trend = new Trend();
+            trend.setTag(tag);
+            trend.setTrendingUp(recent.getOrDefault(tag, 0L) >= previous.getOrDefault(tag, 0L));
+            trends.add(trend);
+        }
+        return trends;
+    }
+
+    /**
+     * A window, as a ring of slices.
+     */
+    private static final class Level {
+
+        private final long sliceMillis;
+
+        private final int slices;
+
+        private final int capacity;
+
+        private final SpaceSaving[] ring;
+
+        private final long[] ringSlots;
+
+        Level(long sliceMillis, int slices, int capacity) {
+            this.sliceMillis = sliceMillis;
+            this.slices = slices;
+            this.capacity = capacity;
+            this.ring = new SpaceSaving[slices * 2];
+            this.ringSlots = new long[slices * 2];
+        }
+
+        void add(String tag, long timeMillis) {
+            long slot = timeMillis / sliceMillis;
+            int index = (int) (slot % ring.length);
+            if (ring[index] == null || ringSlots[index] != slot) {
+                if (ring[index] != null && ringSlots[index] > slot) {
+                    // Older than the whole ring
+                    return;
+                }
+                ring[index] = new SpaceSaving(capacity);
+                ringSlots[index] = slot;
+            }
+            ring[index].add(tag);
+        }
+
+        void count(long nowMillis, Map<String, Long> recent, Map<String, Long> previous) {
+            long currentSlot = nowMillis / sliceMillis;
+            for (int i = 0; i < ring.length; i++) {
+                if (ring[i] == null) {
+                    continue;
+                }
+                long age = currentSlot - ringSlots[i];
+                if (age >= 0 && age < slices) {
+                    ring[i].addTo(recent);
+                } else if (age >= slices && age < 2 * slices) {
+                    ring[i].addTo(previous);
+                }
+            }
+        }
+    }
+}
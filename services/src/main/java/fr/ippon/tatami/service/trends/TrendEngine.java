@@ -0,0 +1,204 @@
+package fr.ippon.tatami.service.trends;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import fr.ippon.tatami.repository.TrendRepository;
+import fr.ippon.tatami.repository.UserTrendRepository;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import fr.ippon.tatami.web.rest.dto.Trend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.*;
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Computes the trends of the domains and of the users, in memory, from the tags used in the statuses.
+ * <p/>
+ * Tags are counted over sliding windows ("tatami.trends.windows", in seconds), with a memory which does not depend
+ * on the number of statuses. The window of a domain or of a user is loaded from Cassandra when its trends are first
+ * read, and is then kept up to date by the statuses posted on this node and on the other nodes of the cluster.
+ */
+@Component
+public class TrendEngine {
+
+    private final Logger log = LoggerFactory.getLogger(TrendEngine.class);
+
+    private static final String CHANNEL = "trend-tags";
+
+    private static final int DOMAIN_LOADED_TAGS = 1000;
+
+    private static final int USER_LOADED_TAGS = 200;
+
+    @Inject
+    private Environment env;
+
+    @Inject
+    private TrendRepository trendRepository;
+
+    @Inject
+    private UserTrendRepository userTrendRepository;
+
+    @Inject
+    private ClusterTransport clusterTransport;
+
+    private final UUID nodeId = UUID.randomUUID();
+
+    private Clock clock = Clock.systemUTC();
+
+    private long[] windowsMillis;
+
+    private int slices;
+
+    private int domainCapacity;
+
+    private int userCapacity;
+
+    private final ConcurrentMap<String, TagWindow> domains = new ConcurrentHashMap<>();
+
+    private Cache<String, TagWindow> users;
+
+    @PostConstruct
+    public void init() {
+        String[] windows = env.getProperty("tatami.trends.windows", "3600,86400,604800").split(",");
+        windowsMillis = new long[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            windowsMillis[i] = Long.parseLong(windows[i].trim()) * 1000;
+        }
+        Arrays.sort(windowsMillis);
+        slices = Math.max(1, env.getProperty("tatami.trends.slices", Integer.class, 6));
+        domainCapacity = env.getProperty("tatami.trends.domain.capacity", Integer.class, 64);
+        userCapacity = env.getProperty("tatami.trends.user.capacity", Integer.class, 16);
+        users = CacheBuilder.newBuilder()
+                .maximumSize(env.getProperty("tatami.trends.users", Long.class, 10000L))
+                .build();
+        clusterTransport.subscribe(CHANNEL, this::onRemoteTag);
+
+        Metrics.newGauge(TrendEngine.class, "domains", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return domains.size();
+            }
+        });
+        Metrics.newGauge(TrendEngine.class, "users", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return users.size();
+            }
+        });
+        log.debug("Computing trends over windows of {} seconds", Arrays.toString(windows));
+    }
+
+    /**
+     * Counts a tag used in a status.
+     *
+     * @param domainTrend false if the tag should only count in the trends of the user
+     */
+    public void tagUsed(String domain, String login, String tag, boolean domainTrend) {
+        String trendDomain = domainTrend ? domain : null;
+        long time = clock.millis();
+        record(trendDomain, login, tag, time);
+        publish(trendDomain, login, tag, time);
+    }
+
+    public List<Trend> getDomainTrends(String domain, int size) {
+        TagWindow window = window(domains, domain, domainCapacity,
+                () -> trendRepository.getRecentTagsById(domain, DOMAIN_LOADED_TAGS));
+        return window.trends(size, clock.millis());
+    }
+
+    public List<Trend> getUserTrends(String login, int size) {
+        TagWindow window = window(users.asMap(), login, userCapacity,
+                () -> userTrendRepository.getRecentTagsById(login, USER_LOADED_TAGS));
+        return window.trends(size, clock.millis());
+    }
+
+    /**
+     * Forgets all the tags : they are loaded again from Cassandra on the next read.
+     */
+    public void clear() {
+        domains.clear();
+        users.invalidateAll();
+    }
+
+    private TagWindow window(ConcurrentMap<String, TagWindow> windows, String key, int capacity,
+                             Supplier<Map<UUID, String>> loader) {
+
+        TagWindow window = windows.get(key);
+        if (window != null) {
+            return window;
+        }
+        // Register the window before loading it, so tags used during the load are not lost
+        long loadTime = clock.millis();
+        TagWindow newWindow = new TagWindow(windowsMillis, slices, capacity);
+        window = windows.putIfAbsent(key, newWindow);
+        if (window != null) {
+            return window;
+        }
+        for (Map.Entry<UUID, String> tag : loader.get().entrySet()) {
+            long time = UUIDs.unixTimestamp(tag.getKey());
+            if (time < loadTime) {
+                newWindow.add(tag.getValue(), time);
+            }
+        }
+        return newWindow;
+    }
+
+    private void record(String domain, String login, String tag, long time) {
+        if (domain != null) {
+            TagWindow window = domains.get(domain);
+            if (window != null) {
+                window.add(tag, time);
+            }
+        }
+        TagWindow window = users.getIfPresent(login);
+        if (window != null) {
+            window.add(tag, time);
+        }
+    }
+
+    private void publish(String domain, String login, String tag, long time) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(nodeId.getMostSignificantBits());
+            out.writeLong(nodeId.getLeastSignificantBits());
+            out.writeBoolean(domain != null);
+            if (domain != null) {
+                out.writeUTF(domain);
+            }
+            out.writeUTF(login);
+            out.writeUTF(tag);
+            out.writeLong(time);
+            clusterTransport.publish(CHANNEL, bytes.toByteArray());
+        } catch (IOException e) {
+            log.warn("Could not publish the use of tag {} : {}", tag, e.getMessage());
+        }
+    }
+
+    private void onRemoteTag(byte[] message) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            if (nodeId.equals(new UUID(in.readLong(), in.readLong()))) {
+                return;
+            }
+            String domain = in.readBoolean() ? in.readUTF() : null;
+            String login = in.readUTF();
+            String tag = in.readUTF();
+            record(domain, login, tag, in.readLong());
+        } catch (IOException e) {
+            log.warn("Could not read the use of a tag : {}", e.getMessage());
+        }
+    }
+}
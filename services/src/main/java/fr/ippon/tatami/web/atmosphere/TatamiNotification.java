@@ -1,25 +1,20 @@
 package fr.ippon.tatami.web.atmosphere;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import fr.ippon.tatami.service.dto.StatusDTO;
 
 import java.io.Serializable;
 
 /**
- * Tatami notification : contains the user to be notified and the StatusDTO to display.
+ * Tatami notification : contains the StatusDTO to display.
+ * <p/>
+ * The same notification is broadcast to all the users who receive the status, so it is serialized only once.
  */
 public class TatamiNotification implements Serializable {
 
-    private String login;
-
     private StatusDTO statusDTO;
 
-    public String getLogin() {
-        return login;
-    }
-
-    public void setLogin(String login) {
-        this.login = login;
-    }
+    private String json;
 
     public StatusDTO getStatusDTO() {
         return statusDTO;
@@ -29,6 +24,18 @@ public class TatamiNotification implements Serializable {
         this.statusDTO = statusDTO;
     }
 
+    /**
+     * The JSON representation of this notification, which is written to the clients.
+     */
+    @JsonIgnore
+    public String getJson() {
+        return json;
+    }
+
+    public void setJson(String json) {
+        this.json = json;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -36,7 +43,6 @@ public class TatamiNotification implements Serializable {
 
         TatamiNotification that = (TatamiNotification) o;
 
-        if (!login.equals(that.login)) return false;
         if (!statusDTO.equals(that.statusDTO)) return false;
 
         return true;
@@ -44,16 +50,13 @@ public class TatamiNotification implements Serializable {
 
     @Override
     public int hashCode() {
-        int result = login.hashCode();
-        result = 31 * result + statusDTO.hashCode();
-        return result;
+        return statusDTO.hashCode();
     }
 
     @Override
     public String toString() {
         return "TatamiNotification{" +
-                "login='" + login + '\'' +
-                ", statusDTO=" + statusDTO +
+                "statusDTO=" + statusDTO +
                 "} " + super.toString();
     }
 }
@@ -0,0 +1,86 @@
+package fr.ippon.tatami.repository;
+
+import fr.ippon.tatami.AbstractCassandraTatamiTest;
+import fr.ippon.tatami.domain.Attachment;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class AttachmentRepositoryTest extends AbstractCassandraTatamiTest {
+
+    @Inject
+    public AttachmentRepository attachmentRepository;
+
+    @Test
+    public void shouldStreamTheContentInChunks() throws Exception {
+        byte[] content = randomContent(600 * 1024);
+        Attachment attachment = newAttachment();
+
+        assertThat(attachmentRepository.createAttachment(attachment, new ByteArrayInputStream(content),
+                Long.MAX_VALUE), is(true));
+
+        assertThat(attachment.getSize(), is((long) content.length));
+        assertThat(attachment.getContentHash(),
+                is(String.format("%064x", new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(content)))));
+
+        Attachment stored = attachmentRepository.findAttachmentMetadataById(attachment.getAttachmentId());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        attachmentRepository.readContent(stored, 0, stored.getSize(), out);
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    public void shouldAbortWhenTheContentIsTooLarge() throws IOException {
+        Attachment attachment = newAttachment();
+
+        assertThat(attachmentRepository.createAttachment(attachment,
+                new ByteArrayInputStream(randomContent(600 * 1024)), 300 * 1024), is(false));
+
+        assertThat(attachment.getAttachmentId(), nullValue());
+    }
+
+    @Test
+    public void shouldStoreIdenticalContentsOnce() throws IOException {
+        byte[] content = randomContent(300 * 1024);
+        Attachment first = newAttachment();
+        Attachment second = newAttachment();
+        attachmentRepository.createAttachment(first, new ByteArrayInputStream(content), Long.MAX_VALUE);
+        attachmentRepository.createAttachment(second, new ByteArrayInputStream(content), Long.MAX_VALUE);
+
+        assertThat(second.getBodyId(), is(first.getBodyId()));
+
+        // The content is still used by the second attachment
+        assertThat(attachmentRepository.deleteAttachment(first), is(false));
+        Attachment stored = attachmentRepository.findAttachmentMetadataById(second.getAttachmentId());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        attachmentRepository.readContent(stored, 0, stored.getSize(), out);
+        assertArrayEquals(content, out.toByteArray());
+
+        assertThat(attachmentRepository.deleteAttachment(stored), is(true));
+    }
+
+    private static Attachment newAttachment() {
+        Attachment attachment = new Attachment();
+        attachment.setFilename("file.bin");
+        attachment.setCreationDate(new Date());
+        return attachment;
+    }
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+}
@@ -1,14 +1,18 @@
 package fr.ippon.tatami.repository;
 
 import fr.ippon.tatami.AbstractCassandraTatamiTest;
+import fr.ippon.tatami.config.Constants;
 import fr.ippon.tatami.domain.DigestType;
 import org.junit.Test;
 
 import javax.inject.Inject;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -37,7 +41,8 @@ public class MailDigestRepositoryTest extends AbstractCassandraTatamiTest {
 
         mailDigestRepository.subscribeToDigest(DigestType.WEEKLY_DIGEST, login, domain, day);
 
-        List<String> logins = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.WEEKLY_DIGEST, domain, day, 0);
+        List<String> logins = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.WEEKLY_DIGEST, domain, day,
+                null, Constants.PAGINATION_SIZE);
         assertThat(logins, notNullValue());
         assertTrue(logins.contains(login));
 
@@ -54,7 +59,8 @@ public class MailDigestRepositoryTest extends AbstractCassandraTatamiTest {
 
         mailDigestRepository.subscribeToDigest(DigestType.DAILY_DIGEST, login, domain, day);
 
-        List<String> logins = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.DAILY_DIGEST, domain, day, 0);
+        List<String> logins = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.DAILY_DIGEST, domain, day,
+                null, Constants.PAGINATION_SIZE);
         assertThat(logins, notNullValue());
         assertTrue(logins.contains(login));
 
@@ -70,7 +76,8 @@ public class MailDigestRepositoryTest extends AbstractCassandraTatamiTest {
 
         mailDigestRepository.unsubscribeFromDigest(DigestType.WEEKLY_DIGEST, login, domain, day);
 
-        List<String> logins = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.WEEKLY_DIGEST, domain, day, 0);
+        List<String> logins = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.WEEKLY_DIGEST, domain, day,
+                null, Constants.PAGINATION_SIZE);
         assertThat(logins, notNullValue());
         assertTrue(!logins.contains(login));
 
@@ -86,9 +93,43 @@ public class MailDigestRepositoryTest extends AbstractCassandraTatamiTest {
 
         mailDigestRepository.unsubscribeFromDigest(DigestType.DAILY_DIGEST, login, domain, day);
 
-        List<String> logins = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.DAILY_DIGEST, domain, day, 0);
+        List<String> logins = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.DAILY_DIGEST, domain, day,
+                null, Constants.PAGINATION_SIZE);
         assertThat(logins, notNullValue());
         assertTrue(!logins.contains(login));
 
     }
+
+    @Test
+    public void shouldReadEachSubscriptionOnceWhenPaginating() {
+        log.debug("In shouldReadEachSubscriptionOnceWhenPaginating");
+
+        String domain = "digestpagination.fr";
+        String day = String.valueOf(Calendar.getInstance().get(Calendar.DAY_OF_WEEK));
+        int subscriptions = 120;
+        for (int i = 0; i < subscriptions; i++) {
+            mailDigestRepository.subscribeToDigest(DigestType.DAILY_DIGEST, "user" + i + "@" + domain, domain, day);
+        }
+
+        Set<String> logins = new HashSet<String>();
+        int rowsRead = 0;
+        int pages = 0;
+        String afterLogin = null;
+        List<String> page;
+        do {
+            page = mailDigestRepository.getLoginsRegisteredToDigest(DigestType.DAILY_DIGEST, domain, day,
+                    afterLogin, Constants.PAGINATION_SIZE);
+            rowsRead += page.size();
+            pages++;
+            logins.addAll(page);
+            if (!page.isEmpty()) {
+                afterLogin = page.get(page.size() - 1);
+            }
+        } while (page.size() == Constants.PAGINATION_SIZE);
+
+        // each page starts after the previous one : every subscription is read exactly once
+        assertEquals(subscriptions, logins.size());
+        assertEquals(subscriptions, rowsRead);
+        assertEquals(subscriptions / Constants.PAGINATION_SIZE + 1, pages);
+    }
 }
@@ -1,5 +1,6 @@
 package fr.ippon.tatami.repository;
 
+import com.datastax.driver.core.utils.UUIDs;
 import fr.ippon.tatami.AbstractCassandraTatamiTest;
 import fr.ippon.tatami.domain.status.AbstractStatus;
 import fr.ippon.tatami.domain.status.Status;
@@ -9,8 +10,14 @@ import javax.inject.Inject;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import java.util.ArrayList;
-
-import static org.hamcrest.Matchers.notNullValue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
 public class StatusRepositoryTest extends AbstractCassandraTatamiTest {
@@ -35,6 +42,72 @@ public class StatusRepositoryTest extends AbstractCassandraTatamiTest {
         assertThat(foundStatus, notNullValue());
     }
 
+    @Test
+    public void shouldFindStatusesByIds() {
+        String login = "jdubois@ippon.fr";
+        Status first = statusRepository.createStatus(login, false, null, new ArrayList<>(),
+                "first", "", "", "", null);
+        Status second = statusRepository.createStatus(login, false, null, new ArrayList<>(),
+                "second", "", "", "", null);
+        String unknownId = UUIDs.timeBased().toString();
+
+        Map<String, AbstractStatus> statuses = statusRepository.findStatusesByIds(Arrays.asList(
+                first.getStatusId().toString(), second.getStatusId().toString(), unknownId));
+
+        assertThat(statuses.size(), is(2));
+        assertThat(((Status) statuses.get(first.getStatusId().toString())).getContent(), is("first"));
+        assertThat(((Status) statuses.get(second.getStatusId().toString())).getContent(), is("second"));
+        assertThat(statuses.containsKey(unknownId), is(false));
+    }
+
+    @Test
+    public void shouldScanTheStatusesByTokenRange() {
+        String login = "jdubois@ippon.fr";
+        Status first = statusRepository.createStatus(login, false, null, new ArrayList<>(),
+                "first scanned", "", "", "", null);
+        Status second = statusRepository.createStatus(login, false, null, new ArrayList<>(),
+                "second scanned", "", "", "", null);
+        Status privateStatus = statusRepository.createStatus(login, true, null, new ArrayList<>(),
+                "private", "", "", "", null);
+
+        List<UUID> scanned = new ArrayList<>();
+        long[][] ranges = {{Long.MIN_VALUE, 0}, {0, Long.MAX_VALUE}};
+        for (long[] range : ranges) {
+            long token = range[0];
+            while (token != range[1]) {
+                long next = statusRepository.scanStatuses(token, range[1], 2,
+                        status -> scanned.add(status.getStatusId()));
+                assertThat(next, greaterThan(token));
+                token = next;
+            }
+        }
+
+        assertThat(new HashSet<>(scanned).size(), is(scanned.size()));
+        assertThat(scanned, hasItems(first.getStatusId(), second.getStatusId()));
+        assertThat(scanned, not(hasItem(privateStatus.getStatusId())));
+    }
+
+    @Test
+    public void shouldScanAllTheIndexedFields() {
+        String login = "jdubois@ippon.fr";
+        Status reply = statusRepository.createStatus(login, false, null, new ArrayList<>(),
+                "scanned reply", "fa2bd770-9848-11e1-a6ca-e0f847068d52", "fa2bd770-9848-11e1-a6ca-e0f847068d52",
+                "jmartin", "48.54654,3.87987987");
+        Status withAttachment = statusRepository.createStatus(login, false, null,
+                Collections.singletonList(UUID.randomUUID().toString()), "scanned attachment", "", "", "", null);
+
+        Status scannedReply = scan(reply.getStatusId());
+        Status scannedAttachment = scan(withAttachment.getStatusId());
+
+        assertThat(scannedReply.getContent(), is("scanned reply"));
+        assertThat(scannedReply.getDiscussionId(), is("fa2bd770-9848-11e1-a6ca-e0f847068d52"));
+        assertThat(scannedReply.getReplyTo(), is("fa2bd770-9848-11e1-a6ca-e0f847068d52"));
+        assertThat(scannedReply.getReplyToUsername(), is("jmartin"));
+        assertThat(scannedReply.getGeoLocalization(), is("48.54654,3.87987987"));
+        assertThat(scannedReply.getHasAttachments(), is(false));
+        assertThat(scannedAttachment.getHasAttachments(), is(true));
+    }
+
     @Test(expected = ValidationException.class)
     public void shouldNotCreateAStatusBecauseLoginNull() {
         String login = null;
@@ -95,4 +168,16 @@ public class StatusRepositoryTest extends AbstractCassandraTatamiTest {
         statusRepository.createStatus(login, false, null, new ArrayList<String>(),
                 content, "", "", "", null);
     }
-}
\ No newline at end of file
+
+    /**
+     * Scans the token of a status only.
+     */
+    private Status scan(UUID statusId) {
+        long token = session.execute("SELECT token(statusId) FROM testTatami.status WHERE statusId = ?", statusId)
+                .one().getLong(0);
+        List<Status> scanned = new ArrayList<>();
+        statusRepository.scanStatuses(token - 1, token, 10, scanned::add);
+        assertThat(scanned.size(), is(1));
+        return scanned.get(0);
+    }
+}
@@ -0,0 +1,111 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import fr.ippon.tatami.AbstractCassandraTatamiTest;
+import fr.ippon.tatami.domain.UserCounters;
+import org.junit.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CassandraCounterRepositoryTest extends AbstractCassandraTatamiTest {
+
+    @Inject
+    private CassandraCounterRepository counterRepository;
+
+    @Test
+    public void shouldReadPendingAndFlushedCounters() {
+        String login = "counters@ippon.fr";
+        counterRepository.createStatusCounter(login);
+        counterRepository.incrementStatusCounter(login);
+        counterRepository.incrementStatusCounter(login);
+        counterRepository.incrementFollowersCounter(login);
+
+        assertThat(counterRepository.getStatusCounter(login), is(2L));
+
+        counterRepository.flush();
+        counterRepository.decrementStatusCounter(login);
+        counterRepository.incrementFriendsCounter(login);
+
+        UserCounters counters = counterRepository.getCounters(login);
+        assertThat(counters.getStatusCount(), is(1L));
+        assertThat(counters.getFollowersCount(), is(1L));
+        assertThat(counters.getFriendsCount(), is(1L));
+
+        counterRepository.flush();
+        Map<String, UserCounters> allCounters = counterRepository.getCounters(Arrays.asList(login, "nocounters@ippon.fr"));
+        assertThat(allCounters.get(login).getStatusCount(), is(1L));
+        assertThat(allCounters.get(login).getFriendsCount(), is(1L));
+        assertThat(allCounters.get("nocounters@ippon.fr").getStatusCount(), is(0L));
+
+        counterRepository.deleteCounters(login);
+    }
+
+    @Test
+    public void shouldNotLoseIncrementsDuringFlushes() throws Exception {
+        String login = "concurrentcounters@ippon.fr";
+        counterRepository.createStatusCounter(login);
+        // The pending counters are removed as soon as they are idle, to race with the increments
+        Object target = AopTestUtils.getUltimateTargetObject(counterRepository);
+        ReflectionTestUtils.setField(target, "maxIdleFlushes", 0);
+        try {
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Thread thread = new Thread(() -> {
+                    for (int j = 0; j < 500; j++) {
+                        counterRepository.incrementStatusCounter(login);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            while (threads.stream().anyMatch(Thread::isAlive)) {
+                counterRepository.flush();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            counterRepository.flush();
+
+            assertThat(counterRepository.getStatusCounter(login), is(2000L));
+        } finally {
+            ReflectionTestUtils.setField(target, "maxIdleFlushes", 60);
+            counterRepository.deleteCounters(login);
+        }
+    }
+
+    @Test
+    public void shouldEvictTheCachedUserOnceTheCountersAreFlushed() {
+        String login = "cachedcounters@ippon.fr";
+        counterRepository.createStatusCounter(login);
+        CacheManager cacheManager = new ConcurrentMapCacheManager("user-cache", "suggest-users-cache");
+        cacheManager.getCache("user-cache").put(login, "user");
+        cacheManager.getCache("suggest-users-cache").put(login, "suggestions");
+        Object target = AopTestUtils.getUltimateTargetObject(counterRepository);
+        ReflectionTestUtils.setField(target, "cacheManager", cacheManager);
+        try {
+            counterRepository.incrementFriendsCounter(login);
+
+            assertThat(cacheManager.getCache("user-cache").get(login), notNullValue());
+
+            counterRepository.flush();
+
+            assertThat(cacheManager.getCache("user-cache").get(login), nullValue());
+            assertThat(cacheManager.getCache("suggest-users-cache").get(login), nullValue());
+        } finally {
+            ReflectionTestUtils.setField(target, "cacheManager", null);
+            counterRepository.deleteCounters(login);
+        }
+    }
+}
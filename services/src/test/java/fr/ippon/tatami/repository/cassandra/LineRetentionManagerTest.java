@@ -0,0 +1,39 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.utils.UUIDs;
+import fr.ippon.tatami.AbstractCassandraTatamiTest;
+import fr.ippon.tatami.repository.TimelineRepository;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+import static fr.ippon.tatami.config.ColumnFamilyKeys.TIMELINE_CF;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LineRetentionManagerTest extends AbstractCassandraTatamiTest {
+
+    @Inject
+    private LineRetentionManager lineRetentionManager;
+
+    @Inject
+    private TimelineRepository timelineRepository;
+
+    @Test
+    public void shouldTrimTheOldestStatuses() {
+        String login = "retention@ippon.fr";
+        List<String> statusIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String statusId = UUIDs.timeBased().toString();
+            statusIds.add(0, statusId);
+            timelineRepository.addStatusToTimeline(login, statusId);
+        }
+
+        assertThat(lineRetentionManager.trim(TIMELINE_CF, login, 3), is(2));
+        assertThat(timelineRepository.getTimeline(login, 10, null, null), is(statusIds.subList(0, 3)));
+
+        assertThat(lineRetentionManager.trim(TIMELINE_CF, login, 3), is(0));
+    }
+}
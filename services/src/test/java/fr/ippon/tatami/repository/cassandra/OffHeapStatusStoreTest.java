@@ -0,0 +1,125 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.utils.UUIDs;
+import fr.ippon.tatami.domain.Attachment;
+import fr.ippon.tatami.domain.status.Share;
+import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.domain.status.StatusType;
+import org.junit.Test;
+import org.springframework.cache.Cache;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class OffHeapStatusStoreTest {
+
+    @Test
+    public void shouldDecodeACachedStatus() {
+        OffHeapStatusStore store = new OffHeapStatusStore();
+        store.init(1024 * 1024, 64 * 1024);
+        Status status = status("Un statut en français");
+        Attachment attachment = new Attachment();
+        attachment.setAttachmentId("attachment");
+        attachment.setFilename("image.png");
+        attachment.setSize(42);
+        status.setAttachments(Collections.singletonList(attachment));
+        status.setHasAttachments(true);
+
+        store.put(status.getStatusId(), status);
+        Status cached = (Status) store.get(status.getStatusId()).get();
+
+        assertThat(cached.getStatusId(), is(status.getStatusId()));
+        assertThat(cached.getType(), is(StatusType.STATUS));
+        assertThat(cached.getContent(), is("Un statut en français"));
+        assertThat(cached.getLogin(), is("jdubois@ippon.fr"));
+        assertThat(cached.getDomain(), is("ippon.fr"));
+        assertThat(cached.getStatusDate(), is(status.getStatusDate()));
+        assertThat(cached.getStatusPrivate(), is(false));
+        assertThat(cached.getGroupId(), nullValue());
+        assertThat(cached.getAttachments().iterator().next().getFilename(), is("image.png"));
+        assertThat(cached.getAttachments().iterator().next().getSize(), is(42L));
+    }
+
+    @Test
+    public void shouldCacheSharesAndMissingStatuses() {
+        OffHeapStatusStore store = new OffHeapStatusStore();
+        store.init(1024 * 1024, 64 * 1024);
+        Share share = new Share();
+        share.setStatusId(UUIDs.timeBased());
+        share.setType(StatusType.SHARE);
+        share.setLogin("jdubois@ippon.fr");
+        share.setDomain("ippon.fr");
+        share.setOriginalStatusId(UUIDs.timeBased().toString());
+        UUID missingId = UUIDs.timeBased();
+
+        store.put(share.getStatusId(), share);
+        store.put(missingId, null);
+
+        assertThat(((Share) store.get(share.getStatusId()).get()).getOriginalStatusId(),
+                is(share.getOriginalStatusId()));
+        Cache.ValueWrapper missing = store.get(missingId);
+        assertThat(missing, notNullValue());
+        assertThat(missing.get(), nullValue());
+        assertThat(store.get(UUIDs.timeBased()), nullValue());
+    }
+
+    @Test
+    public void shouldEvictTheOldestPage() {
+        OffHeapStatusStore store = new OffHeapStatusStore();
+        store.init(2 * 1024, 1024);
+        Status first = status("first");
+        store.put(first.getStatusId(), first);
+        for (int i = 0; i < 100; i++) {
+            Status status = status("status " + i);
+            store.put(status.getStatusId(), status);
+        }
+
+        assertThat(store.get(first.getStatusId()), nullValue());
+        assertThat(store.size(), lessThan(100));
+    }
+
+    @Test
+    public void shouldNotCacheAStatusReadBeforeItsEviction() {
+        OffHeapStatusStore store = new OffHeapStatusStore();
+        store.init(1024 * 1024, 64 * 1024);
+        Status status = status("stale");
+        long generation = store.generation();
+
+        store.evict(status.getStatusId());
+        store.put(status.getStatusId(), status, generation);
+
+        assertThat(store.get(status.getStatusId()), nullValue());
+
+        store.put(status.getStatusId(), status, store.generation());
+
+        assertThat(store.get(status.getStatusId()), notNullValue());
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() {
+        OffHeapStatusStore store = new OffHeapStatusStore();
+        store.init(0, 1024);
+        Status status = status("content");
+
+        store.put(status.getStatusId(), status);
+
+        assertThat(store.get(status.getStatusId()), nullValue());
+    }
+
+    private Status status(String content) {
+        Status status = new Status();
+        status.setStatusId(UUIDs.timeBased());
+        status.setType(StatusType.STATUS);
+        status.setLogin("jdubois@ippon.fr");
+        status.setUsername("jdubois");
+        status.setDomain("ippon.fr");
+        status.setStatusDate(new Date());
+        status.setContent(content);
+        status.setStatusPrivate(false);
+        return status;
+    }
+}
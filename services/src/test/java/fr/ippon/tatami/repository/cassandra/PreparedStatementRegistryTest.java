@@ -0,0 +1,28 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.PreparedStatement;
+import fr.ippon.tatami.AbstractCassandraTatamiTest;
+import org.junit.Test;
+
+import javax.inject.Inject;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PreparedStatementRegistryTest extends AbstractCassandraTatamiTest {
+
+    @Inject
+    private PreparedStatementRegistry statements;
+
+    @Test
+    public void shouldPrepareAQueryOncePerClass() {
+        String cql = "SELECT status FROM timeline WHERE key = ? LIMIT 1";
+        PreparedStatement read = statements.prepare(QueryClass.LINE_READ, cql);
+        PreparedStatement write = statements.prepare(QueryClass.LINE_WRITE, cql);
+
+        assertThat(statements.prepare(QueryClass.LINE_READ, cql), is(sameInstance(read)));
+        assertThat(write, is(not(sameInstance(read))));
+        assertThat(read.isIdempotent(), is(true));
+        assertThat(write.isIdempotent(), is(false));
+    }
+}
@@ -0,0 +1,70 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.utils.UUIDs;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import fr.ippon.tatami.service.cluster.InMemoryClusterTransport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TimelineBufferCacheTest {
+
+    private TimelineBufferCache firstNode;
+
+    private TimelineBufferCache secondNode;
+
+    @Before
+    public void setUp() {
+        ClusterTransport transport = new InMemoryClusterTransport();
+        firstNode = newCache(transport);
+        secondNode = newCache(transport);
+    }
+
+    @Test
+    public void shouldAddTheStatusesWrittenOnAnotherNode() {
+        String first = UUIDs.timeBased().toString();
+        String second = UUIDs.timeBased().toString();
+        List<String> timeline = new ArrayList<>(Collections.singletonList(first));
+        secondNode.getTimeline("jdubois@ippon.fr", 10, size -> timeline);
+
+        firstNode.addStatus(Arrays.asList("jdubois@ippon.fr", "uncleBob@ippon.fr"), second);
+
+        assertThat(secondNode.getTimeline("jdubois@ippon.fr", 10, size -> Collections.emptyList()),
+                is(Arrays.asList(second, first)));
+    }
+
+    @Test
+    public void shouldEvictOnAllNodes() {
+        AtomicInteger loads = new AtomicInteger();
+        secondNode.getTimeline("jdubois@ippon.fr", 10, size -> {
+            loads.incrementAndGet();
+            return Collections.emptyList();
+        });
+
+        firstNode.evict("jdubois@ippon.fr");
+        secondNode.getTimeline("jdubois@ippon.fr", 10, size -> {
+            loads.incrementAndGet();
+            return Collections.emptyList();
+        });
+
+        assertThat(loads.get(), is(2));
+    }
+
+    private static TimelineBufferCache newCache(ClusterTransport transport) {
+        TimelineBufferCache cache = new TimelineBufferCache();
+        ReflectionTestUtils.setField(cache, "env", new MockEnvironment());
+        ReflectionTestUtils.setField(cache, "clusterTransport", transport);
+        cache.init();
+        return cache;
+    }
+}
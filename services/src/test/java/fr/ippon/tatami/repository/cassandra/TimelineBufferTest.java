@@ -0,0 +1,73 @@
+package fr.ippon.tatami.repository.cassandra;
+
+import com.datastax.driver.core.utils.UUIDs;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class TimelineBufferTest {
+
+    @Test
+    public void shouldNotAnswerBeforeBeingLoaded() {
+        TimelineBuffer buffer = new TimelineBuffer(10);
+        buffer.add(UUIDs.timeBased());
+
+        assertThat(buffer.newest(1), nullValue());
+    }
+
+    @Test
+    public void shouldAnswerForShortTimelines() {
+        List<String> statusIds = statusIds(2);
+        TimelineBuffer buffer = new TimelineBuffer(10);
+
+        buffer.load(Arrays.asList(statusIds.get(1), statusIds.get(0)), true);
+
+        assertThat(buffer.newest(20), is(Arrays.asList(statusIds.get(1), statusIds.get(0))));
+    }
+
+    @Test
+    public void shouldKeepTheNewestStatusesFirst() {
+        List<String> statusIds = statusIds(5);
+        TimelineBuffer buffer = new TimelineBuffer(3);
+
+        buffer.load(Arrays.asList(statusIds.get(3), statusIds.get(2), statusIds.get(1)), false);
+        buffer.add(UUID.fromString(statusIds.get(4)));
+
+        assertThat(buffer.size(), is(3));
+        assertThat(buffer.newest(3), is(Arrays.asList(statusIds.get(4), statusIds.get(3), statusIds.get(2))));
+        assertThat(buffer.newest(4), nullValue());
+    }
+
+    @Test
+    public void shouldInsertOlderStatusesInOrder() {
+        List<String> statusIds = statusIds(4);
+        TimelineBuffer buffer = new TimelineBuffer(3);
+
+        buffer.load(Arrays.asList(statusIds.get(3), statusIds.get(1)), true);
+        buffer.add(UUID.fromString(statusIds.get(2)));
+        buffer.add(UUID.fromString(statusIds.get(0))); // older than the oldest status of a full buffer
+        buffer.add(UUID.fromString(statusIds.get(3))); // duplicate
+
+        assertThat(buffer.newest(3), is(Arrays.asList(statusIds.get(3), statusIds.get(2), statusIds.get(1))));
+        assertThat(buffer.newest(4), nullValue());
+    }
+
+    /**
+     * Time-based Ids, oldest first.
+     */
+    private List<String> statusIds(int count) {
+        List<String> statusIds = new ArrayList<>();
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            statusIds.add(UUIDs.startOf(time + i).toString());
+        }
+        return statusIds;
+    }
+}
@@ -0,0 +1,68 @@
+package fr.ippon.tatami.service;
+
+import fr.ippon.tatami.domain.User;
+import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.security.AuthenticationService;
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import fr.ippon.tatami.service.cluster.InMemoryClusterTransport;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class AtmosphereServiceTest {
+
+    @Test
+    public void shouldNotifyTheUsersOfTheOtherNodes() {
+        ClusterTransport transport = new InMemoryClusterTransport();
+        PresenceService localPresence = mock(PresenceService.class);
+        PresenceService remotePresence = mock(PresenceService.class);
+        AuthenticationService remoteAuthentication = authenticationService();
+        AtmosphereService local = atmosphereService(transport, localPresence, authenticationService());
+        atmosphereService(transport, remotePresence, remoteAuthentication);
+
+        List<String> recipients = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            recipients.add("user" + i + "@ippon.fr");
+        }
+        when(remotePresence.filterOnline(anyCollectionOf(String.class))).thenReturn(Arrays.asList("user1@ippon.fr"));
+
+        Status status = new Status();
+        status.setStatusId(UUID.randomUUID());
+        local.notifyUsers(recipients, status);
+
+        // All the recipients reach the other node, in several messages
+        verify(remotePresence, atLeast(2)).filterOnline(anyCollectionOf(String.class));
+        verify(remoteAuthentication, atLeast(2)).runAs(eq("sender@ippon.fr"), any(Runnable.class));
+        // The node doesn't handle its own messages again
+        verify(localPresence, times(1)).filterOnline(anyCollectionOf(String.class));
+    }
+
+    private AuthenticationService authenticationService() {
+        User sender = new User();
+        sender.setLogin("sender@ippon.fr");
+        AuthenticationService authenticationService = mock(AuthenticationService.class);
+        when(authenticationService.hasAuthenticatedUser()).thenReturn(true);
+        when(authenticationService.getCurrentUser()).thenReturn(sender);
+        return authenticationService;
+    }
+
+    private AtmosphereService atmosphereService(ClusterTransport transport, PresenceService presenceService,
+                                                AuthenticationService authenticationService) {
+
+        AtmosphereService atmosphereService = new AtmosphereService();
+        ReflectionTestUtils.setField(atmosphereService, "clusterTransport", transport);
+        ReflectionTestUtils.setField(atmosphereService, "presenceService", presenceService);
+        ReflectionTestUtils.setField(atmosphereService, "authenticationService", authenticationService);
+        atmosphereService.init();
+        return atmosphereService;
+    }
+}
@@ -0,0 +1,159 @@
+package fr.ippon.tatami.service;
+
+import fr.ippon.tatami.domain.Avatar;
+import fr.ippon.tatami.domain.User;
+import fr.ippon.tatami.repository.AvatarRepository;
+import fr.ippon.tatami.repository.UserRepository;
+import fr.ippon.tatami.service.ImagePipeline.ImageVariant;
+import fr.ippon.tatami.service.blob.DiskBlobCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ImagePipelineTest {
+
+    private ImagePipeline imagePipeline;
+
+    private AvatarRepository avatarRepository;
+
+    private UserRepository userRepository;
+
+    private DiskBlobCache blobCache;
+
+    @Before
+    public void setUp() {
+        avatarRepository = mock(AvatarRepository.class);
+        userRepository = mock(UserRepository.class);
+        blobCache = mock(DiskBlobCache.class);
+        imagePipeline = new ImagePipeline();
+        ReflectionTestUtils.setField(imagePipeline, "avatarRepository", avatarRepository);
+        ReflectionTestUtils.setField(imagePipeline, "userRepository", userRepository);
+        ReflectionTestUtils.setField(imagePipeline, "blobCache", blobCache);
+        ReflectionTestUtils.setField(imagePipeline, "maxPixels", 16L * 1024 * 1024);
+    }
+
+    @Test
+    public void shouldSubsampleALargeImage() throws Exception {
+        BufferedImage image = imagePipeline.decode(png(2000, 1600), ImageVariant.AVATAR);
+
+        // The decoded image is at most twice as large as the avatar
+        assertThat(image.getWidth(), is(500));
+        assertThat(image.getHeight(), is(400));
+    }
+
+    @Test
+    public void shouldNotDecodeMoreThanTheMaximumPixels() throws Exception {
+        ReflectionTestUtils.setField(imagePipeline, "maxPixels", 10000L);
+
+        BufferedImage image = imagePipeline.decode(png(2000, 2000), ImageVariant.PREVIEW);
+
+        assertThat(image.getWidth(), is(100));
+        assertThat(image.getHeight(), is(100));
+    }
+
+    @Test
+    public void shouldResizeToTheVariantSizes() throws Exception {
+        BufferedImage image = new BufferedImage(1600, 1000, BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage thumbnail = imagePipeline.resize(image, ImageVariant.THUMBNAIL);
+        assertThat(thumbnail.getWidth(), is(100));
+        assertThat(thumbnail.getHeight(), is(100));
+        BufferedImage preview = imagePipeline.resize(image, ImageVariant.PREVIEW);
+        assertThat(preview.getWidth(), is(800));
+        assertThat(preview.getHeight(), is(500));
+        BufferedImage avatar = imagePipeline.resize(image, ImageVariant.AVATAR);
+        assertThat(avatar.getWidth(), is(200));
+        assertThat(avatar.getHeight(), is(200));
+    }
+
+    @Test
+    public void shouldNotEnlargeASmallPreview() throws Exception {
+        BufferedImage preview = imagePipeline.resize(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB),
+                ImageVariant.PREVIEW);
+
+        assertThat(preview.getWidth(), is(300));
+        assertThat(preview.getHeight(), is(200));
+    }
+
+    @Test
+    public void shouldNotDecodeANonImage() throws Exception {
+        byte[] content = "not an image".getBytes("UTF-8");
+
+        assertThat(imagePipeline.isImage(content), is(false));
+        assertThat(imagePipeline.decode(new ByteArrayInputStream(content), ImageVariant.AVATAR), nullValue());
+    }
+
+    @Test
+    public void shouldStoreTheResizedAvatarUnderANewId() throws Exception {
+        ReflectionTestUtils.setField(imagePipeline, "maxPixels", 1000000L);
+        when(avatarRepository.findAvatarById("uploaded")).thenReturn(avatar(4000, 3000));
+        doAnswer(invocation -> {
+            ((Avatar) invocation.getArguments()[0]).setAvatarId("resized");
+            return null;
+        }).when(avatarRepository).createAvatar(any(Avatar.class));
+        User user = new User();
+        user.setLogin("jdubois@ippon.fr");
+        user.setAvatar("uploaded");
+        when(userRepository.findUserByLogin("jdubois@ippon.fr")).thenReturn(user);
+
+        imagePipeline.processAvatar("uploaded", "jdubois@ippon.fr");
+
+        ArgumentCaptor<Avatar> resized = ArgumentCaptor.forClass(Avatar.class);
+        verify(avatarRepository).createAvatar(resized.capture());
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(resized.getValue().getContent()));
+        assertThat(image.getWidth(), is(200));
+        assertThat(image.getHeight(), is(200));
+        assertThat(user.getAvatar(), is("resized"));
+        verify(userRepository).updateUser(user);
+        verify(avatarRepository).removeAvatar("uploaded");
+        verify(blobCache).evict(AvatarService.AVATAR_BLOB + "uploaded");
+    }
+
+    @Test
+    public void shouldDropTheResizedAvatarOfAReplacedAvatar() throws Exception {
+        when(avatarRepository.findAvatarById("uploaded")).thenReturn(avatar(400, 400));
+        doAnswer(invocation -> {
+            ((Avatar) invocation.getArguments()[0]).setAvatarId("resized");
+            return null;
+        }).when(avatarRepository).createAvatar(any(Avatar.class));
+        User user = new User();
+        user.setLogin("jdubois@ippon.fr");
+        user.setAvatar("newer");
+        when(userRepository.findUserByLogin("jdubois@ippon.fr")).thenReturn(user);
+
+        imagePipeline.processAvatar("uploaded", "jdubois@ippon.fr");
+
+        assertThat(user.getAvatar(), is("newer"));
+        verify(avatarRepository).removeAvatar("resized");
+        verify(avatarRepository, never()).removeAvatar("uploaded");
+        verify(userRepository, never()).updateUser(any(User.class));
+    }
+
+    private static Avatar avatar(int width, int height) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY), "png", bytes);
+        Avatar avatar = new Avatar();
+        avatar.setAvatarId("uploaded");
+        avatar.setFilename("avatar.png");
+        avatar.setContent(bytes.toByteArray());
+        avatar.setSize(avatar.getContent().length);
+        return avatar;
+    }
+
+    private static ByteArrayInputStream png(int width, int height) throws IOException {
+        return new ByteArrayInputStream(avatar(width, height).getContent());
+    }
+}
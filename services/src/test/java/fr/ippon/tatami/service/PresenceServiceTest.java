@@ -0,0 +1,37 @@
+package fr.ippon.tatami.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PresenceServiceTest {
+
+    @Test
+    public void shouldBeOnlineUntilTheLastConnectionIsClosed() {
+        PresenceService presenceService = new PresenceService();
+        presenceService.connected("uuid1", "jdubois@ippon.fr");
+        presenceService.connected("uuid2", "jdubois@ippon.fr");
+        // A reconnection keeps its UUID
+        presenceService.connected("uuid1", "jdubois@ippon.fr");
+
+        presenceService.disconnected("uuid1");
+        assertThat(presenceService.isOnline("jdubois@ippon.fr"), is(true));
+
+        presenceService.disconnected("uuid2");
+        assertThat(presenceService.isOnline("jdubois@ippon.fr"), is(false));
+        assertThat(presenceService.getConnectedUsers(), is(0));
+    }
+
+    @Test
+    public void shouldFilterTheOnlineUsers() {
+        PresenceService presenceService = new PresenceService();
+        presenceService.connected("uuid1", "jdubois@ippon.fr");
+
+        assertThat(presenceService.filterOnline(Arrays.asList("uuser@ippon.fr", "jdubois@ippon.fr")),
+                contains("jdubois@ippon.fr"));
+    }
+}
@@ -0,0 +1,80 @@
+package fr.ippon.tatami.service;
+
+import com.datastax.driver.core.utils.UUIDs;
+import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.repository.TimelineRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class StatusFanoutServiceTest {
+
+    private StatusFanoutService fanoutService;
+
+    private TimelineRepository timelineRepository;
+
+    private AtmosphereService atmosphereService;
+
+    private MentionService mentionService;
+
+    @Before
+    public void setUp() {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("tatami.fanout.async", "true")
+                .withProperty("tatami.fanout.threads", "1")
+                .withProperty("tatami.fanout.retryDelay", "10")
+                .withProperty("tatami.fanout.notificationBatchSize", "1");
+        timelineRepository = mock(TimelineRepository.class);
+        atmosphereService = mock(AtmosphereService.class);
+        mentionService = mock(MentionService.class);
+        fanoutService = new StatusFanoutService();
+        ReflectionTestUtils.setField(fanoutService, "env", env);
+        ReflectionTestUtils.setField(fanoutService, "timelineRepository", timelineRepository);
+        ReflectionTestUtils.setField(fanoutService, "atmosphereService", atmosphereService);
+        ReflectionTestUtils.setField(fanoutService, "mentionService", mentionService);
+        fanoutService.init();
+    }
+
+    @After
+    public void tearDown() {
+        fanoutService.destroy();
+    }
+
+    @Test
+    public void shouldResumeTheNotificationsWhereTheyFailed() {
+        Status status = new Status();
+        status.setStatusId(UUIDs.timeBased());
+        status.setLogin("jdubois@ippon.fr");
+        doThrow(new IllegalStateException("Node unavailable")).doNothing()
+                .when(atmosphereService).notifyUsers(eq(Collections.singletonList("uncleBob@ippon.fr")), any(Status.class));
+        doThrow(new IllegalStateException("Node unavailable")).doNothing()
+                .when(mentionService).mentionUser(eq("uncleBob@ippon.fr"), any(Status.class));
+
+        fanoutService.fanout(status, delivery -> {
+            delivery.addToTimeline("tescolan@ippon.fr");
+            delivery.mention("uncleBob@ippon.fr");
+            delivery.addToTimeline("nuuser@ippon.fr");
+        });
+
+        verify(atmosphereService, timeout(5000).times(1))
+                .notifyUsers(eq(Collections.singletonList("nuuser@ippon.fr")), eq(status));
+        verify(mentionService, timeout(5000).times(2)).mentionUser("uncleBob@ippon.fr", status);
+        // The users notified before a failure are not notified again
+        verify(timelineRepository, times(1)).addStatusToTimelines(
+                eq(Arrays.asList("tescolan@ippon.fr", "uncleBob@ippon.fr", "nuuser@ippon.fr")),
+                eq(status.getStatusId().toString()));
+        verify(atmosphereService, times(1))
+                .notifyUsers(eq(Collections.singletonList("tescolan@ippon.fr")), eq(status));
+        verify(atmosphereService, times(2))
+                .notifyUsers(eq(Collections.singletonList("uncleBob@ippon.fr")), eq(status));
+    }
+}
@@ -0,0 +1,240 @@
+package fr.ippon.tatami.service;
+
+import fr.ippon.tatami.domain.ReindexSegment;
+import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.repository.ReindexCheckpointRepository;
+import fr.ippon.tatami.repository.StatusRepository;
+import fr.ippon.tatami.service.exception.IndexingException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class StatusReindexServiceTest {
+
+    private StatusReindexService reindexService;
+
+    private StatusRepository statusRepository;
+
+    private ReindexCheckpointRepository reindexCheckpointRepository;
+
+    private SearchService searchService;
+
+    private MockEnvironment env;
+
+    /**
+     * The tokens of the statuses of the fake status table.
+     */
+    private final TreeSet<Long> tokens = new TreeSet<>();
+
+    private final List<Long> indexedTokens = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        env = new MockEnvironment()
+                .withProperty("tatami.reindex.threads", "2")
+                .withProperty("tatami.reindex.pageSize", "2")
+                .withProperty("tatami.reindex.bulkSize", "1");
+        statusRepository = mock(StatusRepository.class);
+        reindexCheckpointRepository = mock(ReindexCheckpointRepository.class);
+        searchService = mock(SearchService.class);
+        reindexService = new StatusReindexService();
+        ReflectionTestUtils.setField(reindexService, "env", env);
+        ReflectionTestUtils.setField(reindexService, "statusRepository", statusRepository);
+        ReflectionTestUtils.setField(reindexService, "reindexCheckpointRepository", reindexCheckpointRepository);
+        ReflectionTestUtils.setField(reindexService, "searchService", searchService);
+        ReflectionTestUtils.setField(reindexService, "retryDelay", 1L);
+
+        when(statusRepository.scanStatuses(anyLong(), anyLong(), anyInt(), any(Consumer.class)))
+                .thenAnswer(invocation -> {
+                    Object[] arguments = invocation.getArguments();
+                    return scan((Long) arguments[0], (Long) arguments[1], (Integer) arguments[2],
+                            (Consumer<Status>) arguments[3]);
+                });
+        doAnswer(invocation -> {
+            for (Status status : (Collection<Status>) invocation.getArguments()[0]) {
+                indexedTokens.add(Long.valueOf(status.getContent()));
+            }
+            return null;
+        }).when(searchService).addStatuses(anyCollection());
+    }
+
+    @Test
+    public void shouldSplitTheWholeTokenRing() {
+        List<ReindexSegment> segments = StatusReindexService.split(7);
+
+        assertThat(segments.size(), is(7));
+        assertThat(segments.get(0).getStartToken(), is(Long.MIN_VALUE));
+        assertThat(segments.get(6).getEndToken(), is(Long.MAX_VALUE));
+        for (int i = 1; i < segments.size(); i++) {
+            assertThat(segments.get(i).getStartToken(), is(segments.get(i - 1).getEndToken()));
+        }
+        for (ReindexSegment segment : segments) {
+            assertThat(segment.isDone(), is(false));
+            assertThat(segment.getProgress(), is(0.0));
+        }
+    }
+
+    @Test
+    public void shouldScanEveryTokenRangeOnce() throws Exception {
+        env.setProperty("tatami.reindex.segments", "4");
+        tokens.addAll(Arrays.asList(Long.MIN_VALUE / 2, -10L, -1L, 0L, 1L, 10L, Long.MAX_VALUE / 2, Long.MAX_VALUE));
+        Map<Integer, Long> checkpoints = Collections.synchronizedMap(new HashMap<>());
+        doAnswer(invocation -> {
+            ReindexSegment segment = (ReindexSegment) invocation.getArguments()[0];
+            checkpoints.put(segment.getSegment(), segment.getLastToken());
+            return null;
+        }).when(reindexCheckpointRepository).saveSegment(any(ReindexSegment.class));
+
+        assertThat(reindexService.reindexAll(), is(true));
+        awaitTermination();
+
+        assertThat(indexedTokens.size(), is(tokens.size()));
+        assertThat(new TreeSet<>(indexedTokens), is(tokens));
+        List<ReindexSegment> segments = StatusReindexService.split(4);
+        for (ReindexSegment segment : segments) {
+            assertThat(checkpoints.get(segment.getSegment()), is(segment.getEndToken()));
+        }
+        assertThat(reindexService.getProgress().getProgress(), is(1.0));
+        verify(reindexCheckpointRepository).deleteSegments();
+    }
+
+    @Test
+    public void shouldResumeFromTheSavedCheckpoints() throws Exception {
+        tokens.addAll(Arrays.asList(-50L, 10L, 60L, 70L, 90L));
+        List<Long> savedTokens = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            savedTokens.add(((ReindexSegment) invocation.getArguments()[0]).getLastToken());
+            return null;
+        }).when(reindexCheckpointRepository).saveSegment(any(ReindexSegment.class));
+        when(reindexCheckpointRepository.findSegments()).thenReturn(Arrays.asList(
+                new ReindexSegment(0, -100, 0, 0),
+                new ReindexSegment(1, 0, 100, 50)));
+
+        reindexService.onApplicationEvent(mock(ContextRefreshedEvent.class));
+        awaitTermination();
+
+        // The done segment and the statuses before the checkpoint are not indexed again
+        assertThat(indexedTokens, is(Arrays.asList(60L, 70L, 90L)));
+        assertThat(savedTokens, is(Arrays.asList(70L, 100L)));
+        verify(statusRepository, never()).scanStatuses(eq(0L), anyLong(), anyInt(), any(Consumer.class));
+        verify(reindexCheckpointRepository, never()).deleteSegments();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldIndexTheRejectedStatusesAgainBeforeTheCheckpoint() throws Exception {
+        env.setProperty("tatami.reindex.segments", "1");
+        env.setProperty("tatami.reindex.bulkSize", "2");
+        tokens.addAll(Arrays.asList(-10L, -1L, 10L, 20L));
+        List<Long> savedTokens = saveTokens();
+        Set<Long> rejectedTokens = Collections.synchronizedSet(new HashSet<>(Collections.singleton(10L)));
+        doAnswer(invocation -> {
+            List<String> failedIds = new ArrayList<>();
+            for (Status status : (Collection<Status>) invocation.getArguments()[0]) {
+                Long token = Long.valueOf(status.getContent());
+                if (rejectedTokens.remove(token)) {
+                    failedIds.add(status.getStatusId().toString());
+                } else {
+                    indexedTokens.add(token);
+                }
+            }
+            if (!failedIds.isEmpty()) {
+                throw new IndexingException("rejected", failedIds);
+            }
+            return null;
+        }).when(searchService).addStatuses(anyCollection());
+
+        assertThat(reindexService.reindexAll(), is(true));
+        awaitTermination();
+
+        // Only the rejected status is sent again
+        assertThat(indexedTokens, is(Arrays.asList(-10L, -1L, 20L, 10L)));
+        assertThat(savedTokens, is(Arrays.asList(Long.MIN_VALUE, -1L, 20L, Long.MAX_VALUE)));
+        assertThat(reindexService.getProgress().getIndexedStatuses(), is(4L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldNotSaveTheCheckpointOfARejectedPage() throws Exception {
+        env.setProperty("tatami.reindex.segments", "1");
+        tokens.addAll(Arrays.asList(-10L, -1L, 10L, 20L));
+        List<Long> savedTokens = saveTokens();
+        AtomicInteger attempts = new AtomicInteger();
+        doAnswer(invocation -> {
+            Status status = ((Collection<Status>) invocation.getArguments()[0]).iterator().next();
+            if (status.getContent().equals("10")) {
+                attempts.incrementAndGet();
+                throw new IndexingException("rejected", Collections.singleton(status.getStatusId().toString()));
+            }
+            indexedTokens.add(Long.valueOf(status.getContent()));
+            return null;
+        }).when(searchService).addStatuses(anyCollection());
+
+        assertThat(reindexService.reindexAll(), is(true));
+        awaitTermination();
+
+        assertThat(indexedTokens, is(Arrays.asList(-10L, -1L)));
+        assertThat(savedTokens, is(Arrays.asList(Long.MIN_VALUE, -1L)));
+        assertThat(attempts.get(), is(5));
+    }
+
+    @Test
+    public void shouldNotResumeACompletedReindexing() {
+        when(reindexCheckpointRepository.findSegments()).thenReturn(Collections.singletonList(
+                new ReindexSegment(0, -100, 100, 100)));
+
+        reindexService.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+        assertThat(reindexService.isRunning(), is(false));
+        verifyZeroInteractions(statusRepository);
+    }
+
+    /**
+     * Scans the fake status table like the Cassandra repository, in the (fromToken, toToken] range.
+     */
+    private long scan(long fromToken, long toToken, int limit, Consumer<Status> consumer) {
+        long lastToken = fromToken;
+        int rows = 0;
+        for (Long token : tokens.subSet(fromToken, false, toToken, true)) {
+            if (rows == limit) {
+                break;
+            }
+            Status status = new Status();
+            status.setStatusId(UUID.randomUUID());
+            status.setContent(String.valueOf(token));
+            consumer.accept(status);
+            lastToken = token;
+            rows++;
+        }
+        return rows < limit ? toToken : lastToken;
+    }
+
+    private List<Long> saveTokens() {
+        List<Long> savedTokens = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            savedTokens.add(((ReindexSegment) invocation.getArguments()[0]).getLastToken());
+            return null;
+        }).when(reindexCheckpointRepository).saveSegment(any(ReindexSegment.class));
+        return savedTokens;
+    }
+
+    private void awaitTermination() throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (reindexService.isRunning() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertThat(reindexService.isRunning(), is(false));
+    }
+}
@@ -3,11 +3,15 @@ package fr.ippon.tatami.service;
 import fr.ippon.tatami.AbstractCassandraTatamiTest;
 import fr.ippon.tatami.domain.User;
 import fr.ippon.tatami.security.AuthenticationService;
+import fr.ippon.tatami.service.trends.TrendEngine;
 import fr.ippon.tatami.web.rest.dto.Trend;
+import org.junit.After;
 import org.junit.Test;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.inject.Inject;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -23,6 +27,15 @@ public class TrendServiceTest extends AbstractCassandraTatamiTest {
     @Inject
     public TrendService trendService;
 
+    @Inject
+    public TrendEngine trendEngine;
+
+    @After
+    public void resetClock() {
+        ReflectionTestUtils.setField(trendEngine, "clock", Clock.systemUTC());
+        trendEngine.clear();
+    }
+
     @Test
     public void testSearchTags() {
         mockAuthentication("currentuser@domain.com");
@@ -62,6 +75,8 @@ public class TrendServiceTest extends AbstractCassandraTatamiTest {
         if (!foundTrend) {
             fail("#Trending should have been trending");
         }
+        // A week later
+        ReflectionTestUtils.setField(trendEngine, "clock", Clock.offset(Clock.systemUTC(), Duration.ofDays(8)));
         for (int i = 0; i < 7; i++) {
             statusUpdateService.postStatus("New trending message " + i + " #NewTrend", false, new ArrayList<String>(), null);
         }
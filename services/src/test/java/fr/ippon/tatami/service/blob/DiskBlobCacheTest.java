@@ -0,0 +1,98 @@
+package fr.ippon.tatami.service.blob;
+
+import fr.ippon.tatami.service.cluster.ClusterTransport;
+import fr.ippon.tatami.service.cluster.InMemoryClusterTransport;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DiskBlobCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ClusterTransport clusterTransport = new InMemoryClusterTransport();
+
+    private DiskBlobCache blobCache;
+
+    @Before
+    public void setUp() throws IOException {
+        blobCache = newBlobCache();
+    }
+
+    @Test
+    public void shouldLoadABlobOnlyOnce() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        DiskBlobCache.BlobLoader loader = (offset, length, out) -> {
+            loads.incrementAndGet();
+            out.write("abcdef".getBytes(), (int) offset, (int) length);
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        blobCache.write("blob", 6, 1, 3, loader, out);
+        assertThat(out.toString(), is("bcd"));
+
+        out.reset();
+        blobCache.write("blob", 6, 4, 2, loader, out);
+        assertThat(out.toString(), is("ef"));
+        assertThat(loads.get(), is(1));
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedBlobs() throws IOException {
+        blobCache.store("first", "1234".getBytes());
+        blobCache.store("second", "5678".getBytes());
+        // "first" is now the most recently used blob
+        assertThat(blobCache.write("first", 0, 4, new ByteArrayOutputStream()), is(true));
+
+        blobCache.store("third", "90".getBytes());
+        blobCache.store("fourth", "ab".getBytes());
+
+        assertThat(blobCache.write("first", 0, 4, new ByteArrayOutputStream()), is(true));
+        assertThat(blobCache.write("second", 0, 4, new ByteArrayOutputStream()), is(false));
+    }
+
+    @Test
+    public void shouldNotStoreLargeBlobs() throws IOException {
+        assertThat(blobCache.store("large", "123456789".getBytes()), is(false));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        blobCache.write("large", 9, 7, 2, (offset, length, target) ->
+                target.write("123456789".getBytes(), (int) offset, (int) length), out);
+        assertThat(out.toString(), is("89"));
+    }
+
+    @Test
+    public void shouldEvictABlobOnTheOtherNodes() throws IOException {
+        DiskBlobCache otherNode = newBlobCache();
+        blobCache.store("avatar", "1234".getBytes());
+        otherNode.store("avatar", "1234".getBytes());
+
+        blobCache.evict("avatar");
+
+        assertThat(blobCache.write("avatar", 0, 4, new ByteArrayOutputStream()), is(false));
+        assertThat(otherNode.write("avatar", 0, 4, new ByteArrayOutputStream()), is(false));
+    }
+
+    private DiskBlobCache newBlobCache() throws IOException {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("tatami.blobcache.directory", folder.newFolder().getPath())
+                .withProperty("tatami.blobcache.maxBytes", "10")
+                .withProperty("tatami.blobcache.maxEntryBytes", "8");
+        DiskBlobCache cache = new DiskBlobCache();
+        ReflectionTestUtils.setField(cache, "env", env);
+        ReflectionTestUtils.setField(cache, "clusterTransport", clusterTransport);
+        cache.init();
+        return cache;
+    }
+}
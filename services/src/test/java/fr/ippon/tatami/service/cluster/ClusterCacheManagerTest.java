@@ -0,0 +1,60 @@
+package fr.ippon.tatami.service.cluster;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ClusterCacheManagerTest {
+
+    private ClusterCacheManager firstNode;
+
+    private ClusterCacheManager secondNode;
+
+    @Before
+    public void setUp() {
+        InMemoryClusterTransport transport = new InMemoryClusterTransport();
+        HashSet<String> invalidatedCaches = new HashSet<>(Arrays.asList("user-cache", "group-cache"));
+        firstNode = new ClusterCacheManager(new ConcurrentMapCacheManager(), transport, invalidatedCaches);
+        secondNode = new ClusterCacheManager(new ConcurrentMapCacheManager(), transport, invalidatedCaches);
+    }
+
+    @Test
+    public void shouldEvictOnAllNodes() {
+        firstNode.getCache("user-cache").put("jdubois@ippon.fr", "first");
+        secondNode.getCache("user-cache").put("jdubois@ippon.fr", "second");
+        secondNode.getCache("user-cache").put("uncleBob@ippon.fr", "other");
+
+        firstNode.getCache("user-cache").evict("jdubois@ippon.fr");
+
+        assertThat(firstNode.getCache("user-cache").get("jdubois@ippon.fr"), nullValue());
+        assertThat(secondNode.getCache("user-cache").get("jdubois@ippon.fr"), nullValue());
+        assertThat(secondNode.getCache("user-cache").get("uncleBob@ippon.fr").get(), is("other"));
+    }
+
+    @Test
+    public void shouldClearOnAllNodes() {
+        secondNode.getCache("group-cache").put("group", "value");
+
+        firstNode.getCache("group-cache").clear();
+
+        assertThat(secondNode.getCache("group-cache").get("group"), nullValue());
+    }
+
+    @Test
+    public void shouldKeepOtherCachesLocal() {
+        secondNode.getCache("trends-cache").put("key", "value");
+
+        firstNode.getCache("trends-cache").evict("key");
+
+        assertThat(secondNode.getCache("trends-cache").get("key"), notNullValue());
+    }
+}
@@ -0,0 +1,129 @@
+package fr.ippon.tatami.service.elasticsearch;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class BulkIndexerTest {
+
+    private Client client;
+
+    private BulkRequestBuilder bulkRequest;
+
+    private IndexRequestBuilder indexRequest;
+
+    private ListenableActionFuture<BulkResponse> future;
+
+    private BulkIndexer bulkIndexer;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        client = mock(Client.class);
+        bulkRequest = mock(BulkRequestBuilder.class);
+        indexRequest = mock(IndexRequestBuilder.class);
+        future = mock(ListenableActionFuture.class);
+        when(client.prepareBulk()).thenReturn(bulkRequest);
+        when(client.prepareIndex(anyString(), anyString(), anyString())).thenReturn(indexRequest);
+        when(indexRequest.setSource(any(XContentBuilder.class))).thenReturn(indexRequest);
+        when(bulkRequest.execute()).thenReturn(future);
+        when(future.actionGet()).thenReturn(mock(BulkResponse.class));
+        // The scheduled flushes are disabled, the tests flush the operations themselves
+        bulkIndexer = new BulkIndexer(() -> client, type -> "tatami-" + type, 3, 3, 3600000);
+    }
+
+    @After
+    public void tearDown() {
+        bulkIndexer.close();
+    }
+
+    @Test
+    public void shouldMergeTheUpdatesOfADocument() throws IOException {
+        XContentBuilder first = source("first");
+        XContentBuilder second = source("second");
+        XContentBuilder last = source("last");
+
+        bulkIndexer.index("status", "1", first);
+        bulkIndexer.index("status", "1", second);
+        bulkIndexer.index("status", "1", last);
+
+        assertThat(bulkIndexer.queueDepth(), is(1));
+
+        bulkIndexer.flush();
+
+        assertThat(bulkIndexer.queueDepth(), is(0));
+        verify(client, times(1)).prepareIndex("tatami-status", "status", "1");
+        verify(indexRequest).setSource(last);
+        verify(indexRequest, never()).setSource(first);
+        verify(indexRequest, never()).setSource(second);
+        verify(bulkRequest, times(1)).execute();
+    }
+
+    @Test
+    public void shouldRetryAFailedBulkRequest() throws IOException {
+        when(future.actionGet())
+                .thenThrow(new ElasticSearchException("No node available"))
+                .thenReturn(mock(BulkResponse.class));
+        bulkIndexer.index("status", "1", source("content"));
+
+        bulkIndexer.flush();
+
+        assertThat(bulkIndexer.queueDepth(), is(1));
+
+        bulkIndexer.flush();
+
+        assertThat(bulkIndexer.queueDepth(), is(0));
+        verify(client, times(2)).prepareIndex("tatami-status", "status", "1");
+    }
+
+    @Test
+    public void shouldDropAnOperationAfterTheLastAttempt() throws IOException {
+        when(future.actionGet()).thenThrow(new ElasticSearchException("No node available"));
+        bulkIndexer.index("status", "1", source("content"));
+
+        for (int i = 0; i < BulkIndexer.MAX_ATTEMPTS; i++) {
+            assertThat(bulkIndexer.queueDepth(), is(1));
+            bulkIndexer.flush();
+        }
+
+        assertThat(bulkIndexer.queueDepth(), is(0));
+        verify(client, times(BulkIndexer.MAX_ATTEMPTS)).prepareIndex("tatami-status", "status", "1");
+    }
+
+    @Test
+    public void shouldFlushInTheCallingThreadWhenTheBufferIsFull() throws IOException {
+        bulkIndexer.index("status", "1", source("first"));
+        bulkIndexer.index("status", "2", source("second"));
+
+        assertThat(bulkIndexer.queueDepth(), is(2));
+        verify(bulkRequest, never()).execute();
+
+        bulkIndexer.index("status", "3", source("third"));
+
+        assertThat(bulkIndexer.queueDepth(), is(0));
+        verify(bulkRequest, times(1)).execute();
+    }
+
+    private static XContentBuilder source(String content) throws IOException {
+        return XContentFactory.jsonBuilder()
+                .startObject()
+                .field("content", content)
+                .endObject();
+    }
+}
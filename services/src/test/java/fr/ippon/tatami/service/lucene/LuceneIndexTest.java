@@ -0,0 +1,91 @@
+package fr.ippon.tatami.service.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Version;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LuceneIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldShowTheUpdatesAfterARefresh() throws IOException {
+        LuceneIndex index = open();
+        try {
+            index.update("1", document("1", "first"));
+            index.update("2", document("2", "second"));
+
+            assertThat(count(index), is(0));
+
+            index.refresh();
+
+            assertThat(count(index), is(2));
+
+            index.update("1", document("1", "updated"));
+            index.delete("2");
+            index.refresh();
+
+            assertThat(count(index), is(1));
+            assertThat(value(index, "1"), is("updated"));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void shouldKeepTheCommittedDocuments() throws IOException {
+        LuceneIndex index = open();
+        index.update("1", document("1", "first"));
+        index.commit();
+        index.close();
+
+        index = open();
+        try {
+            assertThat(count(index), is(1));
+            assertThat(value(index, "1"), is("first"));
+
+            index.deleteAll();
+
+            assertThat(count(index), is(0));
+        } finally {
+            index.close();
+        }
+    }
+
+    private LuceneIndex open() throws IOException {
+        return new LuceneIndex("test", new File(temporaryFolder.getRoot(), "test"),
+                new StandardAnalyzer(Version.LUCENE_36));
+    }
+
+    private static Document document(String id, String value) {
+        Document document = new Document();
+        document.add(new Field(LuceneIndex.ID_FIELD, id, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        document.add(new Field("value", value, Field.Store.YES, Field.Index.NO));
+        return document;
+    }
+
+    private static int count(LuceneIndex index) throws IOException {
+        return index.search(searcher -> searcher.search(new MatchAllDocsQuery(), 10).totalHits);
+    }
+
+    private static String value(LuceneIndex index, String id) throws IOException {
+        return index.search(searcher -> {
+            int doc = searcher.search(new TermQuery(new Term(LuceneIndex.ID_FIELD, id)), 1).scoreDocs[0].doc;
+            return searcher.doc(doc).get("value");
+        });
+    }
+}
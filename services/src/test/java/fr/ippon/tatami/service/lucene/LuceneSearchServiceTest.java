@@ -0,0 +1,241 @@
+package fr.ippon.tatami.service.lucene;
+
+import com.datastax.driver.core.utils.UUIDs;
+import fr.ippon.tatami.domain.Group;
+import fr.ippon.tatami.domain.User;
+import fr.ippon.tatami.domain.status.Status;
+import fr.ippon.tatami.repository.GroupRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LuceneSearchServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LuceneSearchService searchService;
+
+    private GroupRepository groupRepository;
+
+    private long date = 1400000000000L;
+
+    @Before
+    public void setUp() throws Exception {
+        groupRepository = mock(GroupRepository.class);
+        searchService = new LuceneSearchService();
+        // The indexes are refreshed by the tests, not by the scheduler
+        ReflectionTestUtils.setField(searchService, "env", new MockEnvironment()
+                .withProperty("lucene.directory", temporaryFolder.getRoot().getAbsolutePath())
+                .withProperty("lucene.refreshInterval", "3600000")
+                .withProperty("lucene.commitInterval", "3600000"));
+        ReflectionTestUtils.setField(searchService, "groupRepository", groupRepository);
+        searchService.init();
+    }
+
+    @After
+    public void tearDown() {
+        searchService.destroy();
+    }
+
+    @Test
+    public void shouldSearchTheStatusesOfADomain() {
+        Status first = status("ippon.fr", "Le développement de Tatami");
+        Status second = status("ippon.fr", "Tatami est un réseau social");
+        Status other = status("ippon.fr", "Un autre message");
+        Status otherDomain = status("example.com", "Tatami ailleurs");
+        searchService.addStatuses(Arrays.asList(first, second, other, otherDomain));
+        searchService.refresh();
+
+        assertThat(searchService.searchStatus("ippon.fr", "tatami", 0, 10),
+                is(Arrays.asList(second.getStatusId().toString(), first.getStatusId().toString())));
+        // The statuses are searched without accents, and by the username of their author
+        assertThat(searchService.searchStatus("ippon.fr", "reseau", 0, 10),
+                is(Collections.singletonList(second.getStatusId().toString())));
+        assertThat(searchService.searchStatus("ippon.fr", "jdubois", 0, 10).size(), is(3));
+        assertThat(searchService.searchStatus("ippon.fr", "inconnu", 0, 10), is(empty()));
+
+        List<Status> statuses = searchService.searchStatus("ippon.fr", "social", null, null, 10);
+        assertThat(statuses.size(), is(1));
+        assertThat(statuses.get(0).getStatusId(), is(second.getStatusId()));
+        assertThat(statuses.get(0).getContent(), is("Tatami est un réseau social"));
+        assertThat(statuses.get(0).getLogin(), is("jdubois@ippon.fr"));
+        assertThat(statuses.get(0).getStatusDate(), is(second.getStatusDate()));
+    }
+
+    @Test
+    public void shouldBuildTheSearchResultsFromTheIndex() {
+        Status reply = status("ippon.fr", "Une réponse indexée");
+        reply.setDiscussionId("fa2bd770-9848-11e1-a6ca-e0f847068d52");
+        reply.setReplyTo("fa2bd770-9848-11e1-a6ca-e0f847068d52");
+        reply.setReplyToUsername("jmartin");
+        reply.setGeoLocalization("48.54654,3.87987987");
+        Status withAttachment = status("ippon.fr", "Une pièce jointe indexée");
+        withAttachment.setHasAttachments(true);
+        searchService.addStatuses(Arrays.asList(reply, withAttachment));
+        searchService.refresh();
+
+        List<Status> statuses = searchService.searchStatus("ippon.fr", "indexee", null, null, 10);
+
+        assertThat(statuses.size(), is(2));
+        Status indexedAttachment = statuses.get(0);
+        assertThat(indexedAttachment.getStatusId(), is(withAttachment.getStatusId()));
+        assertThat(indexedAttachment.getHasAttachments(), is(true));
+        Status indexedReply = statuses.get(1);
+        assertThat(indexedReply.getStatusId(), is(reply.getStatusId()));
+        assertThat(indexedReply.getContent(), is("Une réponse indexée"));
+        assertThat(indexedReply.getDiscussionId(), is("fa2bd770-9848-11e1-a6ca-e0f847068d52"));
+        assertThat(indexedReply.getReplyTo(), is("fa2bd770-9848-11e1-a6ca-e0f847068d52"));
+        assertThat(indexedReply.getReplyToUsername(), is("jmartin"));
+        assertThat(indexedReply.getGeoLocalization(), is("48.54654,3.87987987"));
+        assertThat(indexedReply.getHasAttachments(), is(false));
+        assertThat(indexedReply.isDetailsAvailable(), is(true));
+    }
+
+    @Test
+    public void shouldPageTheStatusesWithTheLastStatus() {
+        List<String> statusIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Status status = status("ippon.fr", "Page " + i);
+            if (i == 3) {
+                // Statuses of the same date are sorted by Id
+                status.setStatusDate(new Date(date - 1000));
+            }
+            searchService.addStatus(status);
+            statusIds.add(0, status.getStatusId().toString());
+        }
+        searchService.refresh();
+
+        List<String> pagedIds = new ArrayList<>();
+        List<Status> page = searchService.searchStatus("ippon.fr", "page", null, null, 2);
+        while (!page.isEmpty()) {
+            assertThat(page.size(), lessThanOrEqualTo(2));
+            for (Status status : page) {
+                pagedIds.add(status.getStatusId().toString());
+            }
+            Status last = page.get(page.size() - 1);
+            page = searchService.searchStatus("ippon.fr", "page", last.getStatusDate(),
+                    last.getStatusId().toString(), 2);
+        }
+
+        assertThat(pagedIds, is(searchService.searchStatus("ippon.fr", "page", 0, 10)));
+        assertThat(new HashSet<>(pagedIds), is(new HashSet<>(statusIds)));
+        assertThat(searchService.searchStatus("ippon.fr", "page", 2, 2), is(pagedIds.subList(4, 5)));
+    }
+
+    @Test
+    public void shouldSearchTheUsersByPrefix() {
+        searchService.addUsers(Arrays.asList(
+                user("jdubois@ippon.fr", "jdubois", "Julien", "Dubois"),
+                user("jmartin@ippon.fr", "jmartin", "Jérôme", "Martin"),
+                user("jdupont@example.com", "jdupont", "Jean", "Dupont")));
+        searchService.refresh();
+
+        assertThat(searchService.searchUserByPrefix("ippon.fr", "j"),
+                is(Arrays.asList("jdubois@ippon.fr", "jmartin@ippon.fr")));
+        assertThat(searchService.searchUserByPrefix("ippon.fr", "jdu"),
+                is(Collections.singletonList("jdubois@ippon.fr")));
+        assertThat(searchService.searchUserByPrefix("ippon.fr", "jero"),
+                is(Collections.singletonList("jmartin@ippon.fr")));
+        assertThat(searchService.searchUserByPrefix("ippon.fr", "Dupont"), is(empty()));
+        assertThat(searchService.searchUserByPrefix("ippon.fr", ""), is(empty()));
+    }
+
+    @Test
+    public void shouldSearchTheGroupsByPrefix() {
+        Group java = group("ippon.fr", "Java Développeurs");
+        Group devops = group("ippon.fr", "DevOps");
+        Group otherDomain = group("example.com", "Développement");
+        for (Group group : Arrays.asList(java, devops, otherDomain)) {
+            searchService.addGroup(group);
+            when(groupRepository.getGroupByGroupId(group.getGroupId())).thenReturn(group);
+        }
+        searchService.refresh();
+
+        assertThat(searchService.searchGroupByPrefix("ippon.fr", "dev", 10), contains(devops, java));
+        assertThat(searchService.searchGroupByPrefix("ippon.fr", "dev", 1), contains(devops));
+        assertThat(searchService.searchGroupByPrefix("ippon.fr", "jav", 10), contains(java));
+        assertThat(searchService.searchGroupByPrefix("ippon.fr", "python", 10), is(empty()));
+    }
+
+    @Test
+    public void shouldRemoveTheDocumentsFromTheIndex() {
+        Status status = status("ippon.fr", "Tatami");
+        User user = user("jdubois@ippon.fr", "jdubois", "Julien", "Dubois");
+        Group group = group("ippon.fr", "Tatami");
+        searchService.addStatus(status);
+        searchService.addUser(user);
+        searchService.addGroup(group);
+        when(groupRepository.getGroupByGroupId(group.getGroupId())).thenReturn(group);
+        searchService.refresh();
+
+        assertThat(searchService.searchStatus("ippon.fr", "tatami", 0, 10).size(), is(1));
+        assertThat(searchService.searchUserByPrefix("ippon.fr", "jdu").size(), is(1));
+        assertThat(searchService.searchGroupByPrefix("ippon.fr", "tat", 10).size(), is(1));
+
+        searchService.removeStatus(status);
+        searchService.removeUser(user);
+        searchService.removeGroup(group);
+        searchService.refresh();
+
+        assertThat(searchService.searchStatus("ippon.fr", "tatami", 0, 10), is(empty()));
+        assertThat(searchService.searchUserByPrefix("ippon.fr", "jdu"), is(empty()));
+        assertThat(searchService.searchGroupByPrefix("ippon.fr", "tat", 10), is(empty()));
+    }
+
+    @Test
+    public void shouldResetTheIndexes() {
+        searchService.addStatus(status("ippon.fr", "Tatami"));
+        searchService.addUser(user("jdubois@ippon.fr", "jdubois", "Julien", "Dubois"));
+        searchService.refresh();
+
+        assertThat(searchService.reset(), is(true));
+
+        assertThat(searchService.searchStatus("ippon.fr", "tatami", 0, 10), is(empty()));
+        assertThat(searchService.searchUserByPrefix("ippon.fr", "jdu"), is(empty()));
+    }
+
+    /**
+     * A status of jdubois, one second after the previous one.
+     */
+    private Status status(String domain, String content) {
+        date += 1000;
+        Status status = new Status();
+        status.setStatusId(UUIDs.timeBased());
+        status.setLogin("jdubois@" + domain);
+        status.setUsername("jdubois");
+        status.setDomain(domain);
+        status.setStatusDate(new Date(date));
+        status.setContent(content);
+        return status;
+    }
+
+    private static User user(String login, String username, String firstName, String lastName) {
+        User user = new User();
+        user.setLogin(login);
+        user.setUsername(username);
+        user.setDomain(login.substring(login.indexOf('@') + 1));
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        return user;
+    }
+
+    private static Group group(String domain, String name) {
+        Group group = new Group();
+        group.setGroupId(UUIDs.timeBased());
+        group.setDomain(domain);
+        group.setName(name);
+        return group;
+    }
+}
@@ -0,0 +1,37 @@
+package fr.ippon.tatami.service.trends;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TagTrieTest {
+
+    @Test
+    public void shouldReturnTheMostUsedTags() {
+        TagTrie trie = new TagTrie();
+        trie.add("Java", 3);
+        trie.add("JavaScript", 10);
+        trie.add("Jazz", 1);
+        trie.add("Cassandra", 20);
+
+        assertThat(trie.search("ja", 2), is(Arrays.asList("JavaScript", "Java")));
+        assertThat(trie.search("JAV", 5), is(Arrays.asList("JavaScript", "Java")));
+        assertThat(trie.search("python", 5), is(empty()));
+        assertThat(trie.size(), is(4));
+    }
+
+    @Test
+    public void shouldNotCountRebuiltTagsTwice() {
+        TagTrie trie = new TagTrie();
+        trie.add("Tatami", 1);
+        trie.addAtLeast("tatami", 1);
+        trie.addAtLeast("ippon", 2);
+
+        assertThat(trie.search("", 2), is(Arrays.asList("ippon", "Tatami")));
+        assertThat(trie.size(), is(2));
+    }
+}
@@ -0,0 +1,53 @@
+package fr.ippon.tatami.service.trends;
+
+import fr.ippon.tatami.web.rest.dto.Trend;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TagWindowTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static final long DAY = 24 * HOUR;
+
+    @Test
+    public void shouldCompareWithThePreviousWindow() {
+        TagWindow window = new TagWindow(new long[]{HOUR, DAY}, 6, 16);
+        long now = 100 * DAY;
+        for (int i = 0; i < 3; i++) {
+            window.add("old", now - 90 * 60 * 1000);
+        }
+        window.add("new", now - 1000);
+
+        List<Trend> trends = window.trends(2, now);
+
+        assertThat(trends.size(), is(2));
+        assertThat(trends.get(0).getTag(), is("old"));
+        assertThat(trends.get(0).isTrendingUp(), is(false));
+        assertThat(trends.get(1).getTag(), is("new"));
+        assertThat(trends.get(1).isTrendingUp(), is(true));
+    }
+
+    @Test
+    public void shouldForgetTagsOlderThanTwoWindows() {
+        TagWindow window = new TagWindow(new long[]{HOUR}, 6, 16);
+        window.add("forgotten", 0);
+
+        assertThat(window.trends(8, 3 * HOUR).isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldKeepTheMostFrequentTags() {
+        TagWindow window = new TagWindow(new long[]{HOUR}, 1, 4);
+        for (int i = 0; i < 100; i++) {
+            window.add("frequent", i);
+            window.add("rare" + i, i);
+        }
+
+        assertThat(window.trends(1, 100).get(0).getTag(), is("frequent"));
+    }
+}
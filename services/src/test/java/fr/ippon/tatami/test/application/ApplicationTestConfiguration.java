@@ -2,6 +2,7 @@ package fr.ippon.tatami.test.application;
 
 import fr.ippon.tatami.config.AsyncConfiguration;
 import fr.ippon.tatami.config.CassandraConfiguration;
+import fr.ippon.tatami.config.ClusterConfiguration;
 import fr.ippon.tatami.config.MailConfiguration;
 import fr.ippon.tatami.config.SearchConfiguration;
 import org.apache.thrift.transport.TTransportException;
@@ -17,6 +18,7 @@ import java.io.IOException;
 @ComponentScan(basePackages = {"fr.ippon.tatami.repository", "fr.ippon.tatami.service", "fr.ippon.tatami.security"})
 @Import(value = {AsyncConfiguration.class,
         CassandraConfiguration.class,
+        ClusterConfiguration.class,
         SearchConfiguration.class,
         MailConfiguration.class})
 @ImportResource({"classpath:META-INF/spring/applicationContext-security.xml"})
@@ -1,7 +1,9 @@
 package fr.ippon.tatami.web.atmosphere;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.ippon.tatami.service.PresenceService;
 import org.atmosphere.config.service.ManagedService;
+import org.atmosphere.cpr.AtmosphereConfig;
 import org.atmosphere.cpr.AtmosphereResource;
 import org.atmosphere.cpr.AtmosphereResponse;
 import org.atmosphere.cpr.Broadcaster;
@@ -9,6 +11,7 @@ import org.atmosphere.cpr.BroadcasterFactory;
 import org.atmosphere.handler.OnMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.web.context.support.WebApplicationContextUtils;
 
 import java.io.IOException;
 
@@ -20,6 +23,8 @@ public class RealtimeService extends OnMessage<TatamiNotification> {
 
     private static final ObjectMapper jsonObjectMapper = new ObjectMapper();
 
+    private volatile PresenceService presenceService;
+
     @Override
     public void onOpen(AtmosphereResource resource) throws IOException {
         log.debug("Opening Atmosphere connection");
@@ -32,6 +37,7 @@ public class RealtimeService extends OnMessage<TatamiNotification> {
                 BroadcasterFactory.getDefault().lookup(broadcasterName, true);
 
         b.addAtmosphereResource(resource);
+        presenceService(resource.getAtmosphereConfig()).connected(resource.uuid(), resource.getRequest().getRemoteUser());
     }
 
     @Override
@@ -42,17 +48,38 @@ public class RealtimeService extends OnMessage<TatamiNotification> {
     @Override
     public void onTimeout(AtmosphereResponse response) throws IOException {
         log.debug("Atmosphere connection timeout");
+        disconnected(response);
     }
 
     @Override
     public void onDisconnect(AtmosphereResponse response) throws IOException {
         log.debug("Closing Atmosphere connection");
+        disconnected(response);
+    }
+
+    private void disconnected(AtmosphereResponse response) {
+        AtmosphereResource resource = response.resource();
+        if (resource != null) {
+            presenceService(resource.getAtmosphereConfig()).disconnected(resource.uuid());
+        }
+    }
+
+    private PresenceService presenceService(AtmosphereConfig config) {
+        if (presenceService == null) {
+            presenceService = WebApplicationContextUtils
+                    .getRequiredWebApplicationContext(config.getServletContext())
+                    .getBean(PresenceService.class);
+        }
+        return presenceService;
     }
 
     @Override
     public void onMessage(AtmosphereResponse response, TatamiNotification notification) throws IOException {
         log.debug("Received Atmosphere message: {}", notification);
-        String json = jsonObjectMapper.writeValueAsString(notification);
+        String json = notification.getJson();
+        if (json == null) {
+            json = jsonObjectMapper.writeValueAsString(notification);
+        }
         response.getWriter().write(json);
     }
 }
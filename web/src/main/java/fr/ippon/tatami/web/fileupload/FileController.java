@@ -13,12 +13,18 @@ import fr.ippon.tatami.service.UserService;
 import fr.ippon.tatami.service.exception.StorageSizeException;
 
 import fr.ippon.tatami.web.rest.dto.AvatarMeta;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.annotation.PostConstruct;
@@ -27,6 +33,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Date;
@@ -48,8 +55,22 @@ public class FileController {
 
     private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
 
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final String HEADER_RANGE = "Range";
+
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    private static final String UPLOAD_FILE = "uploadFile";
+
     private String tatamiUrl;
 
+    private long maxFileSize;
+
     @Inject
     private Environment env;
 
@@ -71,6 +92,7 @@ public class FileController {
     @PostConstruct
     public void init() {
         this.tatamiUrl = env.getProperty("tatami.url");
+        this.maxFileSize = Long.parseLong(env.getProperty("file.max.size"));
     }
 
     @RequestMapping(value = "/file/{attachmentId}/*",
@@ -96,12 +118,7 @@ public class FileController {
             if (requestETag != null && requestETag.equals(attachmentId)) {
                 response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
             } else {
-                try {
-                    byte[] fileContent = attachment.getContent();
-                    response.getOutputStream().write(fileContent);
-                } catch (IOException e) {
-                    log.info("Error writing file to output stream. {}", e.getMessage());
-                }
+                writeAttachment(attachment, request, response);
             }
         }
 
@@ -125,7 +142,7 @@ public class FileController {
 
         // Put the file in the response
         Attachment attachment = attachmentService.getAttachmentById(attachmentId);
-        if (attachment == null || attachment.getThumbnail().length == 0) {
+        if (attachment == null || !attachment.getHasThumbnail()) {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             response.sendRedirect("/tatami/file/file_not_found");
         } else {
@@ -136,8 +153,9 @@ public class FileController {
                 response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
             } else {
                 try {
-                    byte[] fileContent = attachment.getThumbnail();
-                    response.getOutputStream().write(fileContent);
+                    if (!attachmentService.writeThumbnail(attachmentId, response.getOutputStream())) {
+                        response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    }
                 } catch (IOException e) {
                     log.info("Error writing file to output stream. {}", e.getMessage());
                 }
@@ -153,6 +171,90 @@ public class FileController {
 
 
 
+    @RequestMapping(value = "/preview/{attachmentId}/*",
+            method = RequestMethod.GET)
+    @Timed
+    public void preview(@PathVariable("attachmentId") String attachmentId,
+                        HttpServletRequest request,
+                        HttpServletResponse response) throws IOException {
+        // Cache the file in the browser
+        response.setDateHeader(HEADER_EXPIRES, System.currentTimeMillis() + CACHE_SECONDS * 1000L);
+        response.setHeader(HEADER_CACHE_CONTROL, "max-age=" + CACHE_SECONDS + ", must-revalidate");
+
+        // ETag support
+        response.setHeader(HEADER_ETAG, attachmentId); // The attachmentId is unique and should not be modified
+        String requestETag = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (requestETag != null && requestETag.equals(attachmentId)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            try {
+                // The preview is only available once the image has been resized
+                if (!attachmentService.writePreview(attachmentId, response.getOutputStream())) {
+                    response.setHeader(HEADER_CACHE_CONTROL, "no-cache");
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                }
+            } catch (IOException e) {
+                log.info("Error writing file to output stream. {}", e.getMessage());
+            }
+        }
+
+        try {
+            response.flushBuffer();
+        } catch (IOException e) {
+            log.info("Error flushing the output stream. {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the content of an attachment, or the byte range requested in the "Range" header.
+     * <p/>
+     * Only single ranges are supported : a request for several ranges gets the whole file.
+     */
+    private void writeAttachment(Attachment attachment, HttpServletRequest request, HttpServletResponse response) {
+        long size = attachment.getSize();
+        long start = 0;
+        long end = size - 1;
+        response.setHeader(HEADER_ACCEPT_RANGES, "bytes");
+        String range = request.getHeader(HEADER_RANGE);
+        String ifRange = request.getHeader(HEADER_IF_RANGE);
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0 &&
+                (ifRange == null || ifRange.equals(attachment.getAttachmentId()))) {
+
+            String[] bounds = range.substring("bytes=".length()).trim().split("-", -1);
+            try {
+                if (bounds[0].isEmpty()) {
+                    // Suffix range : the last bytes of the file
+                    start = Math.max(0, size - Long.parseLong(bounds[1]));
+                } else {
+                    start = Long.parseLong(bounds[0]);
+                    if (!bounds[1].isEmpty()) {
+                        end = Math.min(end, Long.parseLong(bounds[1]));
+                    }
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                log.debug("Ignoring invalid range {}", range);
+                start = 0;
+                end = size - 1;
+            }
+            if (start > end) {
+                response.setHeader(HEADER_CONTENT_RANGE, "bytes */" + size);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (start > 0 || end < size - 1) {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HEADER_CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+        long length = end - start + 1;
+        response.setHeader(HEADER_CONTENT_LENGTH, String.valueOf(length));
+        try {
+            attachmentService.writeContent(attachment, start, length, response.getOutputStream());
+        } catch (IOException e) {
+            log.info("Error writing file to output stream. {}", e.getMessage());
+        }
+    }
+
     @RequestMapping(value = "/avatar/{avatarId}/*",
             method = RequestMethod.GET)
     @Timed
@@ -165,23 +267,18 @@ public class FileController {
         response.setHeader(HEADER_CACHE_CONTROL, "max-age=" + CACHE_SECONDS + ", must-revalidate");
 
         // Put the file in the response
-        Avatar avatar = avatarService.getAvatarById(avatarId);
-        if (avatarId == null) {
-            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        // ETag support
+        response.setHeader(HEADER_ETAG, avatarId); // The avatarId is unique and should not be modified
+        String requestETag = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (requestETag != null && requestETag.equals(avatarId)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
         } else {
-            // ETag support
-
-            response.setHeader(HEADER_ETAG, avatarId); // The attachmentId is unique and should not be modified
-            String requestETag = request.getHeader(HEADER_IF_NONE_MATCH);
-            if (requestETag != null && requestETag.equals(avatarId)) {
-                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-            } else {
-                try {
-                    byte[] fileContent = avatar.getContent();
-                    response.getOutputStream().write(fileContent);
-                } catch (IOException e) {
-                    log.info("Error writing file to output stream. {}", e.getMessage());
+            try {
+                if (!avatarService.writeAvatar(avatarId, response.getOutputStream())) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 }
+            } catch (IOException e) {
+                log.info("Error writing file to output stream. {}", e.getMessage());
             }
         }
         try {
@@ -196,33 +293,22 @@ public class FileController {
             method = RequestMethod.POST)
     @ResponseBody
     @Timed
-    public List<UploadedFile> uploadAvatar(
-            @RequestParam("uploadFile") MultipartFile file) throws IOException {
+    public List<UploadedFile> uploadAvatar(HttpServletRequest request)
+            throws IOException, StorageSizeException, MissingServletRequestParameterException {
 
-        Avatar avatar = new Avatar();
-        avatar.setContent(file.getBytes());
-        avatar.setFilename(file.getOriginalFilename());
-        avatar.setSize(file.getSize());
-        avatar.setCreationDate(new Date());
-
-        avatarService.createAvatar(avatar);
+        Avatar avatar = readUpload(request, this::createAvatar);
 
         List<UploadedFile> uploadedFiles = new ArrayList<UploadedFile>();
         UploadedFile uploadedFile = new UploadedFile(
                 avatar.getAvatarId(),
-                file.getOriginalFilename(),
-                Long.valueOf(file.getSize()).intValue(),
-                tatamiUrl + "/tatami/avatar/" + avatar.getAvatarId() + "/" + file.getOriginalFilename());
+                avatar.getFilename(),
+                Long.valueOf(avatar.getSize()).intValue(),
+                tatamiUrl + "/tatami/avatar/" + avatar.getAvatarId() + "/" + avatar.getFilename());
 
-        log.info("Avatar url : {}/tatami/avatar/{}/{}", tatamiUrl, avatar.getAvatarId(), file.getOriginalFilename());
+        log.info("Avatar url : {}/tatami/avatar/{}/{}", tatamiUrl, avatar.getAvatarId(), avatar.getFilename());
 
         uploadedFiles.add(uploadedFile);
 
-        User user = authenticationService.getCurrentUser();
-        user.setAvatar(avatar.getAvatarId());
-
-        userRepository.updateUser(user);
-
         return uploadedFiles;
 
     }
@@ -266,23 +352,12 @@ public class FileController {
             method = RequestMethod.POST)
     @ResponseBody
     @Timed
-    public void uploadAvatarIE(
-            @RequestParam("uploadFile") MultipartFile file) throws IOException {
-
-        Avatar avatar = new Avatar();
-        avatar.setContent(file.getBytes());
-        avatar.setFilename(file.getOriginalFilename());
-        avatar.setSize(file.getSize());
-        avatar.setCreationDate(new Date());
+    public void uploadAvatarIE(HttpServletRequest request)
+            throws IOException, StorageSizeException, MissingServletRequestParameterException {
 
-        avatarService.createAvatar(avatar);
-
-        log.info("Avatar url : {}/tatami/avatar/{}/{}", tatamiUrl, avatar.getAvatarId(), file.getOriginalFilename());
-
-        User user = authenticationService.getCurrentUser();
-        user.setAvatar(avatar.getAvatarId());
+        Avatar avatar = readUpload(request, this::createAvatar);
 
-        userRepository.updateUser(user);
+        log.info("Avatar url : {}/tatami/avatar/{}/{}", tatamiUrl, avatar.getAvatarId(), avatar.getFilename());
 
     }
 
@@ -290,26 +365,17 @@ public class FileController {
     @RequestMapping(value = "/rest/fileupload", method = RequestMethod.POST)
     @ResponseBody
     @Timed
-    public List<UploadedFile> upload(@RequestParam("uploadFile") MultipartFile file)
-            throws IOException, StorageSizeException {
-
-        Attachment attachment = new Attachment();
-        attachment.setContent(file.getBytes());
-        attachment.setFilename(file.getName());
-        attachment.setSize(file.getSize());
-        attachment.setFilename(file.getOriginalFilename());
-        attachment.setCreationDate(new Date());
-
-        attachmentService.createAttachment(attachment);
+    public List<UploadedFile> upload(HttpServletRequest request)
+            throws IOException, StorageSizeException, MissingServletRequestParameterException {
 
-        log.debug("Created attachment : {}", attachment.getAttachmentId());
+        Attachment attachment = readUpload(request, this::createAttachment);
 
         List<UploadedFile> uploadedFiles = new ArrayList<UploadedFile>();
         UploadedFile uploadedFile = new UploadedFile(
                 attachment.getAttachmentId(),
-                file.getOriginalFilename(),
-                Long.valueOf(file.getSize()).intValue(),
-                tatamiUrl + "/tatami/file/" + attachment.getAttachmentId() + "/" + file.getOriginalFilename());
+                attachment.getFilename(),
+                Long.valueOf(attachment.getSize()).intValue(),
+                tatamiUrl + "/tatami/file/" + attachment.getAttachmentId() + "/" + attachment.getFilename());
 
         uploadedFiles.add(uploadedFile);
         return uploadedFiles;
@@ -319,24 +385,72 @@ public class FileController {
     		method = RequestMethod.POST, produces = "text/html")
     @ResponseBody
     @Timed
-    public String uploadIE(@RequestParam("uploadFile") MultipartFile file)
+    public String uploadIE(HttpServletRequest request)
+            throws IOException, StorageSizeException, MissingServletRequestParameterException {
+
+        Attachment attachment = readUpload(request, this::createAttachment);
+
+        String result = attachment.getAttachmentId()+":::"+attachment.getFilename()+":::"+attachment.getSize(); 
+        
+        return URLEncoder.encode(result, "UTF-8");
+		
+    }
+
+    private Attachment createAttachment(String filename, InputStream content)
             throws IOException, StorageSizeException {
 
         Attachment attachment = new Attachment();
-        attachment.setContent(file.getBytes());
-        attachment.setFilename(file.getName());
-        attachment.setSize(file.getSize());
-        attachment.setFilename(file.getOriginalFilename());
+        attachment.setFilename(filename);
         attachment.setCreationDate(new Date());
 
-        attachmentService.createAttachment(attachment);
+        attachmentService.createAttachment(attachment, content);
 
         log.debug("Created attachment : {}", attachment.getAttachmentId());
-        
-        String result = attachment.getAttachmentId()+":::"+file.getOriginalFilename()+":::"+file.getSize(); 
-        
-        return URLEncoder.encode(result, "UTF-8");
-		
+        return attachment;
+    }
+
+    /**
+     * Avatars are stored in a single blob : their content is read in memory, and is limited to "file.max.size".
+     */
+    private Avatar createAvatar(String filename, InputStream content) throws IOException {
+        Avatar avatar = new Avatar();
+        avatar.setContent(IOUtils.toByteArray(content));
+        avatar.setFilename(filename);
+        avatar.setSize(avatar.getContent().length);
+        avatar.setCreationDate(new Date());
+
+        avatarService.createAvatar(avatar);
+        return avatar;
+    }
+
+    /**
+     * Reads the "uploadFile" part of a multipart request as it is received : the request is not parsed by the
+     * multipart resolver, so the file is neither buffered in memory nor on the disk.
+     */
+    private <T> T readUpload(HttpServletRequest request, UploadReader<T> reader)
+            throws IOException, StorageSizeException, MissingServletRequestParameterException {
+
+        ServletFileUpload upload = new ServletFileUpload();
+        upload.setFileSizeMax(maxFileSize);
+        try {
+            FileItemIterator items = upload.getItemIterator(request);
+            while (items.hasNext()) {
+                FileItemStream item = items.next();
+                if (!item.isFormField() && UPLOAD_FILE.equals(item.getFieldName())) {
+                    try (InputStream content = item.openStream()) {
+                        // Some browsers send the full path of the file
+                        return reader.read(FilenameUtils.getName(item.getName()), content);
+                    }
+                }
+            }
+        } catch (FileUploadException e) {
+            throw new IOException("Could not read the upload : " + e.getMessage(), e);
+        }
+        throw new MissingServletRequestParameterException(UPLOAD_FILE, "MultipartFile");
+    }
+
+    private interface UploadReader<T> {
+        T read(String filename, InputStream content) throws IOException, StorageSizeException;
     }
 
     @RequestMapping(value = "/file/file_not_found",
@@ -3,6 +3,7 @@ package fr.ippon.tatami.web.rest;
 import com.yammer.metrics.annotation.Timed;
 import fr.ippon.tatami.domain.Group;
 import fr.ippon.tatami.domain.User;
+import fr.ippon.tatami.domain.status.Status;
 import fr.ippon.tatami.repository.UserTagRepository;
 import fr.ippon.tatami.security.AuthenticationService;
 import fr.ippon.tatami.service.*;
@@ -24,6 +25,7 @@ import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -74,6 +76,9 @@ public class SearchController {
 
     /**
      * GET  /search/status?q=tatami -> get the status where "tatami" appears
+     * <p/>
+     * The next pages are read with the "finish" and "finishDate" parameters, which are the Id and the date of the
+     * last status of the previous page. The "page" parameter is only kept for older clients.
      */
     @RequestMapping(value = "/rest/search/status",
             method = RequestMethod.GET,
@@ -82,18 +87,23 @@ public class SearchController {
     @Timed
     public Collection<StatusDTO> listStatusForUser(@RequestParam(value = "q", required = false, defaultValue = "") String query,
                                                    @RequestParam(value = "page", required = false, defaultValue = "0") Integer page,
-                                                   @RequestParam(value = "rpp", required = false, defaultValue = "20") Integer rpp) {
+                                                   @RequestParam(value = "rpp", required = false, defaultValue = "20") Integer rpp,
+                                                   @RequestParam(value = "finish", required = false) String finish,
+                                                   @RequestParam(value = "finishDate", required = false) Long finishDate) {
 
         log.debug("REST request to search status containing these words ({}).", query);
         final User currentUser = authenticationService.getCurrentUser();
         String domain = DomainUtil.getDomainFromLogin(currentUser.getLogin());
-        List<String> line;
-        if (StringUtils.isNotBlank(query)) {
-            line = searchService.searchStatus(domain, query, page, rpp);
-        } else {
-            line = Collections.emptyList();
+        if (StringUtils.isBlank(query)) {
+            return Collections.emptyList();
+        }
+        if (page > 0 && finish == null) {
+            List<String> line = searchService.searchStatus(domain, query, page, rpp);
+            return timelineService.buildStatusList(line);
         }
-        return timelineService.buildStatusList(line);
+        Date beforeDate = finishDate == null ? null : new Date(finishDate);
+        List<Status> statuses = searchService.searchStatus(domain, query, beforeDate, finish, rpp);
+        return timelineService.buildSearchResults(statuses);
     }
 
 
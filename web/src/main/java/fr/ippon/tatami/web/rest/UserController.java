@@ -93,17 +93,16 @@ public class UserController {
 
     /**
      * GET  /users -> Get all users of domain
+     * <p/>
+     * The users are paginated : the next page starts after the login given in the "after" parameter.
      */
     @RequestMapping(value = "/rest/users",
             method = RequestMethod.GET,
             produces = "application/json")
     @ResponseBody
     @Timed
-    public Collection<User> getAll(@RequestParam(required = false) Integer pagination) {
-        if (pagination == null) {
-            pagination = 0;
-        }
-        return userService.getUsersForCurrentDomain(pagination);
+    public Collection<User> getAll(@RequestParam(required = false) String after) {
+        return userService.getUsersForCurrentDomain(after);
     }
 
     /**